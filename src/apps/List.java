@@ -20,6 +20,10 @@ import naming.*;
  */
 public class List extends ClientApplication
 {
+    /** Number of directory entries requested from the naming server at a
+        time. */
+    private static final int    PAGE_SIZE = 1024;
+
     /** Application entry point. */
     public static void main(String[] arguments)
     {
@@ -81,8 +85,6 @@ public class List extends ClientApplication
                                          e.getMessage());
         }
 
-        String[]        components;
-
         // If the path is remote, obtain a naming server stub. Lock the path on
         // the naming server and list it.
         Service         naming_server = NamingStubs.service(object.hostname);
@@ -97,12 +99,29 @@ public class List extends ClientApplication
                                          t.getMessage());
         }
 
+        if(show_path)
+            System.out.println(remote_path + ":");
+
+        // Page through the directory, printing each page as it arrives. The
+        // naming server lists entries in name order, so the output is sorted
+        // without holding the whole directory in memory.
         try
         {
             if(naming_server.isDirectory(object.path))
-                components = naming_server.list(object.path);
+            {
+                String[]    page =
+                    naming_server.list(object.path, null, PAGE_SIZE);
+
+                while(page.length > 0)
+                {
+                    print(page, show_path);
+                    page = naming_server.list(object.path,
+                                              page[page.length - 1],
+                                              PAGE_SIZE);
+                }
+            }
             else
-                components = new String[] {object.path.last()};
+                print(new String[] {object.path.last()}, show_path);
         }
         catch(Throwable t)
         {
@@ -121,16 +140,19 @@ public class List extends ClientApplication
                 fatal("could not unlock " + object + ": " + t.getMessage());
             }
         }
+    }
 
-        // Sort the array of components that is returned by list and print it.
-        Arrays.sort(components);
-
-        if(show_path)
-            System.out.println(remote_path + ":");
+    /** Prints directory entries, one per line.
 
+        @param components Entries to be printed.
+        @param indent Set to <code>true</code> if each entry should be
+                      indented under the path being listed.
+     */
+    private void print(String[] components, boolean indent)
+    {
         for(int index = 0; index < components.length; ++index)
         {
-            if(show_path)
+            if(indent)
                 System.out.print("\t");
 
             System.out.println(components[index]);
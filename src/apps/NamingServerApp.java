@@ -1,5 +1,7 @@
 package apps;
 
+import java.io.*;
+
 import rmi.*;
 
 import naming.NamingServer;
@@ -7,9 +9,16 @@ import naming.NamingServer;
 /** Naming server application.
 
     <p>
-    The naming server application does not take any arguments. It starts a
-    naming server listening on the default client and registration ports for
-    clients and storage servers, respectively.
+    The naming server application starts a naming server listening on the
+    default client and registration ports for clients and storage servers,
+    respectively.
+
+    <p>
+    The application takes an optional argument: a directory in which the
+    naming server journals its directory tree. When the argument is given, the
+    tree left by the previous naming server started with the same directory
+    is restored, and its files become accessible again as the storage servers
+    hosting them register. Without it, the naming server starts empty.
  */
 public class NamingServerApp extends ServerApplication
 {
@@ -32,17 +41,25 @@ public class NamingServerApp extends ServerApplication
     /** Starts the naming server.
 
         @param arguments Command line arguments.
-        @throws BadUsageException If there are any command line arguments.
+        @throws BadUsageException If there is more than one command line
+                                  argument.
+        @throws IOException If the journal cannot be read or written.
         @throws RMIException If the naming server cannot be started.
      */
     @Override
     protected void startServer(String[] arguments)
-        throws BadUsageException, RMIException
+        throws BadUsageException, IOException, RMIException
     {
-        if(arguments.length != 0)
-            throw new BadUsageException("usage: naming");
+        if(arguments.length > 1)
+            throw new BadUsageException("usage: naming [metadata_directory]");
 
-        server = new StoppingNamingServer();
+        if(arguments.length == 0)
+            server = new StoppingNamingServer();
+        else
+        {
+            server = new StoppingNamingServer(
+                new File(arguments[0]).getAbsoluteFile());
+        }
         server.start();
     }
 
@@ -56,6 +73,18 @@ public class NamingServerApp extends ServerApplication
     /** Application naming server. */
     private class StoppingNamingServer extends NamingServer
     {
+        /** Creates a naming server that does not persist its tree. */
+        StoppingNamingServer()
+        {
+        }
+
+        /** Creates a naming server journaling its tree in the given
+            directory. */
+        StoppingNamingServer(File metadata) throws IOException
+        {
+            super(metadata);
+        }
+
         /** Schedules a timeout before attempting to stop the server
             gracefully. */
         @Override
@@ -2,6 +2,9 @@ package client;
 
 import java.io.*;
 import java.net.*;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import rmi.*;
 import common.*;
@@ -12,10 +15,12 @@ import storage.*;
 
     <p>
     Read calls on a <code>DFSInputStream</code> are directed to a storage server
-    hosting the given file. Each read call corresponds to one network request.
-    If this behavior is not desirable, the <code>DFSInputStream</code> should be
-    wrapped in a <code>BufferedInputStream</code> or other class providing
-    buffered input.
+    hosting the given file. Each read call corresponds to one network request,
+    except that reads longer than <code>READ_CHUNK</code> bytes are split into
+    several requests, up to <code>READ_WINDOW</code> of which are kept in
+    flight at once. If this behavior is not desirable, the
+    <code>DFSInputStream</code> should be wrapped in a
+    <code>BufferedInputStream</code> or other class providing buffered input.
 
     <p>
     <code>DFSInputStream</code> does not support marks.
@@ -28,10 +33,18 @@ import storage.*;
  */
 public class DFSInputStream extends InputStream
 {
+    /** Largest number of bytes requested from the storage server at once. */
+    public static final int     READ_CHUNK = 64 * 1024;
+    /** Maximum number of chunk requests in flight during one read. */
+    public static final int     READ_WINDOW = 8;
+
     /** Path to the file. */
     private final Path      path;
     /** Storage server hosting the file. */
     private final Storage   storage_server;
+    /** Asynchronous view of <code>storage_server</code>, used for long
+        reads. */
+    private final StorageAsync storage_async;
     /** Naming server used to find the storage server hosting the file. */
     private final Service   naming_server;
 
@@ -84,6 +97,7 @@ public class DFSInputStream extends InputStream
 
         path = file;
         this.naming_server = naming_server;
+        storage_async = Stub.createAsync(StorageAsync.class, storage_server);
     }
 
     /** Creates a <code>DFSInputStream</code> for a file listed by the given
@@ -232,6 +246,14 @@ public class DFSInputStream extends InputStream
         if(read_length > (length - offset))
             read_length = (int)(length - offset);
 
+        // Long reads are split into chunks requested concurrently.
+        if(read_length > READ_CHUNK)
+        {
+            readChunks(buffer, buffer_offset, read_length);
+            offset += read_length;
+            return read_length;
+        }
+
         // Read bytes from file and advance the stream offset if the request
         // succeeds.
         byte[]      result;
@@ -252,13 +274,72 @@ public class DFSInputStream extends InputStream
 
         // Copy bytes from the buffer that was received over the network into
         // the buffer provided by the caller.
-        for(int index = 0; index < read_length; ++index)
-            buffer[buffer_offset + index] = result[index];
+        System.arraycopy(result, 0, buffer, buffer_offset, read_length);
 
         // Return the number of bytes read.
         return read_length;
     }
 
+    /** Reads <code>read_length</code> bytes at the current stream offset in
+        chunks of at most <code>READ_CHUNK</code> bytes.
+
+        <p>
+        Up to <code>READ_WINDOW</code> chunk requests are kept in flight on
+        the storage server connection. Chunks are copied into the caller's
+        buffer in order as their replies arrive.
+
+        @throws IOException If any of the chunk requests fails.
+     */
+    private void readChunks(byte[] buffer, int buffer_offset, int read_length)
+        throws IOException
+    {
+        ArrayDeque<CompletableFuture<byte[]>>   window = new ArrayDeque<>();
+        int                                     requested = 0;
+        int                                     copied = 0;
+
+        while(copied < read_length)
+        {
+            // Keep the window full.
+            while(requested < read_length && window.size() < READ_WINDOW)
+            {
+                int     chunk = Math.min(READ_CHUNK, read_length - requested);
+                window.add(storage_async.read(path, offset + requested, chunk));
+                requested += chunk;
+            }
+
+            byte[]  result;
+
+            try
+            {
+                result = window.poll().join();
+            }
+            catch(CompletionException e)
+            {
+                for(CompletableFuture<byte[]> outstanding : window)
+                    outstanding.cancel(false);
+
+                if(e.getCause() instanceof FileNotFoundException)
+                    throw new IOException("file missing on storage server",
+                                          e.getCause());
+                throw new IOException("unable to contact storage server",
+                                      e.getCause());
+            }
+
+            int     expected = Math.min(READ_CHUNK, read_length - copied);
+            if(result.length != expected)
+            {
+                for(CompletableFuture<byte[]> outstanding : window)
+                    outstanding.cancel(false);
+
+                throw new IOException("short read from storage server");
+            }
+
+            System.arraycopy(result, 0, buffer, buffer_offset + copied,
+                             expected);
+            copied += expected;
+        }
+    }
+
     /** Reads a single byte from the input stream.
 
         @return The value of the byte read, as an integer between <code>0</code>
@@ -0,0 +1,286 @@
+package client;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import rmi.*;
+import common.*;
+import naming.*;
+
+/** Client-side cache of naming server leases.
+
+    <p>
+    A <code>LeaseCache</code> stands in for the naming server's
+    <code>lock</code> and <code>unlock</code> methods. The first
+    <code>lock</code> of an object obtains a lease on it; <code>unlock</code>
+    keeps the lease, so later locks of the object for the same or weaker
+    access are granted locally, without contacting the naming server. A
+    shared lease is upgraded to an exclusive one by releasing it and leasing
+    the object again, which is only possible while no user of the cache
+    holds the shared lock.
+
+    <p>
+    A background thread renews cached leases well before their terms run
+    out. When a renewal fails because the naming server has recalled the
+    lease for another user, the lease is released as soon as no user of the
+    cache holds it, and the next <code>lock</code> obtains a new one.
+
+    <p>
+    As with <code>lock</code>, holding a lease on an object also protects
+    the directories along its path. The cache must be closed when no longer
+    needed, to release its leases promptly rather than when they expire.
+ */
+public class LeaseCache implements AutoCloseable
+{
+    /** Fraction of the lease term after which a lease is renewed. */
+    private static final double     RENEW_AT = 1.0 / 3;
+
+    /** Naming server granting the leases. */
+    private final Service                       naming_server;
+    /** Cached leases, by path. Guarded by the cache's monitor. */
+    private final Map<Path, Held>               held = new HashMap<>();
+    /** Renewal timer. */
+    private final ScheduledThreadPoolExecutor   renewer =
+        new ScheduledThreadPoolExecutor(1, r ->
+        {
+            Thread  t = new Thread(r, "lease-renewer");
+            t.setDaemon(true);
+            return t;
+        });
+    /** Indicates that the cache has been closed. */
+    private boolean                             closed = false;
+
+    /** Creates an empty cache of leases from the given naming server. */
+    public LeaseCache(Service naming_server)
+    {
+        this.naming_server = naming_server;
+    }
+
+    /** Locks an object, reusing a cached lease if one grants the requested
+        access.
+
+        @param path The file or directory to be locked.
+        @param exclusive Whether exclusive access is requested.
+        @throws FileNotFoundException If the object cannot be found.
+        @throws IllegalStateException If exclusive access is requested while
+                                      a cached shared lease on the object is
+                                      in use, or if the cache is closed.
+        @throws RMIException If the naming server cannot be contacted.
+     */
+    public void lock(Path path, boolean exclusive)
+        throws RMIException, FileNotFoundException
+    {
+        Held    stale;
+
+        synchronized(this)
+        {
+            if(closed)
+                throw new IllegalStateException("lease cache closed");
+
+            Held    current = held.get(path);
+            if(current != null && current.grants(exclusive))
+            {
+                ++current.users;
+                return;
+            }
+
+            if(current != null && current.users > 0)
+            {
+                throw new IllegalStateException("cannot upgrade lease on " +
+                                                path + " while it is in use");
+            }
+
+            stale = held.remove(path);
+        }
+
+        if(stale != null)
+            naming_server.release(stale.lease.id());
+
+        long    requested = System.currentTimeMillis();
+        Lease   lease = naming_server.lease(path, exclusive);
+        Held    fresh = new Held(lease, requested);
+        Held    replaced = null;
+        String  failure = null;
+
+        synchronized(this)
+        {
+            Held    current = held.get(path);
+            if(closed)
+                failure = "lease cache closed";
+            else if(current != null && current.grants(exclusive))
+            {
+                // Another thread leased the object meanwhile.
+                ++current.users;
+                replaced = fresh;
+            }
+            else if(current != null && current.users > 0)
+            {
+                failure = "cannot upgrade lease on " + path +
+                          " while it is in use";
+            }
+            else
+            {
+                replaced = held.put(path, fresh);
+                fresh.users = 1;
+                schedule(fresh);
+            }
+        }
+
+        if(failure != null)
+        {
+            naming_server.release(fresh.lease.id());
+            throw new IllegalStateException(failure);
+        }
+
+        if(replaced != null)
+            naming_server.release(replaced.lease.id());
+    }
+
+    /** Unlocks an object locked through this cache. The lease is kept,
+        unless it has been recalled, in which case it is released once no
+        user of the cache holds it.
+
+        @param path The file or directory to be unlocked.
+        @param exclusive Must match the access requested from
+                         <code>lock</code>.
+        @throws IllegalArgumentException If the object is not locked through
+                                         this cache.
+        @throws RMIException If a recalled lease cannot be released.
+     */
+    public void unlock(Path path, boolean exclusive) throws RMIException
+    {
+        Held    finished = null;
+
+        synchronized(this)
+        {
+            Held    current = held.get(path);
+            if(current == null || current.users == 0 ||
+               (exclusive && !current.lease.exclusive()))
+            {
+                throw new IllegalArgumentException(path + " is not locked");
+            }
+
+            if(--current.users == 0 && !current.valid())
+                finished = held.remove(path);
+        }
+
+        if(finished != null)
+            naming_server.release(finished.lease.id());
+    }
+
+    /** Releases every cached lease and stops renewing them. Leases still in
+        use are released as well. */
+    @Override
+    public void close()
+    {
+        List<Held>  all;
+
+        synchronized(this)
+        {
+            closed = true;
+            all = new ArrayList<>(held.values());
+            held.clear();
+        }
+
+        renewer.shutdownNow();
+        for(Held lease : all)
+        {
+            try
+            {
+                naming_server.release(lease.lease.id());
+            }
+            catch(RMIException e) { }
+        }
+    }
+
+    private void schedule(Held lease)
+    {
+        long    delay = (long)(lease.lease.term() * RENEW_AT);
+
+        try
+        {
+            renewer.schedule(() -> renew(lease), delay, TimeUnit.MILLISECONDS);
+        }
+        catch(RejectedExecutionException e)
+        {
+            // The cache is closed.
+        }
+    }
+
+    /** Renews a cached lease, or forgets it if the naming server refuses. */
+    private void renew(Held lease)
+    {
+        synchronized(this)
+        {
+            if(held.get(lease.lease.path()) != lease)
+                return;
+        }
+
+        long        requested = System.currentTimeMillis();
+        boolean     renewed;
+        try
+        {
+            renewed = naming_server.renew(lease.lease.id());
+        }
+        catch(RMIException e)
+        {
+            // Try again later; the lease lapses locally if this persists.
+            schedule(lease);
+            return;
+        }
+
+        Held    finished = null;
+        synchronized(this)
+        {
+            if(renewed)
+                lease.expiry = requested + lease.lease.term();
+            else
+            {
+                lease.recalled = true;
+                if(lease.users == 0 && held.get(lease.lease.path()) == lease)
+                    finished = held.remove(lease.lease.path());
+            }
+        }
+
+        if(renewed)
+            schedule(lease);
+        else if(finished != null)
+        {
+            try
+            {
+                naming_server.release(finished.lease.id());
+            }
+            catch(RMIException e) { }
+        }
+    }
+
+    /** Cached lease. Guarded by the cache's monitor. */
+    private static final class Held
+    {
+        final Lease     lease;
+        /** Time by which the lease is certain to have been valid, measured
+            from before the request that granted or renewed it. */
+        long            expiry;
+        /** Set when a renewal has been refused. */
+        boolean         recalled = false;
+        /** Number of current users of the lease. */
+        int             users = 0;
+
+        Held(Lease lease, long requested)
+        {
+            this.lease = lease;
+            this.expiry = requested + lease.term();
+        }
+
+        boolean valid()
+        {
+            return !recalled && System.currentTimeMillis() < expiry;
+        }
+
+        boolean grants(boolean exclusive)
+        {
+            return valid() && (lease.exclusive() || !exclusive);
+        }
+    }
+}
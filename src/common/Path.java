@@ -214,10 +214,8 @@ public class Path implements Iterable<String>, Comparable<Path>, Serializable
         }
 
         Path newPath = new Path();
-        newPath.root = "/";
-        newPath.pathList.add(newPath.root);
 
-        for(int i  = 0;i < size; i++) {
+        for(int i  = 1;i < size; i++) {
             newPath.pathList.add(this.pathList.get(i));
         }
 
@@ -328,7 +326,22 @@ public class Path implements Iterable<String>, Comparable<Path>, Serializable
     @Override
     public int compareTo(Path other)
     {
-        throw new UnsupportedOperationException("not implemented");
+        // Compare component by component, so that every path follows its
+        // ancestors and precedes everything below a later sibling.
+        Iterator<String> mine = this.iterator();
+        Iterator<String> theirs = other.iterator();
+
+        while(mine.hasNext() && theirs.hasNext()) {
+            int order = mine.next().compareTo(theirs.next());
+            if(order != 0) {
+                return order;
+            }
+        }
+
+        if(mine.hasNext()) {
+            return 1;
+        }
+        return theirs.hasNext() ? -1 : 0;
     }
 
     /** Compares two paths for equality.
@@ -196,6 +196,14 @@ class TestStorageServer implements Storage, Command
         throw new UnsupportedOperationException("copy method not implemented");
     }
 
+    /** Reports an empty storage server with no load. The naming server may
+        poll the status of its storage servers at any time. */
+    @Override
+    public ServerStatus status()
+    {
+        return new ServerStatus(0, 0, 0);
+    }
+
     /** Client interface skeleton.
 
         <p>
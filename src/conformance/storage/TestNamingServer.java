@@ -1,5 +1,7 @@
 package conformance.storage;
 
+import java.util.*;
+
 import test.*;
 import rmi.*;
 import common.*;
@@ -16,6 +18,8 @@ import naming.*;
         <code>null</code>.</li>
     <li>The correct file list has been sent.</li>
     </ul>
+    Storage servers may register in one call or in batches. When files are
+    sent in batches, the file list is checked once registration ends.
  */
 public class TestNamingServer implements naming.Registration
 {
@@ -34,6 +38,9 @@ public class TestNamingServer implements naming.Registration
     private Command             command_stub = null;
     /** Number of storage servers registered with the naming server. */
     private int                 storage_servers = 0;
+    /** Files received so far from a storage server registering in batches,
+        or <code>null</code> if no such registration is in progress. */
+    private List<Path>          received = null;
     /** Indicates that the skeleton has stopped. */
     private boolean             stopped = false;
 
@@ -133,6 +140,97 @@ public class TestNamingServer implements naming.Registration
             return new Path[0];
     }
 
+    // Detailed documentation in Registration.java.
+    @Override
+    public synchronized void beginRegistration(Storage client_stub,
+                                               Command command_stub)
+        throws RMIException
+    {
+        if(client_stub == null)
+        {
+            test.failure(new TestFailed("storage server client interface " +
+                                        "null during registration"));
+        }
+
+        if(command_stub == null)
+        {
+            test.failure(new TestFailed("storage server command interface " +
+                                        "null during registration"));
+        }
+
+        if(received != null)
+        {
+            test.failure(new TestFailed("registration started twice"));
+        }
+
+        this.client_stub = client_stub;
+        this.command_stub = command_stub;
+        received = new ArrayList<>();
+    }
+
+    // Detailed documentation in Registration.java.
+    @Override
+    public synchronized Path[] registerBatch(Command command_stub,
+                                             Path[] files)
+        throws RMIException
+    {
+        if(received == null || command_stub == null ||
+           !command_stub.equals(this.command_stub))
+        {
+            test.failure(new TestFailed("batch sent by storage server not " +
+                                        "registering"));
+            return new Path[0];
+        }
+
+        if(files == null)
+        {
+            test.failure(new TestFailed("files array null during " +
+                                        "registration"));
+            return new Path[0];
+        }
+
+        received.addAll(Arrays.asList(files));
+
+        // Return the files to delete that are part of this batch.
+        List<Path>  delete = new ArrayList<>();
+        if(delete_files != null)
+        {
+            Set<Path>   batch = new HashSet<>(Arrays.asList(files));
+            for(Path path : delete_files)
+            {
+                if(batch.contains(path))
+                    delete.add(path);
+            }
+        }
+
+        return delete.toArray(new Path[0]);
+    }
+
+    // Detailed documentation in Registration.java.
+    @Override
+    public synchronized void endRegistration(Command command_stub)
+        throws RMIException
+    {
+        if(received == null || command_stub == null ||
+           !command_stub.equals(this.command_stub))
+        {
+            test.failure(new TestFailed("registration ended by storage " +
+                                        "server not registering"));
+            return;
+        }
+
+        // If expect_files is not null, make sure that the files list received
+        // is the same as the files list expected.
+        if(expect_files != null &&
+           !TestUtil.sameElements(received.toArray(new Path[0]), expect_files))
+        {
+            test.failure(new TestFailed("received wrong file list during " +
+                                        "registration"));
+        }
+
+        received = null;
+    }
+
     /** Retrieves a registration stub for the test server.
 
         @return The stub.
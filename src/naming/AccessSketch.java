@@ -0,0 +1,135 @@
+package naming;
+
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+import common.Path;
+
+/** Decaying count of reads of each path, kept in a fixed amount of memory.
+
+    <p>
+    The sketch is a count-min sketch: each path is counted in one counter of
+    each of several rows, chosen by a different hash in each row, and its
+    count is estimated as the least of its counters. Other paths sharing a
+    counter can only inflate it, so the estimate never falls short of the
+    true count, and exceeds it by little when the rows are wide compared to
+    the number of reads counted.
+
+    <p>
+    Counts decay exponentially: once every half-life, every counter is
+    halved. The estimate of a path read at a steady rate therefore settles
+    between one and two half-lives' worth of reads, and the count of a path
+    no longer read falls away to zero. Counters are updated atomically, so
+    the sketch can be updated by many threads at once without locking.
+ */
+final class AccessSketch
+{
+    /** Default half-life of read counts, in milliseconds. Set with the
+        <code>naming.accessHalfLife</code> system property. */
+    static final long   HALF_LIFE = Long.getLong("naming.accessHalfLife", 60000);
+    /** Default number of counters in each row. */
+    static final int    WIDTH = 1 << 16;
+
+    /** Multipliers of the hash functions, one per row. */
+    private static final long[] SEEDS = {0x9e3779b97f4a7c15L,
+                                         0xc2b2ae3d27d4eb4fL,
+                                         0x165667b19e3779f9L,
+                                         0xd6e8feb86659fd93L};
+
+    /** Counters, row after row. */
+    private final AtomicIntegerArray    counters;
+    private final int                   width;
+    private final long                  halfLife;
+    /** Source of the current time, in milliseconds. */
+    private final LongSupplier          clock;
+    /** Time at which the counters are next halved. */
+    private final AtomicLong            nextDecay;
+
+    /** Creates an empty sketch.
+
+        @param width Number of counters in each row. Must be a power of two.
+        @param halfLife Half-life of the counts, in milliseconds.
+     */
+    AccessSketch(int width, long halfLife)
+    {
+        this(width, halfLife, System::currentTimeMillis);
+    }
+
+    /** Creates an empty sketch whose counts decay by the given clock.
+
+        @param width Number of counters in each row. Must be a power of two.
+        @param halfLife Half-life of the counts, in the clock's milliseconds.
+        @param clock Source of the current time, in milliseconds.
+     */
+    AccessSketch(int width, long halfLife, LongSupplier clock)
+    {
+        if(width <= 0 || (width & (width - 1)) != 0)
+            throw new IllegalArgumentException("width must be a power of two");
+        if(halfLife <= 0)
+            throw new IllegalArgumentException("half-life must be positive");
+
+        this.counters = new AtomicIntegerArray(SEEDS.length * width);
+        this.width = width;
+        this.halfLife = halfLife;
+        this.clock = clock;
+        this.nextDecay = new AtomicLong(clock.getAsLong() + halfLife);
+    }
+
+    /** Counts a read of a path.
+
+        @return The estimated decayed count of reads of the path, including
+                this one.
+     */
+    int record(Path path)
+    {
+        decayIfDue();
+
+        int     hash = path.hashCode();
+        int     estimate = Integer.MAX_VALUE;
+        for(int row = 0; row < SEEDS.length; ++row)
+        {
+            int count = counters.updateAndGet(index(hash, row),
+                v -> v == Integer.MAX_VALUE ? v : v + 1);
+            estimate = Math.min(estimate, count);
+        }
+
+        return estimate;
+    }
+
+    /** Returns the estimated decayed count of reads of a path. */
+    int estimate(Path path)
+    {
+        decayIfDue();
+
+        int     hash = path.hashCode();
+        int     estimate = Integer.MAX_VALUE;
+        for(int row = 0; row < SEEDS.length; ++row)
+            estimate = Math.min(estimate, counters.get(index(hash, row)));
+
+        return estimate;
+    }
+
+    /** Halves every counter once for each half-life that has passed since
+        they were last halved. Only one thread does so for each period. */
+    private void decayIfDue()
+    {
+        long    now = clock.getAsLong();
+        long    due = nextDecay.get();
+        if(now < due)
+            return;
+
+        long    periods = 1 + (now - due) / halfLife;
+        if(!nextDecay.compareAndSet(due, due + periods * halfLife))
+            return;
+
+        int     shift = (int)Math.min(periods, 31);
+        for(int index = 0; index < counters.length(); ++index)
+            counters.getAndUpdate(index, v -> v >>> shift);
+    }
+
+    private int index(int hash, int row)
+    {
+        long    mixed = (hash & 0xffffffffL) * SEEDS[row];
+        return row * width + ((int)(mixed >>> 32) & (width - 1));
+    }
+}
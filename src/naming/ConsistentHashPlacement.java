@@ -0,0 +1,72 @@
+package naming;
+
+import java.util.*;
+
+import common.*;
+import storage.*;
+
+/** Placement by consistent hashing of file paths.
+
+    <p>
+    Each storage server owns several points on a ring of hash values. A file
+    is placed on the server owning the first point at or after the hash of
+    its path. Servers are placed on the ring by the string form of their
+    stubs, which names their address, so placements survive restarts of the
+    naming server. The ring is rebuilt whenever the set of candidates
+    changes.
+ */
+final class ConsistentHashPlacement implements PlacementPolicy
+{
+    /** Points on the ring owned by each server. */
+    private static final int            POINTS = 64;
+
+    /** Servers on the ring. Guarded by the policy's monitor. */
+    private Set<Command>                members = Collections.emptySet();
+    /** Ring of points. Guarded by the policy's monitor. */
+    private TreeMap<Integer, Command>   ring = new TreeMap<>();
+
+    @Override
+    public Candidate place(Path file, List<Candidate> candidates)
+    {
+        Map<Command, Candidate> byCommand = new HashMap<>();
+        for(Candidate candidate : candidates)
+            byCommand.put(candidate.command(), candidate);
+
+        Command     owner;
+        synchronized(this)
+        {
+            if(!members.equals(byCommand.keySet()))
+                rebuild(byCommand.keySet());
+
+            Map.Entry<Integer, Command> point =
+                ring.ceilingEntry(hash(file.toString()));
+            owner = (point != null ? point : ring.firstEntry()).getValue();
+        }
+
+        return byCommand.get(owner);
+    }
+
+    private void rebuild(Set<Command> servers)
+    {
+        members = new HashSet<>(servers);
+        ring = new TreeMap<>();
+
+        for(Command server : servers)
+        {
+            for(int point = 0; point < POINTS; ++point)
+                ring.put(hash(server + "#" + point), server);
+        }
+    }
+
+    /** Spreads the bits of a string's hash code over the whole ring. */
+    private static int hash(String key)
+    {
+        int     hash = key.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
@@ -0,0 +1,78 @@
+package naming;
+
+import java.io.*;
+
+import common.*;
+import storage.Storage;
+
+/** Attributes of a file or directory, as returned by the naming server.
+
+    <p>
+    A status carries everything a client needs to display or open an
+    object: its path, whether it is a directory, the size of a file, and the
+    storage servers hosting it. The naming server keeps the sizes of files
+    as reported by the storage servers, so a directory can be described in
+    full by a single call to <code>Service.listStatus</code>.
+ */
+public final class FileStatus implements Serializable
+{
+    private static final long   serialVersionUID = 1L;
+
+    private final Path          path;
+    private final boolean       directory;
+    private final long          size;
+    private final Storage[]     replicas;
+
+    FileStatus(Path path, boolean directory, long size, Storage[] replicas)
+    {
+        this.path = path;
+        this.directory = directory;
+        this.size = size;
+        this.replicas = replicas;
+    }
+
+    /** Returns the path of the object. */
+    public Path path()
+    {
+        return path;
+    }
+
+    /** Returns the name of the object within its parent directory, or the
+        empty string for the root directory. */
+    public String name()
+    {
+        return path.isRoot() ? "" : path.last();
+    }
+
+    /** Returns <code>true</code> if the object is a directory. */
+    public boolean directory()
+    {
+        return directory;
+    }
+
+    /** Returns the size of the file in bytes, or -1 for a directory, for a
+        file whose size could not be obtained from its storage servers, or
+        when the attributes of the object were not requested. */
+    public long size()
+    {
+        return size;
+    }
+
+    /** Returns stubs for the storage servers hosting the file, the server
+        holding the primary copy first, as <code>Service.getStorages</code>
+        would. The array is empty for a directory, for a file no storage
+        server hosts yet, or when the attributes of the object were not
+        requested. */
+    public Storage[] replicas()
+    {
+        return replicas.clone();
+    }
+
+    @Override
+    public String toString()
+    {
+        if(directory)
+            return path.isRoot() ? path.toString() : path + "/";
+        return path + " (" + size + " bytes)";
+    }
+}
@@ -0,0 +1,486 @@
+package naming;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import common.Path;
+
+/** Write-ahead journal and snapshots of the naming server's directory tree.
+
+    <p>
+    Every change to the tree is appended to the journal as a record carrying
+    a sequence number, the kind of change and the path. Records are appended
+    in the order the changes are applied, under the tree's monitor, into an
+    in-memory buffer. A writer thread flushes the buffer and forces it to
+    disk; callers then wait in <code>sync</code> until their record is
+    durable. All records appended while one flush is in progress are written
+    and forced together by the next one, so concurrent changes share the cost
+    of each disk flush.
+
+    <p>
+    The journal is split into segments, named after the sequence number of
+    their first record. A snapshot lists every directory and file in the
+    tree, parents before children, together with the sequence number of the
+    last change it includes. Taking a snapshot starts a new segment; once the
+    snapshot is on disk, older segments are deleted. On startup the latest
+    snapshot is loaded and the records that follow it are replayed. A
+    truncated or corrupt record at the end of the last segment, left by a
+    crash during a write, ends the replay.
+
+    <p>
+    Only the shape of the tree is recorded. Which storage servers host each
+    file is learned again when the servers register.
+ */
+final class Journal
+{
+    /** Record kinds. */
+    static final byte   CREATE_DIRECTORY = 1;
+    static final byte   CREATE_FILE = 2;
+    static final byte   DELETE = 3;
+
+    /** Number of records after which a snapshot is due. Set with the
+        <code>naming.snapshotInterval</code> system property. */
+    static final long   SNAPSHOT_INTERVAL =
+        Long.getLong("naming.snapshotInterval", 100000);
+
+    private static final int    SNAPSHOT_MAGIC = 0x44465353;
+    private static final String SNAPSHOT = "snapshot";
+    private static final String SEGMENT_PREFIX = "journal-";
+
+    /** Records appended before a rotation, and the segment to start after
+        writing them. */
+    private static final class Rotation
+    {
+        final byte[]    before;
+        final File      next;
+
+        Rotation(byte[] before, File next)
+        {
+            this.before = before;
+            this.next = next;
+        }
+    }
+
+    /** Receives replayed changes during recovery. */
+    interface Replay
+    {
+        void apply(byte kind, Path path);
+    }
+
+    private final File                  directory;
+    /** Open segment. Used only by the writer thread once it has started. */
+    private FileChannel                 segment;
+
+    /** Records appended but not yet handed to the writer. Guarded by the
+        journal's monitor. */
+    private ByteArrayOutputStream       pending = new ByteArrayOutputStream();
+    private DataOutputStream            pendingData = new DataOutputStream(pending);
+    /** Rotation waiting for the writer, or <code>null</code>. Guarded by
+        the journal's monitor. */
+    private Rotation                    rotation = null;
+    /** Sequence number of the last record appended. */
+    private long                        appended;
+    /** Sequence number of the last record known to be on disk. */
+    private long                        durable;
+    /** Number of records appended since the last snapshot. */
+    private long                        sinceSnapshot = 0;
+    /** First failure of the writer, reported to every later caller. */
+    private IOException                 failure = null;
+    /** Set when no more records are accepted. */
+    private boolean                     closed = false;
+    /** Set when the writer has exited. */
+    private boolean                     stopped = false;
+
+    private final Thread                writer;
+    private final CRC32                 crc = new CRC32();
+
+    /** Opens the journal in the given directory, creating the directory if
+        needed, and replays its contents.
+
+        @param directory Directory holding the snapshot and the segments.
+        @param replay Receives the snapshot's entries, as creations, and then
+                      the journal's records, in order.
+        @throws IOException If the journal cannot be read or a new segment
+                            cannot be created.
+     */
+    Journal(File directory, Replay replay) throws IOException
+    {
+        this.directory = directory;
+        if(!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("cannot create " + directory);
+
+        long    last = loadSnapshot(replay);
+        for(File file : segments())
+            last = replaySegment(file, last, replay);
+
+        appended = last;
+        durable = last;
+        segment = open(new File(directory, SEGMENT_PREFIX + (last + 1)));
+
+        writer = new Thread(this::write, "naming-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** Appends a record. Must be called in the order the changes are
+        applied.
+
+        @return The sequence number of the record, to be passed to
+                <code>sync</code>.
+     */
+    synchronized long append(byte kind, Path path)
+    {
+        long    sequence = ++appended;
+
+        try
+        {
+            byte[]  name = path.toString().getBytes("UTF-8");
+
+            crc.reset();
+            crc.update(kind);
+            crc.update(name);
+
+            pendingData.writeLong(sequence);
+            pendingData.writeByte(kind);
+            pendingData.writeInt(name.length);
+            pendingData.write(name);
+            pendingData.writeInt((int)crc.getValue());
+        }
+        catch(IOException e)
+        {
+            // Writes to a byte array cannot fail.
+            throw new AssertionError(e);
+        }
+
+        ++sinceSnapshot;
+        notifyAll();
+        return sequence;
+    }
+
+    /** Waits until the record with the given sequence number is on disk.
+
+        @throws IOException If the journal cannot be written.
+     */
+    synchronized void sync(long sequence) throws IOException
+    {
+        boolean interrupted = false;
+
+        while(durable < sequence && failure == null && !stopped)
+        {
+            try
+            {
+                wait();
+            }
+            catch(InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+
+        if(interrupted)
+            Thread.currentThread().interrupt();
+        if(durable < sequence)
+            throw failure != null ? failure : new IOException("journal closed");
+    }
+
+    /** Returns <code>true</code> if enough records have been appended since
+        the last snapshot that a new one should be taken. */
+    synchronized boolean snapshotDue()
+    {
+        return sinceSnapshot >= SNAPSHOT_INTERVAL;
+    }
+
+    /** Marks the point at which a snapshot is taken: later records go to a
+        new segment. Must be called while the tree is held still, together
+        with the collection of the snapshot's entries.
+
+        @return The sequence number of the last record included in the
+                snapshot.
+     */
+    synchronized long rotate()
+    {
+        if(rotation != null)
+            throw new IllegalStateException("snapshot already in progress");
+
+        rotation = new Rotation(pending.toByteArray(),
+                                new File(directory, SEGMENT_PREFIX + (appended + 1)));
+        pending = new ByteArrayOutputStream();
+        pendingData = new DataOutputStream(pending);
+        sinceSnapshot = 0;
+        notifyAll();
+        return appended;
+    }
+
+    /** Writes a snapshot and deletes the segments it makes redundant.
+
+        @param sequence The value returned by <code>rotate</code>.
+        @param entries The directories and files of the tree at that point,
+                       parents first, each with its kind.
+        @throws IOException If the snapshot cannot be written.
+     */
+    void writeSnapshot(long sequence, List<Map.Entry<Path, Byte>> entries)
+        throws IOException
+    {
+        // Records up to the snapshot must be on disk before older segments
+        // are deleted.
+        sync(sequence);
+
+        File    temporary = new File(directory, SNAPSHOT + ".tmp");
+        try(FileOutputStream file = new FileOutputStream(temporary);
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(file)))
+        {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(sequence);
+            out.writeInt(entries.size());
+            for(Map.Entry<Path, Byte> entry : entries)
+            {
+                out.writeByte(entry.getValue());
+                out.writeUTF(entry.getKey().toString());
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+
+        Files.move(temporary.toPath(), new File(directory, SNAPSHOT).toPath(),
+                   StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+
+        // Later records are in the segment started by the rotation.
+        for(File old : segments())
+        {
+            if(firstSequence(old) <= sequence)
+                old.delete();
+        }
+    }
+
+    /** Flushes pending records and stops the writer. */
+    void close()
+    {
+        synchronized(this)
+        {
+            closed = true;
+            notifyAll();
+        }
+
+        try
+        {
+            writer.join();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Writer thread: hands pending records to the disk in batches. */
+    private void write()
+    {
+        while(true)
+        {
+            Rotation    switching;
+            byte[]      batch;
+            long        last;
+
+            synchronized(this)
+            {
+                while(pending.size() == 0 && rotation == null && !closed)
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch(InterruptedException e) { }
+                }
+
+                if(pending.size() == 0 && rotation == null)
+                    break;
+
+                switching = rotation;
+                rotation = null;
+                batch = pending.toByteArray();
+                pending = new ByteArrayOutputStream();
+                pendingData = new DataOutputStream(pending);
+                last = appended;
+            }
+
+            try
+            {
+                // Records appended before a rotation end the old segment;
+                // the rest start the new one.
+                if(switching != null)
+                {
+                    flush(switching.before);
+                    segment.close();
+                    segment = open(switching.next);
+                }
+                flush(batch);
+            }
+            catch(IOException e)
+            {
+                synchronized(this)
+                {
+                    failure = e;
+                    stopped = true;
+                    notifyAll();
+                }
+                return;
+            }
+
+            synchronized(this)
+            {
+                durable = last;
+                notifyAll();
+            }
+        }
+
+        try
+        {
+            segment.close();
+        }
+        catch(IOException e) { }
+
+        synchronized(this)
+        {
+            stopped = true;
+            notifyAll();
+        }
+    }
+
+    /** Writes bytes to the open segment and forces them to disk. Called
+        only by the writer thread. */
+    private void flush(byte[] bytes) throws IOException
+    {
+        if(bytes.length == 0)
+            return;
+
+        ByteBuffer  buffer = ByteBuffer.wrap(bytes);
+        while(buffer.hasRemaining())
+            segment.write(buffer);
+        segment.force(false);
+    }
+
+    /** Opens a new segment. A leftover file of the same name can only hold
+        records that failed to replay, and is truncated. */
+    private static FileChannel open(File file) throws IOException
+    {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                StandardOpenOption.WRITE,
+                                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /** Returns the segment files, oldest first. */
+    private List<File> segments()
+    {
+        File[]      files = directory.listFiles(
+            (dir, name) -> name.startsWith(SEGMENT_PREFIX));
+        List<File>  result = new ArrayList<>();
+
+        if(files != null)
+        {
+            for(File file : files)
+            {
+                if(firstSequence(file) >= 0)
+                    result.add(file);
+            }
+        }
+
+        result.sort(Comparator.comparingLong(Journal::firstSequence));
+        return result;
+    }
+
+    private static long firstSequence(File segment)
+    {
+        try
+        {
+            return Long.parseLong(segment.getName().substring(
+                SEGMENT_PREFIX.length()));
+        }
+        catch(NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    /** Loads the snapshot, if any.
+
+        @return The sequence number of the last change it includes, or zero.
+     */
+    private long loadSnapshot(Replay replay) throws IOException
+    {
+        File    file = new File(directory, SNAPSHOT);
+        if(!file.exists())
+            return 0;
+
+        try(DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file))))
+        {
+            if(in.readInt() != SNAPSHOT_MAGIC)
+                throw new IOException(file + " is not a snapshot");
+
+            long    sequence = in.readLong();
+            int     count = in.readInt();
+            for(int index = 0; index < count; ++index)
+            {
+                byte    kind = in.readByte();
+                replay.apply(kind, new Path(in.readUTF()));
+            }
+            return sequence;
+        }
+    }
+
+    /** Replays the records of a segment that follow the given sequence
+        number.
+
+        @return The sequence number of the last record applied.
+     */
+    private long replaySegment(File file, long last, Replay replay)
+        throws IOException
+    {
+        try(DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file))))
+        {
+            while(true)
+            {
+                long    sequence;
+                byte    kind;
+                byte[]  name;
+                int     checksum;
+
+                try
+                {
+                    sequence = in.readLong();
+                    kind = in.readByte();
+                    int length = in.readInt();
+                    if(length < 0 || length > in.available())
+                        break;
+                    name = new byte[length];
+                    in.readFully(name);
+                    checksum = in.readInt();
+                }
+                catch(EOFException e)
+                {
+                    break;
+                }
+
+                crc.reset();
+                crc.update(kind);
+                crc.update(name);
+                if((int)crc.getValue() != checksum)
+                    break;
+
+                if(sequence > last)
+                {
+                    replay.apply(kind, new Path(new String(name, "UTF-8")));
+                    last = sequence;
+                }
+            }
+        }
+
+        return last;
+    }
+}
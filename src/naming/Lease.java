@@ -0,0 +1,66 @@
+package naming;
+
+import java.io.*;
+
+import common.*;
+
+/** Time-bounded lock on a file or directory, granted by the naming server.
+
+    <p>
+    A lease gives its holder the same rights as a lock of the same kind, but
+    expires unless it is renewed within its term. The naming server recalls
+    a lease when another user requests a conflicting lock or lease: the next
+    renewal of a recalled lease fails, and the holder should then finish
+    what it is doing and release the lease. Whether or not it does, the lease
+    ends when its term runs out, so a client that stops responding cannot
+    keep an object locked forever.
+ */
+public final class Lease implements Serializable
+{
+    private static final long   serialVersionUID = 1L;
+
+    private final long          id;
+    private final Path          path;
+    private final boolean       exclusive;
+    private final long          term;
+
+    Lease(long id, Path path, boolean exclusive, long term)
+    {
+        this.id = id;
+        this.path = path;
+        this.exclusive = exclusive;
+        this.term = term;
+    }
+
+    /** Returns the identifier used to renew and release the lease. */
+    public long id()
+    {
+        return id;
+    }
+
+    /** Returns the leased object. */
+    public Path path()
+    {
+        return path;
+    }
+
+    /** Returns <code>true</code> if the lease grants exclusive access. */
+    public boolean exclusive()
+    {
+        return exclusive;
+    }
+
+    /** Returns the time, in milliseconds, for which the lease remains valid
+        after it is granted or renewed. */
+    public long term()
+    {
+        return term;
+    }
+
+    @Override
+    public String toString()
+    {
+        return (exclusive ? "exclusive" : "shared") + " lease " + id + " on "
+            + path;
+    }
+}
@@ -0,0 +1,245 @@
+package naming;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.Path;
+
+/** Leases granted by the naming server.
+
+    <p>
+    A lease holds a lock in the lock manager on behalf of a client, from the
+    moment it is granted until it is released or expires. Each lease has an
+    expiry timer; renewing a lease pushes its expiry back by one term, and
+    the timer, when it fires early, reschedules itself for the new expiry.
+
+    <p>
+    While a lock or lease request waits for the lock manager, it is listed
+    as waiting, and every lease conflicting with it is recalled: those in
+    force when it starts waiting, and those granted while it waits. A
+    recalled lease can no longer be renewed, so it ends at the latest one
+    term after the recall.
+ */
+final class LeaseTable
+{
+    /** Default lease term, in milliseconds. Set with the
+        <code>naming.leaseTerm</code> system property. */
+    static final long   TERM = Long.getLong("naming.leaseTerm", 10000);
+
+    private final LockManager                       locks;
+    /** Term of every lease, in milliseconds. */
+    private final long                              term;
+    private final ConcurrentHashMap<Long, Record>   leases =
+        new ConcurrentHashMap<>();
+    private final AtomicLong                        nextId = new AtomicLong();
+    /** Lock requests currently waiting. */
+    private final Set<Request>                      waiting =
+        ConcurrentHashMap.newKeySet();
+    /** Timer ending expired leases. */
+    private final ScheduledThreadPoolExecutor       timer =
+        new ScheduledThreadPoolExecutor(1, r ->
+        {
+            Thread  t = new Thread(r, "naming-leases");
+            t.setDaemon(true);
+            return t;
+        });
+
+    LeaseTable(LockManager locks, long term)
+    {
+        this.locks = locks;
+        this.term = term;
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /** Locks a path in the lock manager and records a lease holding the
+        lock.
+
+        @throws InterruptedException If the thread is interrupted while
+                                     waiting for the lock.
+     */
+    Lease grant(Path path, boolean exclusive) throws InterruptedException
+    {
+        Request request = begin(new Path[] {path}, new boolean[] {exclusive});
+        try
+        {
+            locks.lock(path, exclusive);
+        }
+        finally
+        {
+            end(request);
+        }
+
+        Record  record = new Record(new Lease(nextId.incrementAndGet(), path,
+                                              exclusive, term));
+        leases.put(record.lease.id(), record);
+        for(Request other : waiting)
+        {
+            if(other.conflicts(record.lease))
+                record.recall();
+        }
+
+        schedule(record, term);
+        return record.lease;
+    }
+
+    /** Extends a lease by one term.
+
+        @return <code>false</code> if the lease has ended or has been
+                recalled.
+     */
+    boolean renew(long id)
+    {
+        Record  record = leases.get(id);
+
+        if(record == null)
+            return false;
+
+        synchronized(record)
+        {
+            if(record.ended || record.recalled)
+                return false;
+            record.expiry = System.currentTimeMillis() + term;
+            return true;
+        }
+    }
+
+    /** Ends a lease, releasing its lock. Releasing a lease that has already
+        ended has no effect. */
+    void release(long id)
+    {
+        Record  record = leases.get(id);
+
+        if(record != null)
+            finish(record);
+    }
+
+    /** Lists a lock request on the given paths as waiting, and recalls
+        every lease in force conflicting with it. The request must be ended
+        with <code>end</code> once its locks are taken, or it gives up. */
+    Request begin(Path[] paths, boolean[] exclusive)
+    {
+        Request request = new Request(paths, exclusive);
+        waiting.add(request);
+
+        for(Record record : leases.values())
+        {
+            if(request.conflicts(record.lease))
+                record.recall();
+        }
+
+        return request;
+    }
+
+    /** Removes a request from the waiting list. */
+    void end(Request request)
+    {
+        waiting.remove(request);
+    }
+
+    /** Returns the number of leases in force. */
+    int size()
+    {
+        return leases.size();
+    }
+
+    /** Stops the expiry timer. Leases in force are abandoned. */
+    void shutdown()
+    {
+        timer.shutdownNow();
+        leases.clear();
+    }
+
+    private void schedule(Record record, long delay)
+    {
+        try
+        {
+            timer.schedule(() -> expire(record), delay, TimeUnit.MILLISECONDS);
+        }
+        catch(RejectedExecutionException e)
+        {
+            // The naming server is shutting down.
+        }
+    }
+
+    /** Ends a lease whose expiry has passed, or reschedules the check if it
+        has been renewed since. */
+    private void expire(Record record)
+    {
+        long    remaining;
+
+        synchronized(record)
+        {
+            if(record.ended)
+                return;
+            remaining = record.expiry - System.currentTimeMillis();
+        }
+
+        if(remaining > 0)
+            schedule(record, remaining);
+        else
+            finish(record);
+    }
+
+    private void finish(Record record)
+    {
+        synchronized(record)
+        {
+            if(record.ended)
+                return;
+            record.ended = true;
+        }
+
+        leases.remove(record.lease.id());
+        locks.unlock(record.lease.path(), record.lease.exclusive());
+    }
+
+    /** State of a lease. Guarded by its own monitor. */
+    private static final class Record
+    {
+        final Lease     lease;
+        long            expiry;
+        boolean         recalled = false;
+        boolean         ended = false;
+
+        Record(Lease lease)
+        {
+            this.lease = lease;
+            this.expiry = System.currentTimeMillis() + lease.term();
+        }
+
+        synchronized void recall()
+        {
+            recalled = true;
+        }
+    }
+
+    /** Lock request waiting in the lock manager. */
+    static final class Request
+    {
+        private final Path[]    paths;
+        private final boolean[] exclusive;
+
+        private Request(Path[] paths, boolean[] exclusive)
+        {
+            this.paths = paths;
+            this.exclusive = exclusive;
+        }
+
+        /** Returns <code>true</code> if the lease prevents locking one of
+            the paths: if either is exclusive and one of the two paths is the
+            other or one of its ancestors. */
+        boolean conflicts(Lease lease)
+        {
+            for(int index = 0; index < paths.length; ++index)
+            {
+                if(lease.exclusive() && paths[index].isSubpath(lease.path()))
+                    return true;
+                if(exclusive[index] && lease.path().isSubpath(paths[index]))
+                    return true;
+            }
+
+            return false;
+        }
+    }
+}
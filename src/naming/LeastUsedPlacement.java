@@ -0,0 +1,28 @@
+package naming;
+
+import java.util.*;
+
+import common.*;
+
+/** Placement on the storage server with the most free space. Ties go to
+    the less loaded server. */
+final class LeastUsedPlacement implements PlacementPolicy
+{
+    @Override
+    public Candidate place(Path file, List<Candidate> candidates)
+    {
+        Candidate   best = null;
+
+        for(Candidate candidate : candidates)
+        {
+            if(best == null || candidate.freeSpace() > best.freeSpace() ||
+               (candidate.freeSpace() == best.freeSpace() &&
+                candidate.load() < best.load()))
+            {
+                best = candidate;
+            }
+        }
+
+        return best;
+    }
+}
@@ -0,0 +1,303 @@
+package naming;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import common.Path;
+
+/** Hierarchical lock manager for the naming server.
+
+    <p>
+    Each path that is locked, or being waited for, has an entry holding a
+    <code>QueuedLock</code>. Four modes exist: intention shared
+    (<code>IS</code>), intention exclusive (<code>IX</code>), shared
+    (<code>S</code>) and exclusive (<code>X</code>). Requests on each entry
+    are served in arrival order, with consecutive compatible requests
+    granted together.
+
+    <p>
+    Locking a set of paths acquires the entries of the paths and of all their
+    ancestors, each once, in increasing <code>Path</code> order - which
+    takes every ancestor before its descendants. Every request, whether for
+    one path or many, follows the same global order, so lockers cannot
+    deadlock. An entry needed in several modes by the same request is
+    acquired once, in the weakest mode covering them all. As required by
+    <code>Service.lock</code>, ancestors are locked for intention shared
+    access whatever the mode of the object itself: a shared lock on a
+    directory does not exclude writers of the files below it, but an
+    exclusive lock on a directory excludes every locker of the subtree.
+
+    <p>
+    Entries are created atomically and reference-counted: every request
+    holds a reference from the moment it starts waiting until it releases
+    the lock, and the entry is removed as soon as the last reference is
+    dropped. The number of entries is therefore bounded by the number of
+    paths currently in use, not by the number of paths ever locked.
+ */
+final class LockManager
+{
+    /** Lock modes. */
+    enum Mode
+    {
+        IS, IX, S, X;
+
+        /** Returns <code>true</code> if this mode may be granted while the
+            other mode is held by another request. */
+        boolean compatible(Mode other)
+        {
+            switch(this)
+            {
+            case IS:
+                return other != X;
+            case IX:
+                return other == IS || other == IX;
+            case S:
+                return other == IS || other == S;
+            default:
+                return false;
+            }
+        }
+
+        /** Returns the weakest mode granting both this mode and the other. */
+        Mode join(Mode other)
+        {
+            if(this == other || other == IS)
+                return this;
+            if(this == IS)
+                return other;
+            return X;
+        }
+    }
+
+    /** Entries of the paths in use. */
+    private final ConcurrentHashMap<Path, Entry>    entries =
+        new ConcurrentHashMap<>();
+    /** Statistics shared by the locks of all entries. */
+    private final LockStatistics                    statistics =
+        new LockStatistics();
+
+    /** Locks a path for shared or exclusive access, locking every ancestor
+        for intention shared access.
+
+        @param path The path to lock.
+        @param exclusive Whether the path is to be locked for exclusive
+                         access.
+        @throws InterruptedException If the thread is interrupted while
+                                     waiting. No lock is held in that case.
+     */
+    void lock(Path path, boolean exclusive) throws InterruptedException
+    {
+        acquire(plan(new Path[] {path}, new boolean[] {exclusive}), 0);
+    }
+
+    /** Locks several paths as one request.
+
+        <p>
+        The result is the same as locking each path with <code>lock</code>,
+        except that entries shared by several paths are acquired once and all
+        entries are acquired in the global order.
+
+        @param paths The paths to lock. Paths may repeat.
+        @param exclusive For each path, whether it is to be locked for
+                         exclusive access.
+        @throws InterruptedException If the thread is interrupted while
+                                     waiting. No lock is held in that case.
+     */
+    void lock(Path[] paths, boolean[] exclusive) throws InterruptedException
+    {
+        acquire(plan(paths, exclusive), 0);
+    }
+
+    /** Locks a path as <code>lock</code> does, giving up if the whole chain
+        of locks cannot be taken within the given time.
+
+        @return <code>true</code> if the path was locked, or
+                <code>false</code> if the time elapsed first, in which case no
+                lock is held.
+        @throws InterruptedException If the thread is interrupted while
+                                     waiting. No lock is held in that case.
+     */
+    boolean tryLock(Path path, boolean exclusive, long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        return acquire(plan(new Path[] {path}, new boolean[] {exclusive}),
+                       System.nanoTime() + Math.max(1, unit.toNanos(timeout)));
+    }
+
+    /** Releases a lock taken by <code>lock</code>.
+
+        @param path The path to unlock.
+        @param exclusive Whether the path was locked for exclusive access.
+        @throws IllegalArgumentException If the path is not locked in the
+                                         given mode.
+     */
+    void unlock(Path path, boolean exclusive)
+    {
+        release(plan(new Path[] {path}, new boolean[] {exclusive}));
+    }
+
+    /** Releases locks taken by <code>lock</code> on several paths. The
+        arguments must be those given to <code>lock</code>.
+
+        @throws IllegalArgumentException If some entry is not locked in the
+                                         mode the request would have taken.
+     */
+    void unlock(Path[] paths, boolean[] exclusive)
+    {
+        release(plan(paths, exclusive));
+    }
+
+    /** Returns the number of paths currently locked or waited for. */
+    int size()
+    {
+        return entries.size();
+    }
+
+    /** Returns the statistics of all locks taken through this manager. */
+    LockStatistics statistics()
+    {
+        return statistics;
+    }
+
+    /** Returns the entries needed to lock the given paths, in the order in
+        which they must be acquired, with the mode of each. */
+    private static TreeMap<Path, Mode> plan(Path[] paths, boolean[] exclusive)
+    {
+        if(paths.length != exclusive.length)
+            throw new IllegalArgumentException("one access mode is needed " +
+                                               "for each path");
+
+        TreeMap<Path, Mode> plan = new TreeMap<>();
+
+        for(int index = 0; index < paths.length; ++index)
+        {
+            Path    prefix = new Path();
+
+            for(String component : paths[index])
+            {
+                plan.merge(prefix, Mode.IS, Mode::join);
+                prefix = new Path(prefix, component);
+            }
+            plan.merge(prefix, exclusive[index] ? Mode.X : Mode.S, Mode::join);
+        }
+
+        return plan;
+    }
+
+    /** Acquires the planned entries in order.
+
+        @param deadline Expiry time from <code>System.nanoTime</code>, or
+                        zero to wait indefinitely.
+        @return <code>true</code> if every entry was acquired, or
+                <code>false</code> if the deadline passed first, in which
+                case none is held.
+     */
+    private boolean acquire(TreeMap<Path, Mode> plan, long deadline)
+        throws InterruptedException
+    {
+        ArrayDeque<Map.Entry<Path, Mode>>   held = new ArrayDeque<>();
+        boolean                             complete = false;
+
+        try
+        {
+            for(Map.Entry<Path, Mode> step : plan.entrySet())
+            {
+                if(!acquire(step.getKey(), step.getValue(), deadline))
+                    return false;
+                held.push(step);
+            }
+
+            complete = true;
+            return true;
+        }
+        finally
+        {
+            if(!complete)
+            {
+                for(Map.Entry<Path, Mode> step : held)
+                    release(step.getKey(), step.getValue());
+            }
+        }
+    }
+
+    /** Releases the planned entries in reverse order, after checking that
+        they are all held. */
+    private void release(TreeMap<Path, Mode> plan)
+    {
+        for(Map.Entry<Path, Mode> step : plan.entrySet())
+        {
+            Entry   entry = entries.get(step.getKey());
+
+            if(entry == null || !entry.lock.holds(step.getValue()))
+                throw new IllegalArgumentException(step.getKey() +
+                                                   " is not locked");
+        }
+
+        for(Map.Entry<Path, Mode> step : plan.descendingMap().entrySet())
+            release(step.getKey(), step.getValue());
+    }
+
+    /** Takes a reference on the entry of a path and waits for the mode.
+        The reference is dropped again if the mode is not acquired. */
+    private boolean acquire(Path path, Mode mode, long deadline)
+        throws InterruptedException
+    {
+        Entry   entry = entries.compute(path, (key, existing) ->
+        {
+            Entry   result = existing == null ? new Entry(statistics) : existing;
+            ++result.references;
+            return result;
+        });
+        boolean acquired = false;
+
+        try
+        {
+            if(deadline == 0)
+            {
+                entry.lock.lock(mode);
+                acquired = true;
+            }
+            else
+            {
+                acquired = entry.lock.tryLock(mode, deadline - System.nanoTime(),
+                                              TimeUnit.NANOSECONDS);
+            }
+        }
+        finally
+        {
+            if(!acquired)
+                dereference(path);
+        }
+
+        return acquired;
+    }
+
+    /** Releases a mode on the entry of a path and drops the reference. */
+    private void release(Path path, Mode mode)
+    {
+        entries.get(path).lock.unlock(mode);
+        dereference(path);
+    }
+
+    private void dereference(Path path)
+    {
+        entries.computeIfPresent(path,
+                                 (key, entry) -> --entry.references == 0 ?
+                                                 null : entry);
+    }
+
+    /** Lock of one path, with the number of requests using it. The count is
+        guarded by the entry map. */
+    private static final class Entry
+    {
+        /** Requests waiting for or holding this entry. */
+        int                 references = 0;
+        final QueuedLock    lock;
+
+        Entry(LockStatistics statistics)
+        {
+            lock = new QueuedLock(statistics);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package naming;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import rmi.LatencyHistogram;
+
+/** Counts and wait times of the naming server's path locks.
+
+    <p>
+    Every lock taken on a path or one of its ancestors counts as one
+    acquisition. An acquisition is contended if it had to wait in the queue.
+    Wait times are recorded for contended acquisitions only, in
+    microseconds.
+ */
+public final class LockStatistics
+{
+    private final LongAdder         acquisitions = new LongAdder();
+    private final LongAdder         contended = new LongAdder();
+    private final LongAdder         timeouts = new LongAdder();
+    private final LatencyHistogram  waits = new LatencyHistogram();
+
+    LockStatistics()
+    {
+    }
+
+    /** Records an acquisition.
+
+        @param nanos Time spent waiting, in nanoseconds.
+        @param queued <code>true</code> if the request had to wait.
+     */
+    void acquired(long nanos, boolean queued)
+    {
+        acquisitions.increment();
+        if(queued)
+        {
+            contended.increment();
+            waits.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        }
+    }
+
+    /** Records a timed request that gave up. */
+    void timedOut()
+    {
+        timeouts.increment();
+    }
+
+    /** Returns the number of locks granted. */
+    public long getAcquisitions()
+    {
+        return acquisitions.sum();
+    }
+
+    /** Returns the number of locks granted after waiting. */
+    public long getContended()
+    {
+        return contended.sum();
+    }
+
+    /** Returns the number of timed requests that gave up. */
+    public long getTimeouts()
+    {
+        return timeouts.sum();
+    }
+
+    /** Returns the histogram of wait times of contended acquisitions, in
+        microseconds. */
+    public LatencyHistogram waits()
+    {
+        return waits;
+    }
+
+    @Override
+    public String toString()
+    {
+        return getAcquisitions() + " locks, " + getContended()
+            + " contended, " + getTimeouts() + " timeouts, wait p50 "
+            + waits.percentile(50) + " us, p99 " + waits.percentile(99)
+            + " us, max " + waits.max() + " us";
+    }
+}
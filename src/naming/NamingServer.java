@@ -3,7 +3,13 @@ package naming;
 import java.io.*;
 import java.net.*;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import rmi.*;
 import common.*;
@@ -42,65 +48,218 @@ public class NamingServer implements Service, Registration
     Skeleton serviceSkeleton;
     Skeleton registerSkeleton;
 
-    ArrayList<Path> deleteFiles = new ArrayList<>();
-    ArrayList<Path> myPaths = new ArrayList<>();
-    HashMap<Path,Command> pathCommandStubMap = new HashMap<>();
+    /** Recent reads of a file that call for each replica beyond the first,
+        as counted by <code>AccessSketch</code>. Set with the
+        <code>naming.readsPerReplica</code> system property. */
+    private static final int READS_PER_REPLICA =
+        Integer.getInteger("naming.readsPerReplica", 20);
+    /** Interval between polls of the storage servers' status, in
+        milliseconds. Set with the <code>naming.statusInterval</code> system
+        property. */
+    private static final long STATUS_INTERVAL = Long.getLong("naming.statusInterval", 5000);
+    /** Largest number of entries returned in one page of a directory
+        listing. Set with the <code>naming.listPageLimit</code> system
+        property. */
+    private static final int LIST_PAGE_LIMIT = Integer.getInteger("naming.listPageLimit", 1024);
+    /** Time allowed for the storage servers to report the sizes of files
+        being listed or examined, in milliseconds. Set with the
+        <code>naming.measureTimeout</code> system property. */
+    private static final long MEASURE_TIMEOUT = Long.getLong("naming.measureTimeout", 5000);
+
+    /** Root of the directory tree. Its monitor guards the whole tree. */
+    private final Node root = Node.root();
     HashMap<Command,Storage> commandStorageMap = new HashMap<>();
-    String currentRoot;
-    volatile ConcurrentHashMap<Path, ReadWriteLock> lockMap;
-    volatile ConcurrentHashMap<Path,Integer> pathReadCount;
-    volatile ConcurrentHashMap<Path,Boolean> pathReplicated;
+    /** Storage servers still sending their files. No new files are created
+        on them. */
+    private final Set<Command> registering = new HashSet<>();
+    /** Locks on paths in the tree. */
+    private final LockManager locks = new LockManager();
+    /** Leases holding locks on behalf of clients. */
+    private final LeaseTable leases = new LeaseTable(locks, LeaseTable.TERM);
+    /** Copies of files made in the background. */
+    private final Replicator replicator =
+        new Replicator(Replicator.CONCURRENCY, Replicator.BANDWIDTH, this::replicated);
+    /** Journal of changes to the tree, or <code>null</code> if the tree is
+        not persisted. */
+    private Journal journal = null;
+    /** Set while a snapshot is being taken. */
+    private final AtomicBoolean snapshotting = new AtomicBoolean();
+    /** Decaying counts of recent reads of each file. */
+    private final AccessSketch reads = new AccessSketch(AccessSketch.WIDTH, AccessSketch.HALF_LIFE);
+    /** Files with more than one replica. Guarded by the monitor of
+        <code>root</code>. */
+    private final Set<Node> replicated = new HashSet<>();
+    /** Policy choosing the storage server for each new file. */
+    private final PlacementPolicy placement =
+        PlacementPolicy.named(System.getProperty("naming.placement", "two-choices"));
+    /** Latest status reported by each storage server. Guarded by the
+        monitor of <code>root</code>. */
+    private final Map<Command, Load> loads = new HashMap<>();
+    /** Stale copies of files being deleted, by storage server. Guarded by
+        the monitor of <code>root</code>. */
+    private final Map<Command, Set<Path>> deleting = new HashMap<>();
+    /** Number of replicas picked by <code>getStorage</code>, used to share
+        out ties. Guarded by the monitor of <code>root</code>. */
+    private int rotation = 0;
+    /** Timer polling storage servers for their status, and removing surplus
+        replicas from files that are no longer read often. */
+    private final ScheduledThreadPoolExecutor timer =
+        new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "naming-timer");
+            t.setDaemon(true);
+            return t;
+        });
 
 
     public NamingServer()
     {
-        try {
-            currentRoot = new File( "." ).getCanonicalPath();
-        } catch (IOException e) {
-
-        }
-        File f = new File(currentRoot+"/dummyRoot");
-        f.mkdir();
-        this.currentRoot = f.getPath();
-
-
         InetSocketAddress serviceAddress = new InetSocketAddress("localhost", 6000);
         InetSocketAddress registerAddress = new InetSocketAddress("localhost", 6001);
 
         serviceSkeleton =  new Skeleton(Service.class,this, serviceAddress);
         registerSkeleton = new Skeleton(Registration.class,this, registerAddress);
-        pathCommandStubMap = new HashMap<>();
-        commandStorageMap = new HashMap<>();
-        lockMap = new ConcurrentHashMap<>();
-        pathReadCount = new ConcurrentHashMap<>();
-        pathReplicated = new ConcurrentHashMap<>();
+    }
 
+    /** Creates a naming server whose directory tree persists in the given
+        directory.
+
+        <p>
+        Changes to the tree are journaled in the directory, and the tree left
+        by the previous server using the directory is restored. Restored
+        files are listed immediately, but cannot be accessed until a storage
+        server hosting them registers. The naming server is not started.
+
+        @param metadata Directory holding the journal and snapshots. It is
+                        created if it does not exist.
+        @throws IOException If the journal cannot be read or written.
+     */
+    public NamingServer(File metadata) throws IOException
+    {
+        this();
+        synchronized(root) {
+            this.journal = new Journal(metadata, this::replay);
+        }
+    }
 
+    /** Applies a change read from the journal during recovery. */
+    private void replay(byte kind, Path path)
+    {
+        if(kind == Journal.DELETE) {
+            Node node = lookup(path);
+            if(node != null && node != root) {
+                node.detach();
+            }
+            return;
+        }
+
+        if(path.isRoot()) {
+            return;
+        }
+
+        Node parent = root;
+        for(String component : path.parent()) {
+            Node next = parent.child(component);
+            if(next == null) {
+                next = parent.addDirectory(component);
+            }
+            parent = next;
+        }
+
+        if(parent.directory && parent.child(path.last()) == null) {
+            if(kind == Journal.CREATE_DIRECTORY) {
+                parent.addDirectory(path.last());
+            } else {
+                parent.addFile(path.last());
+            }
+        }
     }
 
-    /**
-     * Delete a file or a directory and its children.
-     * @param file The directory to delete.
-     * @throws IOException Exception when problem occurs during deleting the directory.
+    /** Appends a change to the journal. The caller must hold the monitor of
+        <code>root</code>.
+
+        @return The sequence number to pass to <code>commit</code>.
      */
-    private static void deleteChild(File file) throws IOException {
+    private long log(byte kind, Path path)
+    {
+        return this.journal == null ? 0 : this.journal.append(kind, path);
+    }
 
-        for (File childFile : file.listFiles()) {
+    /** Waits until the changes logged up to the given sequence number are
+        durable, and starts a snapshot in the background if one is due. */
+    private void commit(long sequence)
+    {
+        if(this.journal == null || sequence == 0) {
+            return;
+        }
 
-            if (childFile.isDirectory()) {
-                deleteChild(childFile);
+        try {
+            this.journal.sync(sequence);
+        } catch (IOException e) {
+            throw new IllegalStateException("unable to write journal", e);
+        }
+
+        if(this.journal.snapshotDue() && this.snapshotting.compareAndSet(false, true)) {
+            Thread snapshot = new Thread(this::snapshot, "naming-snapshot");
+            snapshot.setDaemon(true);
+            snapshot.start();
+        }
+    }
+
+    /** Writes a snapshot of the tree. */
+    private void snapshot()
+    {
+        try {
+            List<Map.Entry<Path, Byte>> entries = new ArrayList<>();
+            long sequence;
+            synchronized(root) {
+                collect(root, new Path(), entries);
+                sequence = this.journal.rotate();
+            }
+            this.journal.writeSnapshot(sequence, entries);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            this.snapshotting.set(false);
+        }
+    }
+
+    /** Lists the subtree below a directory, parents first. */
+    private static void collect(Node directory, Path path, List<Map.Entry<Path, Byte>> entries)
+    {
+        for(String name : directory.list()) {
+            Node child = directory.child(name);
+            Path childPath = new Path(path, name);
+            if(child.directory) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(childPath, Journal.CREATE_DIRECTORY));
+                collect(child, childPath, entries);
             } else {
-                if (!childFile.delete()) {
-                    throw new IOException();
-                }
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(childPath, Journal.CREATE_FILE));
             }
         }
+    }
 
-        if (!file.delete()) {
-            throw new IOException();
+    /** Returns the node at the given path, or <code>null</code> if there is
+        none. The caller must hold the monitor of <code>root</code>. */
+    private Node lookup(Path path)
+    {
+        Node node = root;
+
+        for(String component : path) {
+            node = node.child(component);
+            if(node == null) {
+                return null;
+            }
         }
+
+        return node;
     }
 
+    /** Returns <code>true</code> if the node is still part of the tree. The
+        caller must hold the monitor of <code>root</code>. */
+    private static boolean attached(Node node)
+    {
+        return node.parent == null || node.parent.child(node.name) == node;
+    }
 
     /** Starts the naming server.
 
@@ -116,6 +275,10 @@ public class NamingServer implements Service, Registration
     public synchronized void start() throws RMIException
     {
         startSkeleton();
+        this.timer.scheduleWithFixedDelay(this::cool, AccessSketch.HALF_LIFE,
+                                          AccessSketch.HALF_LIFE, TimeUnit.MILLISECONDS);
+        this.timer.scheduleWithFixedDelay(this::pollStatus, STATUS_INTERVAL,
+                                          STATUS_INTERVAL, TimeUnit.MILLISECONDS);
     }
 
     private void startSkeleton() throws RMIException {
@@ -138,14 +301,21 @@ public class NamingServer implements Service, Registration
 
         serviceSkeleton.stop();
         registerSkeleton.stop();
-        this.pathCommandStubMap.clear();
-        this.commandStorageMap.clear();
-        try {
-
-            deleteChild(new File(this.currentRoot));
-
-        } catch (IOException e) {
-
+        this.leases.shutdown();
+        this.replicator.shutdown();
+        this.timer.shutdownNow();
+        if(this.journal != null) {
+            this.journal.close();
+        }
+        synchronized(root) {
+            for(String name : root.list()) {
+                root.child(name).detach();
+            }
+            this.commandStorageMap.clear();
+            this.registering.clear();
+            this.replicated.clear();
+            this.loads.clear();
+            this.deleting.clear();
         }
         stopped(null);
 
@@ -165,279 +335,646 @@ public class NamingServer implements Service, Registration
     }
 
 
+    /** Returns counts and wait times of the locks taken on paths. */
+    public LockStatistics lockStatistics()
+    {
+        return this.locks.statistics();
+    }
+
     @Override
     public void lock(Path path, boolean exclusive) throws FileNotFoundException
     {
         if(path ==  null) {
-
             throw new NullPointerException();
         }
 
-        File f = new File(this.currentRoot + path.toString());
+        lock(new Path[] {path}, new boolean[] {exclusive});
+    }
 
-        if(!f.exists()) {
-            throw new FileNotFoundException();
+    @Override
+    public void unlock(Path path, boolean exclusive)
+    {
+        if(path ==  null) {
+            throw new NullPointerException();
         }
 
-        if(!exclusive) {
-            if(this.pathReadCount.containsKey(path)) {
-                int count  = this.pathReadCount.get(path);
-                if(count >= 20) {
-
-                    Storage cstub = this.commandStorageMap.get(this.pathCommandStubMap.get(path));
-                    for(Map.Entry<Command, Storage> s : this.commandStorageMap.entrySet()) {
-                        if(s.getKey() != this.pathCommandStubMap.get(path)) {
-                            try {
-
-                                (s.getKey()).copy(path,cstub);
-                            } catch (RMIException | IOException e) {
-                                e.printStackTrace();
-                            }
-                        }
-                    }
-                    count = 1;
-                    this.pathReplicated.put(path, true);
-                    this.pathReadCount.put(path, count);
-
-                    Path directory = path.parent();
+        unlock(new Path[] {path}, new boolean[] {exclusive});
+    }
 
-                    while(!directory.toString().equals("/") && !directory.toString().equals("")) {
-                        this.pathReplicated.put(directory, true);
-                        directory = directory.parent();
-                    }
+    @Override
+    public void lock(Path[] paths, boolean[] exclusive) throws FileNotFoundException
+    {
+        if(paths == null || exclusive == null) {
+            throw new NullPointerException();
+        }
 
-                } else {
-                    this.pathReadCount.put(path,  count+ 1);
+        Node[] nodes = new Node[paths.length];
+        synchronized(root) {
+            for(int i = 0; i < paths.length; i++) {
+                if(paths[i] == null) {
+                    throw new NullPointerException();
                 }
-            } else {
-                this.pathReadCount.put(path, 1);
-            }
-        }
-        else if(this.pathReplicated.containsKey(path) && this.pathReplicated.get(path))
-        {
-            Command cstub = this.pathCommandStubMap.get(path);
-            for(Map.Entry<Command,Storage> s : this.commandStorageMap.entrySet()) {
-                if(s.getKey() != cstub) {
-                    try {
-                        s.getKey().delete(path);
-                    } catch (RMIException e) {
-                        e.printStackTrace();
-                    }
+                nodes[i] = lookup(paths[i]);
+                if(nodes[i] == null) {
+                    throw new FileNotFoundException(paths[i].toString());
                 }
             }
-            this.pathReplicated.put(path, false);
-        }
-
-        Path directory = path.toString().equals("/")?path : path.parent();
-
-        while(!directory.toString().equals("/") && !directory.toString().equals("")) {
-            ReadWriteLock lockObj = lockMap.containsKey(directory) ? lockMap.get(directory): new ReadWriteLock();
-            try {
-                lockObj.lockRead();
-                lockMap.putIfAbsent(directory,lockObj);
-            } catch (InterruptedException e) {
-
-            }
-            directory = directory.parent();
         }
 
-        ReadWriteLock lockObj = lockMap.containsKey(path) ? lockMap.get(path): new ReadWriteLock();
+        LeaseTable.Request request = this.leases.begin(paths, exclusive);
         try {
-            if (exclusive) {
-                lockObj.lockWrite();
-                lockMap.putIfAbsent(path, lockObj);
-            } else {
-                lockObj.lockRead();
-                lockMap.putIfAbsent(path,lockObj);
-            }
-        }catch (InterruptedException e) {
-
+            this.locks.lock(paths, exclusive);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while locking");
+        } finally {
+            this.leases.end(request);
         }
 
-        if(!path.toString().equals("/")) {
-
-            lockObj = lockMap.containsKey(new Path("/")) ? lockMap.get(new Path("/")): new ReadWriteLock();
-
-            try {
-
-                lockObj.lockRead();
-                lockMap.putIfAbsent(new Path("/"),lockObj);
-
-            }
-
-            catch (InterruptedException ignored) {
+        for(int i = 0; i < paths.length; i++) {
+            if(!nodes[i].directory) {
+                if(exclusive[i]) {
+                    invalidate(paths[i], nodes[i]);
+                } else {
+                    recordRead(paths[i], nodes[i]);
+                }
             }
         }
     }
 
     @Override
-    public void unlock(Path path, boolean exclusive)
+    public void unlock(Path[] paths, boolean[] exclusive)
     {
-
-        if(path ==  null) {
+        if(paths == null || exclusive == null) {
             throw new NullPointerException();
         }
 
+        synchronized(root) {
+            for(Path path : paths) {
+                if(path == null) {
+                    throw new NullPointerException();
+                }
+                if(lookup(path) == null) {
+                    throw new IllegalArgumentException(path.toString());
+                }
+            }
+        }
 
-        File f = new File(this.currentRoot + path.toString());
+        this.locks.unlock(paths, exclusive);
+    }
 
-        if(!f.exists()) {
-            throw new IllegalArgumentException();
+    @Override
+    public Lease lease(Path path, boolean exclusive) throws FileNotFoundException
+    {
+        if(path == null) {
+            throw new NullPointerException();
         }
 
-        Path directory = path.toString().equals("/")?path : path.parent();
+        Node node;
+        synchronized(root) {
+            node = lookup(path);
+        }
 
-        while(!directory.toString().equals("/")) {
+        if(node == null) {
+            throw new FileNotFoundException();
+        }
 
+        Lease lease;
+        try {
+            lease = this.leases.grant(path, exclusive);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while leasing " + path);
+        }
 
-            if(directory.toString().equals("")) {
-                break;
+        if(!node.directory) {
+            if(exclusive) {
+                invalidate(path, node);
+            } else {
+                recordRead(path, node);
             }
+        }
+        return lease;
+    }
 
-            ReadWriteLock unlockObj = lockMap.get(directory);
-
-            if(unlockObj.readers > 0) {
-                unlockObj.unlockRead();
-            }
+    @Override
+    public boolean renew(long lease)
+    {
+        return this.leases.renew(lease);
+    }
 
-            directory = directory.parent();
+    @Override
+    public void release(long lease)
+    {
+        this.leases.release(lease);
+    }
 
+    /** Counts a shared lock on a file, and schedules copies of the file to
+        other storage servers when its recent reads call for more replicas
+        than it has. The copies are made in the background and published by
+        <code>replicated</code>. */
+    private void recordRead(Path path, Node file)
+    {
+        int count = this.reads.record(path);
+        if(count < READS_PER_REPLICA) {
+            return;
         }
 
-        if(!path.toString().equals("/"))
-        {
-            if(exclusive){
+        synchronized(root) {
+            if(!attached(file) || file.primary() == null) {
+                return;
+            }
 
+            int wanted = desiredReplicas(count) - file.replicas().size();
+            Storage source = this.commandStorageMap.get(file.primary());
+            for(Command command : this.commandStorageMap.keySet()) {
+                if(wanted <= 0) {
+                    break;
+                }
+                if(!file.replicas().contains(command) && !this.registering.contains(command) &&
+                   !deleting(command, path)) {
+                    // A copy already pending still counts towards the total.
+                    this.replicator.submit(path, command, source, file.version);
+                    --wanted;
+                }
+            }
+        }
+    }
 
-                ReadWriteLock lockObj = null;
+    /** Returns the number of replicas called for by a file's recent reads:
+        one, and one more for every <code>READS_PER_REPLICA</code> reads, up
+        to the number of storage servers. The caller must hold the monitor of
+        <code>root</code>. */
+    private int desiredReplicas(int count)
+    {
+        return Math.max(1, Math.min(this.commandStorageMap.size(), 1 + count / READS_PER_REPLICA));
+    }
 
-                lockObj = lockMap.get(path);
+    /** Removes the replicas that files are no longer read often enough to
+        need. Runs periodically in the background.
 
-                try {
-
-                    if(lockObj.writers > 0) {
+        <p>
+        A file is trimmed only while it can be locked for exclusive access at
+        once, so no client is reading a replica as it is deleted. A busy file
+        is left for the next run.
+     */
+    private void cool()
+    {
+        List<Node> candidates;
+        synchronized(root) {
+            candidates = new ArrayList<>(this.replicated);
+        }
 
+        for(Node file : candidates) {
+            Path path;
+            synchronized(root) {
+                if(!attached(file) || file.replicas().size() <= 1) {
+                    this.replicated.remove(file);
+                    continue;
+                }
+                path = file.path();
+            }
 
-                        lockObj.unlockWrite();
+            int count = this.reads.estimate(path);
+            try {
+                if(!this.locks.tryLock(path, true, 0, TimeUnit.MILLISECONDS)) {
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
 
+            try {
+                List<Command> surplus = new ArrayList<>();
+                synchronized(root) {
+                    if(attached(file)) {
+                        int keep = desiredReplicas(count);
+                        Iterator<Command> replicas = file.replicas().iterator();
+                        for(int index = 0; replicas.hasNext(); ++index) {
+                            Command command = replicas.next();
+                            if(index >= keep) {
+                                surplus.add(command);
+                                replicas.remove();
+                            }
+                        }
+                    }
+                    if(!attached(file) || file.replicas().size() <= 1) {
+                        this.replicated.remove(file);
                     }
-
                 }
 
-                catch (InterruptedException e) {
-
+                // Delete while the file is still locked, so that no copy to
+                // the same server can be started meanwhile.
+                for(Command command : surplus) {
+                    try {
+                        command.delete(path);
+                    } catch (RMIException e) {
+                        e.printStackTrace();
+                    }
                 }
-
+            } finally {
+                this.locks.unlock(path, true);
             }
+        }
+    }
 
-            else {
-                ReadWriteLock lockObj = lockMap.get(path);
-                if(lockObj.readers > 0) {
+    /** Publishes a replica once its copy has been made, unless the file has
+        been written, deleted or replaced meanwhile. A copy that cannot be
+        published is deleted. */
+    private void replicated(Path path, Command target, long version, boolean copied)
+    {
+        if(!copied) {
+            return;
+        }
 
-                    lockObj.unlockRead();
+        synchronized(root) {
+            Node file = lookup(path);
+            if(file == null || file.directory) {
+                file = null;
+            }
 
-                }
+            if(file != null && file.version == version &&
+               this.commandStorageMap.containsKey(target)) {
+                file.replicas().add(target);
+                this.replicated.add(file);
+                return;
+            }
+            if(file != null && file.replicas().contains(target)) {
+                // The target already hosts the file as it now is.
+                return;
             }
         }
 
-        ReadWriteLock lockObj = lockMap.get(new Path("/"));
-
         try {
-            if (exclusive && path.toString().equals("/")) {
-                if(lockObj.writers > 0) {
-                    lockObj.unlockWrite();
-                }
+            target.delete(path);
+        } catch (RMIException e) {
+            e.printStackTrace();
+        }
+    }
 
-            } else {
-                if(lockObj.readers > 0) {
-                    lockObj.unlockRead();
+    /** Makes every copy of a file but the primary one stale, before the
+        file is written.
+
+        <p>
+        The file is given a new version and its other replicas are dropped
+        at once, so readers are no longer routed to them and copies of the
+        old version still in progress are not published. The stale copies
+        are then deleted in the background, and the writer does not wait for
+        them. A server is not sent a new copy of the file until its stale
+        copy is gone; the file is replicated again once reads call for it.
+     */
+    private void invalidate(Path path, Node file)
+    {
+        List<Command> stale = new ArrayList<>();
+        synchronized(root) {
+            file.modified();
+            Command primary = file.primary();
+            if(primary == null) {
+                return;
+            }
+            for(Command command : file.replicas()) {
+                if(command != primary) {
+                    stale.add(command);
+                    this.deleting.computeIfAbsent(command, c -> new HashSet<>()).add(path);
                 }
             }
+            file.replicas().retainAll(Collections.singleton(primary));
+            this.replicated.remove(file);
         }
-        catch (InterruptedException e) {
+
+        for(Command command : stale) {
+            Stub.createAsync(CommandAsync.class, command).delete(path).whenComplete((deleted, failure) -> {
+                if(failure != null) {
+                    failure.printStackTrace();
+                }
+                synchronized(root) {
+                    Set<Path> paths = this.deleting.get(command);
+                    if(paths != null && paths.remove(path) && paths.isEmpty()) {
+                        this.deleting.remove(command);
+                    }
+                }
+            });
         }
     }
 
+    /** Returns <code>true</code> if a stale copy of a file is being deleted
+        from a storage server. The caller must hold the monitor of
+        <code>root</code>. */
+    private boolean deleting(Command command, Path path)
+    {
+        Set<Path> paths = this.deleting.get(command);
+        return paths != null && paths.contains(path);
+    }
+
     @Override
     public boolean isDirectory(Path path) throws FileNotFoundException
     {
         if(path == null) {
             throw new NullPointerException();
         }
-        if(!this.pathCommandStubMap.containsKey(path) && !path.toString().equals("/")) {
-            throw new FileNotFoundException();
-        }
 
-        File f = new File(this.currentRoot + path.toString());
-        if(f.isDirectory()) {
-            return true;
+        synchronized(root) {
+            Node node = lookup(path);
+            if(node == null) {
+                throw new FileNotFoundException();
+            }
+            return node.directory;
         }
-        return false;
     }
 
     @Override
     public String[] list(Path directory) throws FileNotFoundException
     {
-
         if(directory == null) {
             throw new NullPointerException();
         }
-        String dirString = "";
 
-        if(!this.pathCommandStubMap.containsKey(directory) && !directory.toString().equals("/")) {
-            throw  new FileNotFoundException();
+        synchronized(root) {
+            Node node = lookup(directory);
+            if(node == null || !node.directory) {
+                throw new FileNotFoundException();
+            }
+            return node.list();
         }
+    }
 
-        if(directory.toString().equals("/")) {
-            dirString = this.currentRoot;
+    @Override
+    public FileStatus stat(Path path) throws FileNotFoundException
+    {
+        if(path == null) {
+            throw new NullPointerException();
         }
-        else {
-            dirString = this.currentRoot + directory.toString();
+
+        Node node;
+        synchronized(root) {
+            node = lookup(path);
+            if(node == null) {
+                throw new FileNotFoundException();
+            }
         }
 
-        File dir = new File(dirString);
+        return describe(new Path[] {path}, new Node[] {node})[0];
+    }
 
-        if(!dir.exists()) {
-            throw new FileNotFoundException();
-        }
+    @Override
+    public String[] list(Path directory, String after, int limit) throws FileNotFoundException
+    {
+        List<Node> page = page(directory, after, Math.min(limit, LIST_PAGE_LIMIT));
 
-        if(dir.isFile()) {
-            throw new FileNotFoundException();
+        String[] names = new String[page.size()];
+        for(int index = 0; index < names.length; ++index) {
+            names[index] = page.get(index).name;
         }
+        return names;
+    }
 
+    @Override
+    public FileStatus[] listStatus(Path directory) throws FileNotFoundException
+    {
+        return describe(directory, page(directory, null, Integer.MAX_VALUE));
+    }
 
+    @Override
+    public FileStatus[] listStatus(Path directory, String after, int limit) throws FileNotFoundException
+    {
+        return describe(directory, page(directory, after, Math.min(limit, LIST_PAGE_LIMIT)));
+    }
 
-        try {
+    @Override
+    public FileStatus[] walk(Path path, int depth, boolean attributes, Path after, int limit)
+        throws FileNotFoundException
+    {
+        if(path == null) {
+            throw new NullPointerException();
+        }
+        if(limit <= 0) {
+            throw new IllegalArgumentException("page limit must be positive");
+        }
 
-            String p = dir.getPath();
+        // Components of the cursor below the subtree's root.
+        String[] cursor = null;
+        if(after != null) {
+            List<String> components = new ArrayList<>();
+            for(String component : after) {
+                components.add(component);
+            }
+            int offset = 0;
+            for(String component : path) {
+                if(offset == components.size() || !components.get(offset).equals(component)) {
+                    throw new IllegalArgumentException(after + " is not under " + path);
+                }
+                ++offset;
+            }
+            cursor = components.subList(offset, components.size()).toArray(new String[0]);
+        }
 
-            File parentPath = new File(p);
+        List<Path> paths = new ArrayList<>();
+        List<Node> nodes = new ArrayList<>();
+        synchronized(root) {
+            Node node = lookup(path);
+            if(node == null) {
+                throw new FileNotFoundException();
+            }
+            walk(node, path, 0, depth, cursor, Math.min(limit, LIST_PAGE_LIMIT), paths, nodes);
+        }
 
-            List<String> files = listFiles(parentPath,parentPath);
+        Path[] pagePaths = paths.toArray(new Path[0]);
+        Node[] pageNodes = nodes.toArray(new Node[0]);
+        if(attributes) {
+            return describe(pagePaths, pageNodes);
+        }
 
+        FileStatus[] statuses = new FileStatus[pageNodes.length];
+        for(int index = 0; index < statuses.length; ++index) {
+            statuses[index] = new FileStatus(pagePaths[index], pageNodes[index].directory, -1, new Storage[0]);
+        }
+        return statuses;
+    }
 
-            return files.toArray(new String[0]);
+    /** Adds the objects of a subtree that follow the cursor to a page, in
+        pre-order, until the page holds <code>limit</code> objects. The
+        caller must hold the monitor of <code>root</code>.
+
+        @param node Root of the subtree.
+        @param path Path of <code>node</code>.
+        @param level Depth of <code>node</code> below the root of the walk.
+        @param depth Depth at which the walk stops, or a negative number.
+        @param cursor Components of the cursor below the root of the walk,
+                      or <code>null</code> if every object of this subtree
+                      follows the cursor. Components from
+                      <code>level</code> on are the cursor's path below
+                      <code>node</code>.
+        @return <code>false</code> once the page is full.
+     */
+    private static boolean walk(Node node, Path path, int level, int depth, String[] cursor, int limit,
+                                List<Path> paths, List<Node> nodes)
+    {
+        if(cursor == null) {
+            if(paths.size() == limit) {
+                return false;
+            }
+            paths.add(path);
+            nodes.add(node);
+        } else if(level == cursor.length) {
+            // The cursor itself: everything below it follows it.
+            cursor = null;
+        }
+
+        if(!node.directory || (depth >= 0 && level >= depth)) {
+            return true;
+        }
+
+        // Skip the entries that precede the one on the way to the cursor.
+        String from = cursor == null ? null : cursor[level];
+        for(Node child : node.childrenFrom(from)) {
+            String[] below = child.name.equals(from) ? cursor : null;
+            if(!walk(child, new Path(path, child.name), level + 1, depth, below, limit, paths, nodes)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
+    /** Returns the attributes of the given children of a directory. */
+    private FileStatus[] describe(Path directory, List<Node> page)
+    {
+        Node[] nodes = page.toArray(new Node[0]);
+        Path[] paths = new Path[nodes.length];
+        for(int index = 0; index < nodes.length; ++index) {
+            paths[index] = new Path(directory, nodes[index].name);
+        }
+        return describe(paths, nodes);
+    }
 
-        } catch (Exception e) {
+    /** Returns the children of a directory that follow <code>after</code>,
+        at most <code>limit</code> of them. */
+    private List<Node> page(Path directory, String after, int limit) throws FileNotFoundException
+    {
+        if(directory == null) {
+            throw new NullPointerException();
+        }
+        if(limit <= 0) {
+            throw new IllegalArgumentException("page limit must be positive");
         }
 
-        return null;
+        synchronized(root) {
+            Node node = lookup(directory);
+            if(node == null || !node.directory) {
+                throw new FileNotFoundException();
+            }
+            return node.children(after, limit);
+        }
     }
 
-    static List<String> listFiles(File parent, File folder) {
-        List<String> lstFiles = new ArrayList<String>();
-        if (folder.isDirectory()) {
+    /** Returns the attributes of the given objects, first obtaining the
+        sizes of files not yet known from their storage servers. */
+    private FileStatus[] describe(Path[] paths, Node[] nodes)
+    {
+        long[] measured = measure(paths, nodes);
+
+        FileStatus[] statuses = new FileStatus[nodes.length];
+        synchronized(root) {
+            for(int index = 0; index < nodes.length; ++index) {
+                Node node = nodes[index];
+                if(node.directory) {
+                    statuses[index] = new FileStatus(paths[index], true, -1, new Storage[0]);
+                    continue;
+                }
 
-            File[] files = folder.listFiles();
-            if (files != null) {
-                for (File file : files) {
-                    lstFiles.add(file.getName());
+                List<Storage> replicas = new ArrayList<>();
+                for(Command command : node.replicas()) {
+                    replicas.add(this.commandStorageMap.get(command));
                 }
+                long size = node.size >= 0 ? node.size : measured[index];
+                statuses[index] = new FileStatus(paths[index], false, size, replicas.toArray(new Storage[0]));
             }
         }
+        return statuses;
+    }
 
-        return lstFiles;
+    /** Asks the storage servers for the sizes of the given files whose sizes
+        are not known, all at once, and returns the sizes obtained, or -1.
+
+        <p>
+        A size is kept for later calls only if it was measured under a shared
+        lock on the file, taken without waiting, and the file kept its
+        version meanwhile. Every write takes an exclusive lock, which gives
+        the file a new version, so a size kept this way stays correct until
+        the file is next locked for writing. A file that cannot be locked at
+        once may be being written: its size is measured all the same, but
+        not kept.
+
+        <p>
+        Sizes not reported within <code>MEASURE_TIMEOUT</code> are returned
+        as -1, so that a storage server that does not answer cannot hold up
+        the caller, or the locks taken here, indefinitely.
+     */
+    private long[] measure(Path[] paths, Node[] nodes)
+    {
+        long[] measured = new long[nodes.length];
+        Arrays.fill(measured, -1);
+
+        Storage[] sources = new Storage[nodes.length];
+        long[] versions = new long[nodes.length];
+        synchronized(root) {
+            for(int index = 0; index < nodes.length; ++index) {
+                Node node = nodes[index];
+                if(!node.directory && node.size < 0 && node.primary() != null) {
+                    sources[index] = this.commandStorageMap.get(node.primary());
+                    versions[index] = node.version;
+                }
+            }
+        }
+
+        boolean[] locked = new boolean[nodes.length];
+        List<CompletableFuture<Long>> sizes = new ArrayList<>();
+        Map<Storage, StorageAsync> views = new HashMap<>();
+        // Calls started under the deadline fail once it expires.
+        try(Deadline deadline = Deadline.after(MEASURE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            for(int index = 0; index < nodes.length; ++index) {
+                if(sources[index] == null) {
+                    sizes.add(null);
+                    continue;
+                }
+                try {
+                    locked[index] = this.locks.tryLock(paths[index], false, 0, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                StorageAsync view = views.computeIfAbsent(sources[index],
+                        source -> Stub.createAsync(StorageAsync.class, source));
+                sizes.add(view.size(paths[index]));
+            }
+
+            for(int index = 0; index < sizes.size(); ++index) {
+                if(sizes.get(index) == null) {
+                    continue;
+                }
+                try {
+                    // Local servers are not bound by the deadline, so the
+                    // wait is bounded here as well.
+                    measured[index] = sizes.get(index).get(
+                            Math.max(0, deadline.remainingNanos()), TimeUnit.NANOSECONDS);
+                } catch (ExecutionException | TimeoutException e) {
+                    continue;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                synchronized(root) {
+                    if(locked[index] && nodes[index].version == versions[index]) {
+                        nodes[index].size = measured[index];
+                    }
+                }
+            }
+        } finally {
+            for(int index = 0; index < nodes.length; ++index) {
+                if(locked[index]) {
+                    this.locks.unlock(paths[index], false);
+                }
+            }
+        }
+        return measured;
     }
 
     @Override
@@ -448,44 +985,53 @@ public class NamingServer implements Service, Registration
             throw new NullPointerException();
         }
 
-        File f = new File(this.currentRoot + file.toString());
-        if(f.exists()) {
-            return false;
-        }
-
-        if(this.commandStorageMap.isEmpty()) {
-            throw new IllegalStateException();
-        }
-
-        File parentDir = new File(this.currentRoot + file.parent().toString());
-
-        if(parentDir.exists() && !parentDir.isFile()) {
-            try {
-                if(f.createNewFile()) {
-
-                    Map.Entry<Path, Command> entry = this.pathCommandStubMap.entrySet().iterator().next();
+        List<PlacementPolicy.Candidate> candidates;
+        synchronized(root) {
+            if(lookup(file) != null) {
+                return false;
+            }
 
-                    Command altStub = entry.getValue();
+            candidates = candidates();
+            if(candidates.isEmpty()) {
+                throw new IllegalStateException();
+            }
 
-                    Command cstub = this.pathCommandStubMap.get(file.parent()) == null ? altStub : this.pathCommandStubMap.get(file.parent());
+            Node parent = lookup(file.parent());
+            if(parent == null || !parent.directory) {
+                throw new FileNotFoundException();
+            }
+        }
 
+        Command cstub = this.placement.place(file, candidates).command();
 
+        if(!cstub.create(file)) {
+            return false;
+        }
 
-                    if(cstub.create(file)) {
-                        this.pathCommandStubMap.put(file, cstub);
-                        return true;
-                    }
-                    return false;
-                } else {
-                    return false;
+        boolean added = false;
+        long sequence = 0;
+        synchronized(root) {
+            Node parent = lookup(file.parent());
+            if(parent != null && parent.directory && parent.child(file.last()) == null) {
+                parent.addFile(file.last(), cstub).size = 0;
+                added = true;
+                sequence = log(Journal.CREATE_FILE, file);
+                Load load = this.loads.get(cstub);
+                if(load != null) {
+                    ++load.assigned;
                 }
-            } catch (IOException e) {
-
             }
-        } else {
-            throw new FileNotFoundException();
         }
-        return false;
+        if(!added) {
+            // The name was claimed, possibly on another server, or the parent
+            // removed while the file was being created. Nothing else can have
+            // been created at this path on this server since, so remove the
+            // file rather than leave it orphaned there.
+            cstub.delete(file);
+            return false;
+        }
+        commit(sequence);
+        return true;
     }
 
     @Override
@@ -495,25 +1041,22 @@ public class NamingServer implements Service, Registration
             throw new NullPointerException();
         }
 
-        File dir = new File(this.currentRoot + file.toString());
-        if(dir.exists()) {
-            return false;
-        }
-
-        File parentDir = new File(this.currentRoot + file.parent().toString());
-
-        if(parentDir.exists() && !parentDir.isFile()) {
-            if(dir.mkdir()) {
-                Command cstub = this.pathCommandStubMap.get(file.parent());
-                this.pathCommandStubMap.put(file, cstub);
-                return true;
-            } else {
+        long sequence;
+        synchronized(root) {
+            if(lookup(file) != null) {
                 return false;
             }
-        } else {
-            throw new FileNotFoundException();
-        }
 
+            Node parent = lookup(file.parent());
+            if(parent == null || !parent.directory) {
+                throw new FileNotFoundException();
+            }
+
+            parent.addDirectory(file.last());
+            sequence = log(Journal.CREATE_DIRECTORY, file);
+        }
+        commit(sequence);
+        return true;
     }
 
 
@@ -524,25 +1067,43 @@ public class NamingServer implements Service, Registration
         if(path == null) {
             throw new NullPointerException();
         }
-        if(!this.pathCommandStubMap.containsKey(path)) {
-            throw new FileNotFoundException();
 
+        Node node;
+        Set<Command> hosts = new LinkedHashSet<>();
+        synchronized(root) {
+            node = lookup(path);
+            if(node == null) {
+                throw new FileNotFoundException();
+            }
+            if(node == root) {
+                return false;
+            }
+            node.collectReplicas(hosts);
         }
 
-        for(Map.Entry<Command,Storage> s : this.commandStorageMap.entrySet()) {
+        // Delete from every storage server hosting part of the subtree in
+        // parallel, then wait for all.
+        List<CompletableFuture<Boolean>> deletions = new ArrayList<>();
+        for(Command command : hosts) {
+            deletions.add(Stub.createAsync(CommandAsync.class, command).delete(path));
+        }
+        for(CompletableFuture<Boolean> deletion : deletions) {
             try {
-                s.getKey().delete(path);
-            } catch (RMIException e) {
-                e.printStackTrace();
+                deletion.join();
+            } catch (CompletionException e) {
+                e.getCause().printStackTrace();
                 return false;
             }
         }
-        this.pathReplicated.remove(path);
 
-        File f = new File(this.currentRoot + path.toString());
-        if(f.exists()) {
-            f.delete();
+        long sequence = 0;
+        synchronized(root) {
+            if(attached(node)) {
+                node.detach();
+                sequence = log(Journal.DELETE, path);
+            }
         }
+        commit(sequence);
         return true;
     }
 
@@ -554,109 +1115,283 @@ public class NamingServer implements Service, Registration
             throw new NullPointerException();
         }
 
-        if(!this.pathCommandStubMap.containsKey(file)) {
-            throw new FileNotFoundException();
-        }
+        synchronized(root) {
+            Command[] replicas = hosts(file);
+
+            // Pick the replica on the least loaded server, starting the scan
+            // at a rotating offset so that ties are shared out in turn.
+            int offset = Math.floorMod(this.rotation++, replicas.length);
+            Command chosen = null;
+            double lightest = 0;
+            for(int index = 0; index < replicas.length; ++index) {
+                Command command = replicas[(offset + index) % replicas.length];
+                Load load = this.loads.get(command);
+                double weight = load == null ? 0 : load.rate + load.assigned;
+                if(chosen == null || weight < lightest) {
+                    chosen = command;
+                    lightest = weight;
+                }
+            }
 
-        File f = new File(this.currentRoot + file.toString());
+            Load load = this.loads.get(chosen);
+            if(load != null) {
+                ++load.assigned;
+            }
+            return this.commandStorageMap.get(chosen);
+        }
+    }
 
-        if(f.isDirectory()) {
-            throw new FileNotFoundException();
+    @Override
+    public Storage[] getStorages(Path file) throws FileNotFoundException
+    {
+        if(file == null) {
+            throw new NullPointerException();
         }
 
-        return (this.commandStorageMap.get(this.pathCommandStubMap.get(file)));
+        synchronized(root) {
+            Command[] replicas = hosts(file);
+            Storage[] storages = new Storage[replicas.length];
+            for(int index = 0; index < replicas.length; ++index) {
+                storages[index] = this.commandStorageMap.get(replicas[index]);
+            }
+            return storages;
+        }
     }
 
+    /** Returns the replicas of a file, the primary first. The caller must
+        hold the monitor of <code>root</code>.
+
+        @throws FileNotFoundException If the file does not exist, or no
+                                      storage server hosts it.
+     */
+    private Command[] hosts(Path file) throws FileNotFoundException
+    {
+        Node node = lookup(file);
+        if(node == null || node.directory) {
+            throw new FileNotFoundException();
+        }
+        if(node.primary() == null) {
+            throw new FileNotFoundException("no storage server hosts " + file);
+        }
+        return node.replicas().toArray(new Command[0]);
+    }
 
     @Override
     public Path[] register(Storage client_stub, Command command_stub,
                            Path[] files)
     {
+        if(client_stub == null || command_stub == null || files == null) {
+            throw new NullPointerException();
+        }
 
-        this.deleteFiles = new ArrayList<>();
+        Path[] sorted = files.clone();
+        Arrays.sort(sorted);
 
-        if(client_stub == null || command_stub == null || files == null) {
+        beginRegistration(client_stub, command_stub);
+        Path[] duplicates = registerBatch(command_stub, sorted);
+        endRegistration(command_stub);
+        return duplicates;
+    }
+
+    @Override
+    public void beginRegistration(Storage client_stub, Command command_stub)
+    {
+        if(client_stub == null || command_stub == null) {
             throw new NullPointerException();
         }
 
-        if(this.commandStorageMap.containsKey(command_stub)) {
-            throw new IllegalStateException();
+        synchronized(root) {
+            if(this.commandStorageMap.containsKey(command_stub)) {
+                throw new IllegalStateException();
+            }
+
+            this.commandStorageMap.put(command_stub, client_stub);
+            this.registering.add(command_stub);
         }
+    }
 
-        this.commandStorageMap.put(command_stub,client_stub);
+    @Override
+    public Path[] registerBatch(Command command_stub, Path[] files)
+    {
+        if(command_stub == null || files == null) {
+            throw new NullPointerException();
+        }
 
-        for(Path p: files) {
-            try {
+        ArrayList<Path> deleteFiles = new ArrayList<>();
+        long sequence = 0;
 
-                if(this.pathCommandStubMap.containsKey(p)) {
+        synchronized(root) {
+            if(!this.registering.contains(command_stub)) {
+                throw new IllegalStateException("storage server not registering");
+            }
 
-                    this.deleteFiles.add(p);
+            // The directories on the way to the last file merged, from the
+            // root down, with their paths. Sorted files share most of them
+            // with the file before, so each directory is looked up once.
+            ArrayList<Node> nodes = new ArrayList<>();
+            ArrayList<Path> paths = new ArrayList<>();
+            nodes.add(root);
+            paths.add(new Path());
+
+            for(Path p: files) {
+                if(p == null) {
+                    throw new NullPointerException();
+                }
+                if(p.isRoot()) {
+                    continue;
+                }
 
+                ArrayList<String> components = new ArrayList<>();
+                for(String component : p) {
+                    components.add(component);
                 }
-                else {
 
-                    createLocalFile(p);
-                    this.pathCommandStubMap.put(p, command_stub);
-                    if(p.toString().equals("/")) {
-                        continue;
+                // Keep the directories shared with the previous file, then
+                // walk down to the parent, creating missing directories. A
+                // file anywhere along the way makes the path a duplicate.
+                int depth = 1;
+                while(depth < nodes.size() && depth < components.size() &&
+                      nodes.get(depth).name.equals(components.get(depth - 1))) {
+                    ++depth;
+                }
+                nodes.subList(depth, nodes.size()).clear();
+                paths.subList(depth, paths.size()).clear();
+
+                Node parent = nodes.get(depth - 1);
+                for(; depth < components.size(); ++depth) {
+                    String component = components.get(depth - 1);
+                    Path walked = new Path(paths.get(depth - 1), component);
+                    Node next = parent.child(component);
+                    if(next == null) {
+                        next = parent.addDirectory(component);
+                        sequence = log(Journal.CREATE_DIRECTORY, walked);
                     }
-                    Path directory = p.parent();
-
-                    while(!directory.toString().equals("/") && !this.pathCommandStubMap.containsKey(directory) && directory.toString().length() > 0) {
-                        this.pathCommandStubMap.put(directory, command_stub);
-                        directory = directory.parent();
+                    if(!next.directory) {
+                        parent = null;
+                        break;
                     }
-
+                    nodes.add(next);
+                    paths.add(walked);
+                    parent = next;
                 }
-                list(new Path("/"));
-
-            }
-            catch (Exception e) {
 
+                Node existing = parent == null ? null : parent.child(p.last());
+                if(existing != null && !existing.directory &&
+                   (existing.primary() == null || existing.replicas().contains(command_stub))) {
+                    // A file restored from the journal, or sent twice.
+                    existing.replicas().add(command_stub);
+                } else if(parent == null || existing != null) {
+                    deleteFiles.add(p);
+                } else {
+                    parent.addFile(p.last(), command_stub);
+                    sequence = log(Journal.CREATE_FILE, p);
+                }
             }
         }
 
-        return this.deleteFiles.toArray(new Path[0]);
+        commit(sequence);
+        return deleteFiles.toArray(new Path[0]);
     }
 
-    public synchronized boolean createLocalFile(Path file)
+    @Override
+    public void endRegistration(Command command_stub)
     {
+        if(command_stub == null) {
+            throw new NullPointerException();
+        }
 
-        if(file.pathList.size() != 1 ) {
-
-            String dirPath  = this.currentRoot + file.parent().toString();
-
-            String fileName = file.last();
-            File parentDir  = new File(dirPath);
-
-            if(!parentDir.exists()) {
-                boolean pdc = parentDir.mkdirs();
+        synchronized(root) {
+            if(!this.registering.remove(command_stub)) {
+                throw new IllegalStateException("storage server not registering");
             }
+        }
+        poll(command_stub);
+    }
 
-            File newFile = new File(parentDir.getPath() +"/"+ fileName);
+    /** Returns the storage servers that new files can be placed on: those
+        that have completed registration, leaving out the ones known to be
+        full unless all are. The caller must hold the monitor of
+        <code>root</code>. */
+    private List<PlacementPolicy.Candidate> candidates()
+    {
+        List<PlacementPolicy.Candidate> all = new ArrayList<>();
+        List<PlacementPolicy.Candidate> roomy = new ArrayList<>();
 
-            if(newFile.exists()) {
-                return false;
+        for(Command command : this.commandStorageMap.keySet()) {
+            if(this.registering.contains(command)) {
+                continue;
             }
 
-            try{
-                newFile.createNewFile();
-                return true;
+            Load load = this.loads.get(command);
+            PlacementPolicy.Candidate candidate = load == null
+                ? new PlacementPolicy.Candidate(command, -1, 0)
+                : new PlacementPolicy.Candidate(command, load.status.freeSpace(), load.rate + load.assigned);
+            all.add(candidate);
+            if(load == null || !load.full()) {
+                roomy.add(candidate);
             }
+        }
 
-            catch (IOException e){
+        return roomy.isEmpty() ? all : roomy;
+    }
 
-                return false;
-            }
+    /** Polls every storage server for its status. */
+    private void pollStatus()
+    {
+        List<Command> servers;
+        synchronized(root) {
+            servers = new ArrayList<>(this.commandStorageMap.keySet());
         }
 
-        else {
-            if(file.pathList.get(0).equals("/")) {
-                return false;
-            }
+        for(Command command : servers) {
+            poll(command);
         }
+    }
 
-        return false;
+    /** Starts a poll of a storage server for its status. A server that does
+        not answer keeps its last status. */
+    private void poll(Command command)
+    {
+        Stub.createAsync(CommandAsync.class, command).status().thenAccept(status -> {
+            long now = System.nanoTime();
+            synchronized(root) {
+                if(!this.commandStorageMap.containsKey(command)) {
+                    return;
+                }
+
+                Load previous = this.loads.get(command);
+                double rate = 0;
+                if(previous != null && now > previous.time) {
+                    rate = (status.requests() - previous.status.requests()) * 1e9 / (now - previous.time);
+                }
+                this.loads.put(command, new Load(status, now, rate));
+            }
+        });
     }
 
+    /** Status of a storage server as last reported, with the load derived
+        from it. */
+    private static final class Load
+    {
+        final ServerStatus status;
+        /** Time of the report, from <code>System.nanoTime</code>. */
+        final long time;
+        /** Client requests served per second since the previous report. */
+        final double rate;
+        /** Files placed on the server, and reads routed to it, since the
+            report. */
+        int assigned = 0;
+
+        Load(ServerStatus status, long time, double rate)
+        {
+            this.status = status;
+            this.time = time;
+            this.rate = rate;
+        }
+
+        boolean full()
+        {
+            return this.status.totalSpace() > 0 && this.status.freeSpace() == 0;
+        }
+    }
 }
@@ -0,0 +1,183 @@
+package naming;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.Path;
+import storage.Command;
+
+/** Node in the naming server's directory tree.
+
+    <p>
+    Each node is either a directory, which has named children, or a file,
+    which has a set of replicas: the command stubs of the storage servers
+    hosting a copy of it. The first replica is the primary copy, which
+    survives invalidation. A file restored from the journal has no replicas
+    until a storage server hosting it registers.
+
+    <p>
+    Nodes are not thread-safe. The naming server guards the whole tree with
+    the monitor of its root node.
+ */
+final class Node
+{
+    /** Source of file versions. */
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    /** Name of this node within its parent, or the empty string for the
+        root. */
+    final String        name;
+    /** Parent directory, or <code>null</code> for the root. */
+    final Node          parent;
+    /** Whether this node is a directory. */
+    final boolean       directory;
+    /** Version of the file's contents, changed each time the file is
+        locked for writing. Versions are unique across all files, so a
+        version also tells a file apart from another one later created at
+        the same path. */
+    long                version = VERSIONS.incrementAndGet();
+    /** Size of the file in bytes, as last reported by a storage server for
+        the current version, or -1 if it is not known. */
+    long                size = -1;
+
+    /** Children by name, for directories; <code>null</code> for files. */
+    private final TreeMap<String, Node>     children;
+    /** Storage servers hosting the file, for files; <code>null</code> for
+        directories. */
+    private final LinkedHashSet<Command>    replicas;
+
+    private Node(String name, Node parent, boolean directory)
+    {
+        this.name = name;
+        this.parent = parent;
+        this.directory = directory;
+        this.children = directory ? new TreeMap<>() : null;
+        this.replicas = directory ? null : new LinkedHashSet<>();
+    }
+
+    /** Creates an empty root directory. */
+    static Node root()
+    {
+        return new Node("", null, true);
+    }
+
+    /** Returns the child with the given name, or <code>null</code> if this
+        node has no such child or is a file. */
+    Node child(String name)
+    {
+        return directory ? children.get(name) : null;
+    }
+
+    /** Creates a child directory. The name must not already be taken. */
+    Node addDirectory(String name)
+    {
+        return add(new Node(name, this, true));
+    }
+
+    /** Creates a child file hosted on the given storage server. The name must
+        not already be taken. */
+    Node addFile(String name, Command replica)
+    {
+        Node file = addFile(name);
+        file.replicas.add(replica);
+        return file;
+    }
+
+    /** Creates a child file hosted nowhere yet, as restored from the
+        journal. The name must not already be taken. */
+    Node addFile(String name)
+    {
+        return add(new Node(name, this, false));
+    }
+
+    private Node add(Node child)
+    {
+        if(!directory || children.containsKey(child.name))
+            throw new IllegalStateException("cannot add " + child.name);
+
+        children.put(child.name, child);
+        return child;
+    }
+
+    /** Returns the path of this node from the root. */
+    Path path()
+    {
+        return parent == null ? new Path() : new Path(parent.path(), name);
+    }
+
+    /** Detaches this node, and so its whole subtree, from its parent. */
+    void detach()
+    {
+        if(parent != null)
+            parent.children.remove(name);
+    }
+
+    /** Returns the names of the children of this directory, in order. */
+    String[] list()
+    {
+        return children.keySet().toArray(new String[0]);
+    }
+
+    /** Returns at most <code>limit</code> children of this directory whose
+        names follow <code>after</code>, in name order. If
+        <code>after</code> is <code>null</code>, the page starts with the
+        first child. */
+    List<Node> children(String after, int limit)
+    {
+        Collection<Node> following = after == null
+            ? children.values() : children.tailMap(after, false).values();
+
+        List<Node> page = new ArrayList<>(Math.min(limit, children.size()));
+        for(Node child : following)
+        {
+            if(page.size() == limit)
+                break;
+            page.add(child);
+        }
+        return page;
+    }
+
+    /** Returns the children of this directory whose names are
+        <code>from</code> or follow it, in name order. If <code>from</code>
+        is <code>null</code>, every child is returned. The collection is
+        live. */
+    Collection<Node> childrenFrom(String from)
+    {
+        return from == null
+            ? children.values() : children.tailMap(from, true).values();
+    }
+
+    /** Returns the replica set of this file. The set is live. */
+    Set<Command> replicas()
+    {
+        return replicas;
+    }
+
+    /** Gives the file a new version, after which replicas made from an
+        earlier version are stale, and its size is no longer known. */
+    void modified()
+    {
+        version = VERSIONS.incrementAndGet();
+        size = -1;
+    }
+
+    /** Returns the primary replica of this file, or <code>null</code> if no
+        storage server hosts it. */
+    Command primary()
+    {
+        return replicas.isEmpty() ? null : replicas.iterator().next();
+    }
+
+    /** Adds the replicas of every file in this subtree to the given set. */
+    void collectReplicas(Set<Command> into)
+    {
+        if(!directory)
+        {
+            into.addAll(replicas);
+            return;
+        }
+
+        for(Node child : children.values())
+            child.collectReplicas(into);
+    }
+}
@@ -0,0 +1,110 @@
+package naming;
+
+import java.util.*;
+
+import common.*;
+import storage.*;
+
+/** Policy choosing the storage server on which a new file is created.
+
+    <p>
+    The naming server polls its storage servers for their free space and
+    load, and offers every server able to take the file to the policy as a
+    <code>Candidate</code>. The policy is chosen with the
+    <code>naming.placement</code> system property, which names one of the
+    policies below or the class of another implementation, which must have a
+    public constructor without arguments:
+    <ul>
+    <li><code>least-used</code>: the server with the most free space.</li>
+    <li><code>two-choices</code> (the default): the less loaded of two
+        servers picked at random. This spreads new files nearly as evenly
+        as picking the least loaded server, without sending every file to
+        the same server between two polls.</li>
+    <li><code>consistent-hash</code>: the server owning the file's path on
+        a hash ring, so that a path is placed on the same server whenever
+        that server is present, and adding or removing a server moves few
+        placements.</li>
+    </ul>
+
+    <p>
+    Policies are called concurrently by several threads.
+ */
+public interface PlacementPolicy
+{
+    /** Chooses the storage server on which to create a file.
+
+        @param file The file to be created.
+        @param candidates The storage servers able to host the file. There
+                          is at least one.
+        @return One of the candidates.
+     */
+    Candidate place(Path file, List<Candidate> candidates);
+
+    /** Returns the policy with the given name, as described above.
+
+        @throws IllegalArgumentException If there is no such policy.
+     */
+    static PlacementPolicy named(String name)
+    {
+        switch(name)
+        {
+        case "least-used":      return new LeastUsedPlacement();
+        case "two-choices":     return new TwoChoicesPlacement();
+        case "consistent-hash": return new ConsistentHashPlacement();
+        default:
+            try
+            {
+                return Class.forName(name).asSubclass(PlacementPolicy.class)
+                    .getConstructor().newInstance();
+            }
+            catch(ReflectiveOperationException | ClassCastException e)
+            {
+                throw new IllegalArgumentException("no placement policy " +
+                                                   name, e);
+            }
+        }
+    }
+
+    /** Storage server offered to a placement policy. */
+    public static final class Candidate
+    {
+        private final Command   command;
+        private final long      freeSpace;
+        private final double    load;
+
+        Candidate(Command command, long freeSpace, double load)
+        {
+            this.command = command;
+            this.freeSpace = freeSpace;
+            this.load = load;
+        }
+
+        /** Returns the command stub of the storage server. */
+        public Command command()
+        {
+            return command;
+        }
+
+        /** Returns the number of bytes free on the storage server when it
+            last reported, or <code>-1</code> if it has not reported yet. */
+        public long freeSpace()
+        {
+            return freeSpace;
+        }
+
+        /** Returns the load on the storage server: the client requests it
+            served per second between its last two reports, plus one for
+            each file placed on it and each read routed to it since its last
+            report. */
+        public double load()
+        {
+            return load;
+        }
+
+        @Override
+        public String toString()
+        {
+            return command + ": " + freeSpace + " bytes free, load " + load;
+        }
+    }
+}
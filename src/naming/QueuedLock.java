@@ -0,0 +1,227 @@
+package naming;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import naming.LockManager.Mode;
+
+/** First-come first-served lock with shared, exclusive and intention modes.
+
+    <p>
+    Requests that cannot be granted at once join a queue and park. A request
+    is granted when it reaches the head of the queue and is compatible with
+    every mode already granted. Granting is done by the thread that makes it
+    possible - the one releasing a mode or abandoning a queued request - which
+    updates the granted modes on behalf of the waiters and unparks exactly
+    those it admitted. A run of compatible requests at the head of the queue,
+    such as readers queued behind a writer, is admitted in one batch. Threads
+    never wake only to find that the lock is still taken.
+
+    <p>
+    A shared request arriving while an exclusive request is queued waits
+    behind it, even if the lock is currently held only for shared access.
+
+    <p>
+    The queue and the granted modes are guarded by the lock's monitor, which
+    is held only for short updates, never while parking.
+ */
+final class QueuedLock
+{
+    /** Statistics updated by every acquisition. */
+    private final LockStatistics        statistics;
+    /** Number of requests granted each mode, by ordinal. */
+    private final int[]                 granted = new int[Mode.values().length];
+    /** Waiting requests, in arrival order. */
+    private final ArrayDeque<Waiter>    queue = new ArrayDeque<>();
+
+    QueuedLock(LockStatistics statistics)
+    {
+        this.statistics = statistics;
+    }
+
+    /** Acquires the lock in the given mode, waiting as long as necessary.
+
+        @throws InterruptedException If the thread is interrupted while
+                                     waiting. The lock is not held in that
+                                     case.
+     */
+    void lock(Mode mode) throws InterruptedException
+    {
+        acquire(mode, 0);
+    }
+
+    /** Acquires the lock in the given mode, waiting at most the given time.
+
+        @return <code>true</code> if the lock was acquired, or
+                <code>false</code> if the time elapsed first.
+        @throws InterruptedException If the thread is interrupted while
+                                     waiting. The lock is not held in that
+                                     case.
+     */
+    boolean tryLock(Mode mode, long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        return acquire(mode, System.nanoTime() + Math.max(1, unit.toNanos(timeout)));
+    }
+
+    /** Releases one grant of the given mode and admits the waiters that
+        become grantable.
+
+        @throws IllegalArgumentException If the mode is not held.
+     */
+    void unlock(Mode mode)
+    {
+        List<Waiter>    admitted;
+
+        synchronized(this)
+        {
+            if(granted[mode.ordinal()] == 0)
+                throw new IllegalArgumentException("mode " + mode + " not held");
+
+            --granted[mode.ordinal()];
+            admitted = admit();
+        }
+
+        wake(admitted);
+    }
+
+    /** Returns <code>true</code> if the lock is granted in the given mode to
+        at least one request. */
+    synchronized boolean holds(Mode mode)
+    {
+        return granted[mode.ordinal()] > 0;
+    }
+
+    /** Acquires the lock, parking until the request is granted, the thread
+        is interrupted, or the deadline passes.
+
+        @param deadline Expiry time from <code>System.nanoTime</code>, or
+                        zero to wait indefinitely.
+     */
+    private boolean acquire(Mode mode, long deadline)
+        throws InterruptedException
+    {
+        Waiter  waiter;
+
+        synchronized(this)
+        {
+            if(queue.isEmpty() && grantable(mode))
+            {
+                ++granted[mode.ordinal()];
+                statistics.acquired(0, false);
+                return true;
+            }
+
+            waiter = new Waiter(mode);
+            queue.add(waiter);
+        }
+
+        long    start = System.nanoTime();
+        while(!waiter.granted)
+        {
+            if(deadline == 0)
+                LockSupport.park(this);
+            else
+            {
+                long    remaining = deadline - System.nanoTime();
+                if(remaining <= 0)
+                {
+                    if(abandon(waiter))
+                        break;
+                    statistics.timedOut();
+                    return false;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+
+            if(Thread.interrupted())
+            {
+                if(abandon(waiter))
+                    unlock(mode);
+                throw new InterruptedException();
+            }
+        }
+
+        statistics.acquired(System.nanoTime() - start, true);
+        return true;
+    }
+
+    /** Removes a waiter that gives up, unless it has been granted already.
+
+        @return <code>true</code> if the waiter was granted the lock before
+                it could be removed, and so holds it.
+     */
+    private boolean abandon(Waiter waiter)
+    {
+        List<Waiter>    admitted;
+
+        synchronized(this)
+        {
+            if(waiter.granted)
+                return true;
+
+            queue.remove(waiter);
+            // The waiter may have been blocking compatible requests behind
+            // it.
+            admitted = admit();
+        }
+
+        wake(admitted);
+        return false;
+    }
+
+    /** Grants the run of grantable waiters at the head of the queue. Called
+        with the monitor held.
+
+        @return The admitted waiters, which must be unparked.
+     */
+    private List<Waiter> admit()
+    {
+        List<Waiter>    admitted = Collections.emptyList();
+
+        while(!queue.isEmpty() && grantable(queue.peek().mode))
+        {
+            Waiter  next = queue.poll();
+            ++granted[next.mode.ordinal()];
+            next.granted = true;
+
+            if(admitted.isEmpty())
+                admitted = new ArrayList<>();
+            admitted.add(next);
+        }
+
+        return admitted;
+    }
+
+    private static void wake(List<Waiter> admitted)
+    {
+        for(Waiter waiter : admitted)
+            LockSupport.unpark(waiter.thread);
+    }
+
+    private boolean grantable(Mode mode)
+    {
+        for(Mode other : Mode.values())
+        {
+            if(granted[other.ordinal()] > 0 && !mode.compatible(other))
+                return false;
+        }
+
+        return true;
+    }
+
+    /** Queued request. */
+    private static final class Waiter
+    {
+        final Mode          mode;
+        final Thread        thread = Thread.currentThread();
+        /** Set, under the lock's monitor, when the request is granted. */
+        volatile boolean    granted = false;
+
+        Waiter(Mode mode)
+        {
+            this.mode = mode;
+        }
+    }
+}
@@ -7,7 +7,14 @@ import rmi.RMIException;
 /** Naming server registration interface.
 
     <p>
-    This interface is used once, on startup, by each storage server.
+    This interface is used once, on startup, by each storage server. A storage
+    server with few files may register them all in one call to
+    <code>register</code>. A storage server with many files should instead
+    stream them: it calls <code>beginRegistration</code>, then sends its files
+    in batches to <code>registerBatch</code>, deleting the duplicates returned
+    for each batch, and finally calls <code>endRegistration</code>. Each batch
+    is merged into the directory tree on its own, so other requests proceed
+    between batches, and neither side ever holds the whole file list.
  */
 public interface Registration
 {
@@ -52,4 +59,67 @@ public interface Registration
      */
     public Path[] register(Storage client_stub, Command command_stub,
                            Path[] files) throws RMIException;
+
+    /** Starts the registration of a storage server whose files are sent in
+        batches.
+
+        <p>
+        The storage server becomes known to the naming server, and each file
+        merged by <code>registerBatch</code> can be accessed through it as
+        soon as the batch has been merged. New files are not created on the
+        storage server until <code>endRegistration</code> is called.
+
+        @param client_stub Storage server client service stub.
+        @param command_stub Storage server command service stub. Identifies
+                            the storage server in the calls to
+                            <code>registerBatch</code> and
+                            <code>endRegistration</code> that follow.
+        @throws IllegalStateException If the storage server is already
+                                      registered.
+        @throws NullPointerException If either argument is <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public void beginRegistration(Storage client_stub, Command command_stub)
+        throws RMIException;
+
+    /** Merges a batch of the files hosted by a registering storage server
+        into the directory tree.
+
+        <p>
+        Files should be sent in the order of <code>Path.compareTo</code>,
+        which keeps the contents of each directory together, as produced by
+        walking the local directory tree with each directory listed in name
+        order. The naming server then merges a batch in a single pass,
+        visiting each directory once. Files sent out of order are merged
+        correctly, only more slowly.
+
+        @param command_stub Storage server command service stub, as given to
+                            <code>beginRegistration</code>.
+        @param files The next batch of files stored on the storage server.
+        @return The duplicate files from this batch, to delete on the local
+                storage of the registering storage server.
+        @throws IllegalStateException If the storage server is not
+                                      registering.
+        @throws NullPointerException If either argument is <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public Path[] registerBatch(Command command_stub, Path[] files)
+        throws RMIException;
+
+    /** Completes the registration of a storage server.
+
+        <p>
+        After this call, the storage server may be chosen to host new files.
+
+        @param command_stub Storage server command service stub, as given to
+                            <code>beginRegistration</code>.
+        @throws IllegalStateException If the storage server is not
+                                      registering.
+        @throws NullPointerException If the argument is <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public void endRegistration(Command command_stub) throws RMIException;
 }
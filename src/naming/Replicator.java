@@ -0,0 +1,291 @@
+package naming;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+import common.Path;
+import rmi.RMIException;
+import storage.*;
+
+/** Background replication of files between storage servers.
+
+    <p>
+    The naming server submits copies of files to the replicator and returns
+    at once; the copies are made by a pool of background threads. Each copy
+    is a task for its target storage server. A file already waiting or being
+    copied to a server is not submitted again. Each target server makes at
+    most a given number of copies at a time, and may be given a bandwidth:
+    copies to it then start no faster than the server can take their bytes
+    at that rate.
+
+    <p>
+    When a copy ends, successfully or not, the replicator reports it to the
+    naming server, which decides whether the new replica can be published.
+    The copy stays listed as pending until the report has been handled, so
+    the file is not submitted again in the meantime.
+ */
+final class Replicator
+{
+    /** Default number of copies a storage server makes at a time. Set with
+        the <code>naming.replicationConcurrency</code> system property. */
+    static final int    CONCURRENCY =
+        Integer.getInteger("naming.replicationConcurrency", 2);
+    /** Default bandwidth of each storage server for copies, in bytes per
+        second, or zero for no limit. Set with the
+        <code>naming.replicationBandwidth</code> system property. */
+    static final long   BANDWIDTH =
+        Long.getLong("naming.replicationBandwidth", 0);
+
+    /** Receives the outcome of each copy. */
+    interface Completion
+    {
+        /** Reports the end of a copy.
+
+            @param file The file copied.
+            @param target The storage server the file was copied to.
+            @param version The version given when the copy was submitted.
+            @param copied Whether the copy succeeded.
+         */
+        void copied(Path file, Command target, long version, boolean copied);
+    }
+
+    private final int                   concurrency;
+    private final long                  bandwidth;
+    private final Completion            completion;
+
+    /** Target servers, kept once they have been sent a copy so that their
+        bandwidth reservations last. Guarded by the replicator's monitor. */
+    private final Map<Command, Target>  targets = new HashMap<>();
+    private final ExecutorService       threads =
+        Executors.newCachedThreadPool(r ->
+        {
+            Thread  t = new Thread(r, "naming-replication");
+            t.setDaemon(true);
+            return t;
+        });
+    private long                        completed = 0;
+    private long                        failed = 0;
+    private boolean                     shutdown = false;
+
+    /** Creates a replicator.
+
+        @param concurrency Number of copies each target server makes at a
+                           time.
+        @param bandwidth Bandwidth of each target server for copies, in bytes
+                         per second, or zero for no limit.
+        @param completion Receives the outcome of each copy.
+     */
+    Replicator(int concurrency, long bandwidth, Completion completion)
+    {
+        if(concurrency < 1)
+            throw new IllegalArgumentException("concurrency must be positive");
+
+        this.concurrency = concurrency;
+        this.bandwidth = bandwidth;
+        this.completion = completion;
+    }
+
+    /** Submits a copy of a file.
+
+        @param file The file to copy.
+        @param target The storage server to copy the file to.
+        @param source The storage server to copy the file from.
+        @param version Version of the file, passed back on completion.
+        @return <code>false</code> if the same copy is already pending, or
+                the replicator has been shut down.
+     */
+    synchronized boolean submit(Path file, Command target, Storage source,
+                                long version)
+    {
+        if(shutdown)
+            return false;
+
+        Target  queue = targets.computeIfAbsent(target, Target::new);
+        if(!queue.pending.add(file))
+            return false;
+
+        queue.waiting.add(new Task(file, source, version));
+        dispatch(queue);
+        return true;
+    }
+
+    /** Returns the number of copies waiting or in progress. */
+    synchronized int pending()
+    {
+        int     count = 0;
+
+        for(Target target : targets.values())
+            count += target.pending.size();
+
+        return count;
+    }
+
+    /** Returns the number of copies that have succeeded. */
+    synchronized long completed()
+    {
+        return completed;
+    }
+
+    /** Returns the number of copies that have failed. */
+    synchronized long failed()
+    {
+        return failed;
+    }
+
+    /** Waits until no copies are pending.
+
+        @return <code>false</code> if copies are still pending after the
+                timeout.
+        @throws InterruptedException If the thread is interrupted while
+                                     waiting.
+     */
+    synchronized boolean awaitIdle(long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        long    deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        while(pending() > 0)
+        {
+            long    remaining = deadline - System.nanoTime();
+            if(remaining <= 0)
+                return false;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+
+        return true;
+    }
+
+    /** Stops the replicator. Waiting copies are dropped, and copies in
+        progress are interrupted. */
+    void shutdown()
+    {
+        synchronized(this)
+        {
+            shutdown = true;
+            targets.clear();
+            notifyAll();
+        }
+
+        threads.shutdownNow();
+    }
+
+    /** Starts as many waiting copies to a target as its limit allows. The
+        caller must hold the replicator's monitor. */
+    private void dispatch(Target target)
+    {
+        while(target.running < concurrency && !target.waiting.isEmpty())
+        {
+            Task    task = target.waiting.poll();
+            ++target.running;
+
+            try
+            {
+                threads.execute(() -> run(target, task));
+            }
+            catch(RejectedExecutionException e)
+            {
+                // The replicator is shutting down.
+                return;
+            }
+        }
+
+        if(target.running == 0 && target.waiting.isEmpty())
+            notifyAll();
+    }
+
+    /** Makes a copy and reports it. */
+    private void run(Target target, Task task)
+    {
+        boolean     copied = false;
+
+        try
+        {
+            pace(target, task);
+            copied = target.command.copy(task.file, task.source);
+        }
+        catch(InterruptedException e)
+        {
+            // The replicator is shutting down.
+        }
+        catch(RMIException | IOException e)
+        {
+            // Reported as a failed copy.
+        }
+
+        try
+        {
+            completion.copied(task.file, target.command, task.version, copied);
+        }
+        finally
+        {
+            synchronized(this)
+            {
+                if(copied)
+                    ++completed;
+                else
+                    ++failed;
+
+                --target.running;
+                target.pending.remove(task.file);
+                if(!shutdown)
+                    dispatch(target);
+            }
+        }
+    }
+
+    /** Waits until the target's bandwidth allows the copy to start, and
+        reserves the time the copy's bytes take at that bandwidth. */
+    private void pace(Target target, Task task)
+        throws InterruptedException, RMIException, IOException
+    {
+        if(bandwidth <= 0)
+            return;
+
+        long    size = task.source.size(task.file);
+        long    start;
+        synchronized(this)
+        {
+            start = Math.max(System.currentTimeMillis(), target.free);
+            target.free = start + size * 1000 / bandwidth;
+        }
+
+        long    delay = start - System.currentTimeMillis();
+        if(delay > 0)
+            Thread.sleep(delay);
+    }
+
+    /** Copy of a file to a target server. */
+    private static final class Task
+    {
+        final Path      file;
+        final Storage   source;
+        final long      version;
+
+        Task(Path file, Storage source, long version)
+        {
+            this.file = file;
+            this.source = source;
+            this.version = version;
+        }
+    }
+
+    /** Copies pending for one target server. Guarded by the replicator's
+        monitor. */
+    private static final class Target
+    {
+        final Command           command;
+        /** Files waiting or being copied. */
+        final Set<Path>         pending = new HashSet<>();
+        final Queue<Task>       waiting = new ArrayDeque<>();
+        /** Number of copies in progress. */
+        int                     running = 0;
+        /** Time at which the bandwidth reserved by earlier copies is free. */
+        long                    free = 0;
+
+        Target(Command command)
+        {
+            this.command = command;
+        }
+    }
+}
@@ -123,6 +123,96 @@ public interface Service
      */
     public void unlock(Path path, boolean exclusive) throws RMIException;
 
+    /** Locks several files or directories in one request.
+
+        <p>
+        The effect is that of locking each object with
+        <code>lock(Path, boolean)</code>, in increasing path order, but in a
+        single call: directories along the paths of several objects are
+        locked only once, and the naming server acquires every lock in the
+        same global order as all other lock requests, so the request cannot
+        deadlock with them. The same object may appear more than once; it is
+        then locked for exclusive access if any of its entries requests it.
+        Either every object is locked, or, if an exception is thrown, none
+        is.
+
+        @param paths The files or directories to be locked.
+        @param exclusive For each path, <code>true</code> if the object is to
+                         be locked for exclusive access, and
+                         <code>false</code> if it is to be locked for shared
+                         access.
+        @throws FileNotFoundException If any of the objects cannot be found.
+        @throws IllegalArgumentException If the two arrays differ in length.
+        @throws IllegalStateException If the naming server has shut down and
+                                      the lock attempt has been interrupted.
+        @throws NullPointerException If either array or any path is
+                                     <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public void lock(Path[] paths, boolean[] exclusive)
+        throws RMIException, FileNotFoundException;
+
+    /** Unlocks files or directories locked by
+        <code>lock(Path[], boolean[])</code>.
+
+        @param paths The paths given when the objects were locked.
+        @param exclusive The access modes given when the objects were
+                         locked.
+        @throws IllegalArgumentException If any of the objects cannot be
+                                         found, or if the objects are not
+                                         locked as the arguments describe.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public void unlock(Path[] paths, boolean[] exclusive) throws RMIException;
+
+    /** Obtains a lease on a file or directory.
+
+        <p>
+        A lease is a lock with a term: it is taken exactly as
+        <code>lock</code> would take it, and counts as a read or write
+        request in the same way, but it ends by itself unless renewed within
+        its term. While the lease is held, the client may perform any number
+        of operations on the object without further lock requests. When
+        another user requests a conflicting lock or lease, the lease is
+        recalled: <code>renew</code> then fails, and the holder should
+        release the lease as soon as it can.
+
+        @param path The file or directory to be leased.
+        @param exclusive If <code>true</code>, the lease grants exclusive
+                         access. Otherwise, it grants shared access.
+        @return The lease.
+        @throws FileNotFoundException If the object specified by
+                                      <code>path</code> cannot be found.
+        @throws IllegalStateException If the naming server has shut down and
+                                      the lease request has been interrupted.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public Lease lease(Path path, boolean exclusive)
+        throws RMIException, FileNotFoundException;
+
+    /** Extends a lease by one term from now.
+
+        @param lease The identifier of the lease.
+        @return <code>true</code> if the lease was renewed, or
+                <code>false</code> if it has ended, or has been recalled and
+                must be released.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public boolean renew(long lease) throws RMIException;
+
+    /** Ends a lease early, releasing its lock. Releasing a lease that has
+        already ended has no effect.
+
+        @param lease The identifier of the lease.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public void release(long lease) throws RMIException;
+
     /** Determines whether a path refers to a directory.
 
         <p>
@@ -158,6 +248,148 @@ public interface Service
     public String[] list(Path directory)
         throws RMIException, FileNotFoundException;
 
+    /** Returns the attributes of a file or directory.
+
+        <p>
+        The parent directory should be locked for shared access before this
+        operation is performed, as for <code>isDirectory</code>. The size of
+        a file is that of its contents when no client holds an exclusive
+        lock on it.
+
+        @param path The object to be described.
+        @return The object's attributes.
+        @throws FileNotFoundException If the object specified by
+                                      <code>path</code> cannot be found.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public FileStatus stat(Path path)
+        throws RMIException, FileNotFoundException;
+
+    /** Lists the contents of a directory together with the attributes of
+        each entry.
+
+        <p>
+        The directory should be locked for shared access before this
+        operation is performed. The result is the same as calling
+        <code>list</code> and then <code>stat</code> on each entry, but takes
+        a single call, and the naming server answers it mostly from its own
+        records: storage servers are only asked for sizes the naming server
+        does not already know.
+
+        @param directory The directory to be listed.
+        @return The attributes of the directory entries, in name order.
+        @throws FileNotFoundException If the given path does not refer to a
+                                      directory.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public FileStatus[] listStatus(Path directory)
+        throws RMIException, FileNotFoundException;
+
+    /** Lists one page of the contents of a directory.
+
+        <p>
+        Entries are listed in name order, which stays the same for as long
+        as the directory exists, so a client can page through a large
+        directory with bounded memory: it passes <code>null</code> for the
+        first page, and the last name of each page to obtain the next one,
+        until an empty page is returned. Entries added or removed while the
+        directory is paged through without a lock may or may not be listed;
+        every other entry is listed exactly once.
+
+        <p>
+        The directory should be locked for shared access during each call,
+        as for <code>list</code>.
+
+        @param directory The directory to be listed.
+        @param after Name after which the page starts, or <code>null</code>
+                     to start at the first entry. The name need not be that
+                     of an existing entry.
+        @param limit Largest number of entries to return. The naming server
+                     may return fewer, though an empty page is only
+                     returned at the end of the directory.
+        @return The names of the entries that follow <code>after</code>, in
+                name order.
+        @throws FileNotFoundException If the given path does not refer to a
+                                      directory.
+        @throws IllegalArgumentException If <code>limit</code> is not
+                                         positive.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public String[] list(Path directory, String after, int limit)
+        throws RMIException, FileNotFoundException;
+
+    /** Lists one page of the contents of a directory together with the
+        attributes of each entry.
+
+        <p>
+        Pages are formed as by <code>list(Path, String, int)</code>, and the
+        attributes are those returned by <code>listStatus(Path)</code>.
+
+        @param directory The directory to be listed.
+        @param after Name after which the page starts, or <code>null</code>
+                     to start at the first entry.
+        @param limit Largest number of entries to return.
+        @return The attributes of the entries that follow <code>after</code>,
+                in name order.
+        @throws FileNotFoundException If the given path does not refer to a
+                                      directory.
+        @throws IllegalArgumentException If <code>limit</code> is not
+                                         positive.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public FileStatus[] listStatus(Path directory, String after, int limit)
+        throws RMIException, FileNotFoundException;
+
+    /** Walks a subtree, returning one page of its objects in pre-order.
+
+        <p>
+        The subtree's root comes first, and each directory is followed by
+        its contents, entries in name order, each entry's own subtree before
+        the next entry. This is the order of <code>Path.compareTo</code>, so
+        a client walks a large subtree one page at a time by passing
+        <code>null</code> for the first page, and the path of the last
+        object of each page to obtain the next one, until an empty page is
+        returned. Each page is taken from the directory tree at a single
+        instant.
+
+        <p>
+        The subtree's root should be locked for shared access for the whole
+        walk. No object in the subtree can then change, and the pages
+        together form a consistent snapshot of the subtree.
+
+        @param root The root of the subtree to be walked: a file or a
+                    directory.
+        @param depth Depth below <code>root</code> at which the walk stops,
+                     or a negative number to walk the whole subtree. A depth
+                     of zero returns only <code>root</code>, and a depth of
+                     one its contents as well.
+        @param attributes If <code>true</code>, the objects' sizes and
+                          replicas are returned, as by <code>stat</code>.
+                          Otherwise only paths and types are returned, which
+                          spares the naming server the storage servers.
+        @param after Path after which the page starts, or <code>null</code>
+                     to start at <code>root</code>. The object at the path
+                     need not exist.
+        @param limit Largest number of objects to return. The naming server
+                     may return fewer, though an empty page is only returned
+                     at the end of the walk.
+        @return The objects of the subtree that follow <code>after</code>, in
+                pre-order.
+        @throws FileNotFoundException If <code>root</code> cannot be found.
+        @throws IllegalArgumentException If <code>after</code> is not in the
+                                         subtree, or <code>limit</code> is
+                                         not positive.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public FileStatus[] walk(Path root, int depth, boolean attributes,
+                             Path after, int limit)
+        throws RMIException, FileNotFoundException;
+
     /** Creates the given file, if it does not exist.
 
         <p>
@@ -220,6 +452,13 @@ public interface Service
         to perform calls to <code>write</code>, it should lock the file for
         exclusive access.
 
+        <p>
+        If the file is replicated on several storage servers, the naming
+        server picks the replica on the least loaded server, so that reads of
+        a popular file are spread over all its replicas. A file locked for
+        exclusive access has a single replica, so writers are always directed
+        to it.
+
         @param file Path to the file.
         @return A stub for communicating with the storage server.
         @throws FileNotFoundException If the file does not exist.
@@ -228,4 +467,23 @@ public interface Service
      */
     public Storage getStorage(Path file)
         throws RMIException, FileNotFoundException;
+
+    /** Returns stubs for every storage server hosting a replica of a file.
+
+        <p>
+        The file should be locked as for <code>getStorage</code>. All the
+        replicas returned hold the same contents for as long as the lock is
+        held, so a client may read from any of them, or move to another if
+        one fails.
+
+        @param file Path to the file.
+        @return Stubs for the storage servers hosting the file, the server
+                holding the primary copy first.
+        @throws FileNotFoundException If the file does not exist, or no
+                                      storage server hosts it.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public Storage[] getStorages(Path file)
+        throws RMIException, FileNotFoundException;
 }
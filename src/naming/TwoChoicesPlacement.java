@@ -0,0 +1,31 @@
+package naming;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+import common.*;
+
+/** Placement on the less loaded of two storage servers picked at random.
+    Ties go to the server with more free space. */
+final class TwoChoicesPlacement implements PlacementPolicy
+{
+    @Override
+    public Candidate place(Path file, List<Candidate> candidates)
+    {
+        int         count = candidates.size();
+        if(count == 1)
+            return candidates.get(0);
+
+        Random      random = ThreadLocalRandom.current();
+        int         first = random.nextInt(count);
+        int         second = random.nextInt(count - 1);
+        if(second >= first)
+            ++second;
+
+        Candidate   one = candidates.get(first);
+        Candidate   other = candidates.get(second);
+        if(one.load() != other.load())
+            return one.load() < other.load() ? one : other;
+        return one.freeSpace() >= other.freeSpace() ? one : other;
+    }
+}
@@ -0,0 +1,102 @@
+package rmi;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Invocation handler for the asynchronous views created by
+ * <code>Stub.createAsync</code>.
+ *
+ * <p>
+ * Each method of the asynchronous interface is mapped to the remote method
+ * with the same name and parameter types. Calling it sends the request on a
+ * shared connection and returns a <code>CompletableFuture</code> without
+ * waiting for the reply. The future is completed with the result or with the
+ * exception the synchronous stub would have thrown.
+ *
+ * <p>
+ * The target may also be a local object implementing the remote interface,
+ * in which case the method is simply run in the background. This lets callers
+ * treat local and remote servers alike.
+ */
+class AsyncInvocationHandler implements InvocationHandler {
+
+    /** Threads completing asynchronous calls, and running local ones. */
+    private static final ExecutorService calls = Executors.newCachedThreadPool(new java.util.concurrent.ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "rmi-async-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final Object target;
+    /** Handler of the target stub, or <code>null</code> if the target is a
+        local object. */
+    private final MyInvocationHandler remote;
+    /** Remote methods, by asynchronous method. */
+    private final Map<Method, Method> remoteMethods;
+
+    AsyncInvocationHandler(Object target, Map<Method, Method> remoteMethods) {
+        this.target = target;
+        this.remoteMethods = remoteMethods;
+        if (Proxy.isProxyClass(target.getClass())
+                && Proxy.getInvocationHandler(target) instanceof MyInvocationHandler) {
+            this.remote = (MyInvocationHandler) Proxy.getInvocationHandler(target);
+        } else {
+            this.remote = null;
+        }
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+                case "equals":
+                    return args[0] != null && Proxy.isProxyClass(args[0].getClass())
+                            && Proxy.getInvocationHandler(args[0]) instanceof AsyncInvocationHandler
+                            && target.equals(((AsyncInvocationHandler) Proxy.getInvocationHandler(args[0])).target);
+                case "hashCode":
+                    return target.hashCode();
+                default:
+                    return "async view of " + target;
+            }
+        }
+
+        Method remoteMethod = remoteMethods.get(method);
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        if (remote != null) {
+            // Replies are completed on the connection's reader thread; hand
+            // them over so that callers' continuations never run there.
+            remote.invokeRemoteAsync(remoteMethod, args).whenCompleteAsync((value, failure) -> {
+                if (failure == null) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(failure);
+                }
+            }, calls);
+            return result;
+        }
+
+        calls.execute(() -> {
+            try {
+                result.complete(remoteMethod.invoke(target, args));
+            } catch (InvocationTargetException e) {
+                result.completeExceptionally(e.getCause());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,272 @@
+package rmi;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+
+import common.Path;
+
+/**
+ * Compact tagged binary codec.
+ *
+ * <p>
+ * Every value starts with a one-byte tag. Primitives follow in their
+ * <code>DataOutput</code> form. Strings, byte arrays and arrays of strings or
+ * paths are prefixed with their length. Every element takes at least one
+ * byte, so the reader checks each length against the rest of the frame
+ * before allocating anything for it. Paths are sent as their string form, and
+ * stubs as the name of their remote interface and the address of their
+ * skeleton.
+ *
+ * <p>
+ * Exceptions are sent as their class name and message when they can be
+ * recreated from those alone - when they have no cause and the class has a
+ * public constructor taking the message. Any other value, including other
+ * exceptions, is sent as a length-prefixed block of Java serialization.
+ */
+final class BinaryCodec extends Codec {
+
+    static final BinaryCodec INSTANCE = new BinaryCodec();
+
+    private static final byte NULL = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte BYTE = 2;
+    private static final byte SHORT = 3;
+    private static final byte CHAR = 4;
+    private static final byte INT = 5;
+    private static final byte LONG = 6;
+    private static final byte FLOAT = 7;
+    private static final byte DOUBLE = 8;
+    private static final byte STRING = 9;
+    private static final byte BYTES = 10;
+    private static final byte STRINGS = 11;
+    private static final byte PATH = 12;
+    private static final byte PATHS = 13;
+    private static final byte STUB = 14;
+    private static final byte EXCEPTION = 15;
+    private static final byte SERIALIZED = 16;
+
+    private BinaryCodec() {
+    }
+
+    @Override
+    byte id() {
+        return BINARY;
+    }
+
+    @Override
+    void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            out.writeByte(BYTES);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (value instanceof Path) {
+            out.writeByte(PATH);
+            writeString(out, value.toString());
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof String[]) {
+            String[] strings = (String[]) value;
+            out.writeByte(STRINGS);
+            out.writeInt(strings.length);
+            for (String s : strings) {
+                writeNullableString(out, s);
+            }
+        } else if (value instanceof Path[]) {
+            Path[] paths = (Path[]) value;
+            out.writeByte(PATHS);
+            out.writeInt(paths.length);
+            for (Path p : paths) {
+                writeNullableString(out, p == null ? null : p.toString());
+            }
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Character) {
+            out.writeByte(CHAR);
+            out.writeChar((Character) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (isStub(value)) {
+            MyInvocationHandler handler = (MyInvocationHandler) Proxy.getInvocationHandler(value);
+            out.writeByte(STUB);
+            writeString(out, remoteInterface(value).getName());
+            writeString(out, handler.host);
+            out.writeInt(handler.port);
+        } else if (value instanceof Throwable && isPortable((Throwable) value)) {
+            Throwable t = (Throwable) value;
+            out.writeByte(EXCEPTION);
+            writeString(out, t.getClass().getName());
+            writeNullableString(out, t.getMessage());
+        } else {
+            out.writeByte(SERIALIZED);
+            SerialCodec.INSTANCE.writeValue(out, value);
+        }
+    }
+
+    @Override
+    boolean writeBytesHeader(DataOutputStream out, int length) throws IOException {
+        out.writeByte(BYTES);
+        out.writeInt(length);
+        return true;
+    }
+
+    @Override
+    Object readValue(FrameInputStream in) throws IOException, ClassNotFoundException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case BOOLEAN:
+                return in.readBoolean();
+            case BYTE:
+                return in.readByte();
+            case SHORT:
+                return in.readShort();
+            case CHAR:
+                return in.readChar();
+            case INT:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case FLOAT:
+                return in.readFloat();
+            case DOUBLE:
+                return in.readDouble();
+            case STRING:
+                return readString(in);
+            case BYTES: {
+                byte[] bytes = new byte[in.readLength()];
+                in.readFully(bytes);
+                return bytes;
+            }
+            case STRINGS: {
+                String[] strings = new String[in.readLength()];
+                for (int i = 0; i < strings.length; i++) {
+                    strings[i] = readNullableString(in);
+                }
+                return strings;
+            }
+            case PATH:
+                return new Path(readString(in));
+            case PATHS: {
+                Path[] paths = new Path[in.readLength()];
+                for (int i = 0; i < paths.length; i++) {
+                    String s = readNullableString(in);
+                    paths[i] = s == null ? null : new Path(s);
+                }
+                return paths;
+            }
+            case STUB:
+                return readStub(in);
+            case EXCEPTION:
+                return readException(in);
+            case SERIALIZED:
+                return SerialCodec.INSTANCE.readValue(in);
+            default:
+                throw new IOException("unknown value tag " + tag);
+        }
+    }
+
+    /** Returns <code>true</code> if the value is a stub created by this
+        library. */
+    private static boolean isStub(Object value) {
+        return Proxy.isProxyClass(value.getClass())
+                && Proxy.getInvocationHandler(value) instanceof MyInvocationHandler;
+    }
+
+    /** Returns the remote interface implemented by a stub. */
+    private static Class<?> remoteInterface(Object stub) {
+        for (Class<?> c : stub.getClass().getInterfaces()) {
+            if (c != Serializable.class) {
+                return c;
+            }
+        }
+        throw new IllegalArgumentException("stub has no remote interface");
+    }
+
+    private static Object readStub(FrameInputStream in) throws IOException, ClassNotFoundException {
+        Class<?> c = Class.forName(readString(in), false, BinaryCodec.class.getClassLoader());
+        String host = readString(in);
+        int port = in.readInt();
+        if (!c.isInterface()) {
+            throw new IOException(c.getName() + " is not an interface");
+        }
+        return Proxy.newProxyInstance(c.getClassLoader(), new Class<?>[]{c, Serializable.class},
+                new MyInvocationHandler(port, host));
+    }
+
+    /** Returns <code>true</code> if the exception can be recreated from its
+        class name and message. */
+    private static boolean isPortable(Throwable t) {
+        if (t.getCause() != null) {
+            return false;
+        }
+        try {
+            t.getClass().getConstructor(String.class);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static Throwable readException(FrameInputStream in) throws IOException, ClassNotFoundException {
+        Class<?> c = Class.forName(readString(in), false, BinaryCodec.class.getClassLoader());
+        String message = readNullableString(in);
+        if (!Throwable.class.isAssignableFrom(c)) {
+            throw new IOException(c.getName() + " is not an exception");
+        }
+        try {
+            Constructor<?> constructor = c.getConstructor(String.class);
+            return (Throwable) constructor.newInstance(message);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("unable to recreate " + c.getName(), e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(FrameInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readLength()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeNullableString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            writeString(out, s);
+        }
+    }
+
+    private static String readNullableString(FrameInputStream in) throws IOException {
+        return in.readBoolean() ? readString(in) : null;
+    }
+}
@@ -0,0 +1,283 @@
+package rmi;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+/**
+ * Server side of a non-blocking connection served by a
+ * <code>SelectorLoop</code>.
+ *
+ * <p>
+ * Incoming bytes are accumulated until a complete handshake or request frame
+ * is available. Complete frames are decoded on the loop's thread and run on
+ * the skeleton's executor, so calls pipelined by the stub run concurrently.
+ * Workers encode their replies and queue them on the connection as they
+ * finish; the loop writes queued replies whenever the channel can accept more
+ * data.
+ *
+ * <p>
+ * Reading and writing happen only on the loop's thread. The reply queue and
+ * the in-flight count are shared with worker threads and guarded by the
+ * queue's monitor.
+ */
+class ChannelConnection {
+
+    /** Initial size of the input buffer, in bytes. */
+    private static final int INITIAL_BUFFER = 8192;
+    /** Largest input buffer kept once the frame it was grown for has been
+        consumed, in bytes. */
+    private static final int RETAINED_BUFFER = 64 * 1024;
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final SelectorLoop loop;
+    private final Skeleton<?> skel;
+
+    /** Input buffer, in write mode between reads. */
+    private ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER);
+    /** Codec agreed in the handshake, or <code>null</code> before it. */
+    private Codec codec = null;
+    /** Encoded replies waiting to be written: buffers, each possibly followed
+        by the file region ending its frame. */
+    private final ArrayDeque<Object> replies = new ArrayDeque<>();
+    /** Number of calls accepted but not yet answered. */
+    private int inFlight = 0;
+    /** Time of the last read or write, in milliseconds. */
+    private long lastActive = System.currentTimeMillis();
+    /** Whether the connection has been closed. Guarded by the queue's
+        monitor, so that no reply is queued after the queue is cleared. */
+    private boolean closed = false;
+
+    ChannelConnection(SocketChannel channel, SelectionKey key, SelectorLoop loop, Skeleton<?> skel) {
+        this.channel = channel;
+        this.key = key;
+        this.loop = loop;
+        this.skel = skel;
+    }
+
+    /** Reads available bytes and processes every complete frame. */
+    void onReadable() throws IOException {
+        if (channel.read(in) < 0) {
+            close();
+            return;
+        }
+        lastActive = System.currentTimeMillis();
+
+        in.flip();
+        try {
+            while (codec == null ? handshake() : request()) {
+                // Keep consuming complete frames.
+            }
+        } finally {
+            in.compact();
+            shrink();
+        }
+    }
+
+    /** Replaces an input buffer grown for a large frame with one of the
+        initial size once that frame has been consumed, so that idle
+        connections do not pin large buffers. The buffer is in write mode. */
+    private void shrink() {
+        if (in.capacity() <= RETAINED_BUFFER) {
+            return;
+        }
+        int held = in.position();
+        if (held > INITIAL_BUFFER
+                || (held >= Integer.BYTES && Integer.BYTES + in.getInt(0) > INITIAL_BUFFER)) {
+            // Part of a large frame is still waiting for the rest of it.
+            return;
+        }
+        ByteBuffer smaller = ByteBuffer.allocate(INITIAL_BUFFER);
+        in.flip();
+        smaller.put(in);
+        in = smaller;
+    }
+
+    /**
+     * Processes the handshake if it has arrived completely.
+     *
+     * @return <code>true</code> if the handshake was processed.
+     */
+    private boolean handshake() throws IOException {
+        if (in.remaining() < Integer.BYTES + 1) {
+            return false;
+        }
+        int start = in.position();
+        int count = in.get(start + Integer.BYTES) & 0xff;
+        if (in.remaining() < Integer.BYTES + 1 + count) {
+            return false;
+        }
+        if (in.getInt() != Protocol.MAGIC) {
+            throw new IOException("bad handshake from stub");
+        }
+        in.get();
+        byte[] offered = new byte[count];
+        in.get(offered);
+
+        codec = Protocol.choose(offered);
+        FrameBuffer answer = new FrameBuffer();
+        Protocol.writeAccept(answer.begin(), codec);
+        queue(ByteBuffer.wrap(answer.toByteArray()), null);
+        return true;
+    }
+
+    /**
+     * Decodes and dispatches one request frame if it has arrived completely.
+     *
+     * @return <code>true</code> if a frame was processed.
+     */
+    private boolean request() throws IOException {
+        if (in.remaining() < Integer.BYTES) {
+            return false;
+        }
+        // An oversized frame closes the connection before its buffer is
+        // allocated.
+        int length = Protocol.checkFrameLength(in.getInt(in.position()));
+        if (in.remaining() < Integer.BYTES + length) {
+            ensureCapacity(Integer.BYTES + length);
+            return false;
+        }
+
+        int start = in.position() + Integer.BYTES;
+        FrameInputStream payload = new FrameInputStream(
+                new ByteArrayInputStream(in.array(), in.arrayOffset() + start, length), length);
+        in.position(start + length);
+
+        ServiceThread.Call call = new ServiceThread.Call(payload.readInt(), payload.readInt(),
+                System.nanoTime(), Integer.BYTES + length);
+        Object[] args;
+        try {
+            args = codec.readArguments(payload);
+        } catch (ClassNotFoundException e) {
+            // Only this call fails: the buffer is already past its frame.
+            synchronized (replies) {
+                inFlight++;
+            }
+            reply(codec, call, Protocol.undecodable(e));
+            return true;
+        }
+        dispatch(call, args);
+        return true;
+    }
+
+    /** Grows the input buffer, which is in read mode, so that it can hold a
+        frame of the given total size. */
+    private void ensureCapacity(int frameSize) {
+        if (in.capacity() >= frameSize) {
+            return;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(frameSize);
+        larger.put(in);
+        larger.flip();
+        in = larger;
+    }
+
+    /** Runs a call on the skeleton's executor and queues its reply. */
+    private void dispatch(ServiceThread.Call call, Object[] args) {
+        synchronized (replies) {
+            inFlight++;
+        }
+        Codec codec = this.codec;
+        boolean accepted = skel.getExecutor().execute(
+                () -> reply(codec, call, skel.serve(call.methodId, args)));
+        if (!accepted) {
+            reply(codec, call, Protocol.rejected());
+        }
+    }
+
+    /** Encodes a reply and queues it for writing. Called by worker threads. */
+    private void reply(Codec codec, ServiceThread.Call call, Object reply) {
+        FrameBuffer frame = new FrameBuffer();
+        try {
+            Protocol.encodeReply(frame, codec, call.requestId, reply);
+        } catch (IOException e) {
+            loop.execute(this::close);
+            return;
+        } finally {
+            synchronized (replies) {
+                inFlight--;
+            }
+        }
+        ByteBuffer bytes = frame.toFrame();
+        FileRegion region = frame.takeRegion();
+        call.finished(skel, bytes.remaining() + (region == null ? 0 : region.length()), reply);
+        queue(bytes, region);
+    }
+
+    /** Queues bytes, and optionally a region to follow them, for writing and
+        arranges for the loop to write them. If the connection has been
+        closed, the region is closed instead. */
+    private void queue(ByteBuffer bytes, FileRegion region) {
+        synchronized (replies) {
+            if (closed) {
+                if (region != null) {
+                    region.close();
+                }
+                return;
+            }
+            replies.add(bytes);
+            if (region != null) {
+                replies.add(region);
+            }
+        }
+        loop.execute(() -> {
+            if (key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        });
+    }
+
+    /** Writes queued replies until they are exhausted or the channel is
+        full. */
+    void onWritable() throws IOException {
+        synchronized (replies) {
+            while (!replies.isEmpty()) {
+                Object next = replies.peek();
+                if (next instanceof FileRegion) {
+                    if (!((FileRegion) next).transferTo(channel)) {
+                        return;
+                    }
+                } else {
+                    ByteBuffer bytes = (ByteBuffer) next;
+                    channel.write(bytes);
+                    if (bytes.hasRemaining()) {
+                        return;
+                    }
+                }
+                replies.poll();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+        lastActive = System.currentTimeMillis();
+    }
+
+    /** Returns how long the connection has been idle, or zero if calls are
+        in progress or replies are waiting to be written. */
+    long idleSince(long now) {
+        synchronized (replies) {
+            if (inFlight > 0 || !replies.isEmpty()) {
+                return 0;
+            }
+        }
+        return now - lastActive;
+    }
+
+    /** Closes the connection. */
+    void close() {
+        key.cancel();
+        skel.closeConnection(channel.socket());
+        synchronized (replies) {
+            closed = true;
+            for (Object pending : replies) {
+                if (pending instanceof FileRegion) {
+                    ((FileRegion) pending).close();
+                }
+            }
+            replies.clear();
+        }
+    }
+}
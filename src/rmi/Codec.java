@@ -0,0 +1,92 @@
+package rmi;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Encoding of call arguments and results on the wire.
+ *
+ * <p>
+ * Two codecs exist. The binary codec writes the types used by the filesystem
+ * interfaces in a compact tagged form and falls back to Java serialization
+ * for any other value. The serial codec uses Java serialization for every
+ * value. Which codec a connection uses is agreed during the handshake
+ * performed by <code>Protocol</code>.
+ */
+abstract class Codec {
+
+    /** Wire ID of the binary codec. */
+    static final byte BINARY = 1;
+    /** Wire ID of the serial codec. */
+    static final byte SERIAL = 2;
+
+    /** Returns the wire ID of this codec. */
+    abstract byte id();
+
+    /**
+     * Writes a single value.
+     *
+     * @throws IOException If the value cannot be written or encoded.
+     */
+    abstract void writeValue(DataOutputStream out, Object value) throws IOException;
+
+    /**
+     * Reads a single value written by <code>writeValue</code>.
+     *
+     * @throws IOException If the value cannot be read or decoded, or if a
+     * length read from it exceeds the rest of the frame.
+     * @throws ClassNotFoundException If a class named by the value is not
+     * available locally.
+     */
+    abstract Object readValue(FrameInputStream in) throws IOException, ClassNotFoundException;
+
+    /**
+     * Writes the start of a byte array value whose contents will follow
+     * directly on the connection, outside of this codec.
+     *
+     * @return <code>true</code> if the header was written, or
+     * <code>false</code> if the codec cannot represent raw contents, in which
+     * case nothing is written and the array must be passed to
+     * <code>writeValue</code>.
+     */
+    boolean writeBytesHeader(DataOutputStream out, int length) throws IOException {
+        return false;
+    }
+
+    /** Writes the arguments of a call, preceded by their count. */
+    void writeArguments(DataOutputStream out, Object[] args) throws IOException {
+        if (args == null) {
+            out.writeInt(0);
+            return;
+        }
+        out.writeInt(args.length);
+        for (Object arg : args) {
+            writeValue(out, arg);
+        }
+    }
+
+    /** Reads the arguments of a call written by <code>writeArguments</code>. */
+    Object[] readArguments(FrameInputStream in) throws IOException, ClassNotFoundException {
+        // Every argument takes at least one byte, so the count is bounded by
+        // the frame like any other length.
+        int count = in.readLength();
+        Object[] args = new Object[count];
+        for (int i = 0; i < count; i++) {
+            args[i] = readValue(in);
+        }
+        return args;
+    }
+
+    /** Returns the codec with the given wire ID, or <code>null</code> if the
+        ID is unknown. */
+    static Codec forId(byte id) {
+        switch (id) {
+            case BINARY:
+                return BinaryCodec.INSTANCE;
+            case SERIAL:
+                return SerialCodec.INSTANCE;
+            default:
+                return null;
+        }
+    }
+}
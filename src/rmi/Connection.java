@@ -0,0 +1,327 @@
+package rmi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client side of a persistent connection to a skeleton.
+ *
+ * <p>
+ * A connection carries any number of calls, several at a time. The codec is
+ * negotiated once, when the connection is opened. Each call is then a request
+ * frame, carrying a request ID, the method ID and the arguments, answered by
+ * a reply frame carrying the same request ID, a status byte and the result or
+ * exception. Replies may arrive in any order; a reader thread owned by the
+ * connection matches each one to the pending call with its request ID.
+ *
+ * <p>
+ * Connections are thread-safe. Requests are written whole under the output
+ * stream's monitor, so frames from different callers never interleave.
+ *
+ * <p>
+ * A call may carry a deadline. If its reply has not arrived when the deadline
+ * expires, the call fails with a <code>TimeoutException</code> and a late
+ * reply is discarded; the connection stays open. Separately, if
+ * <code>READ_TIMEOUT</code> is set and calls are pending but nothing is
+ * received for that long, the skeleton is presumed hung and the connection
+ * is closed.
+ */
+class Connection {
+
+    /** Time allowed for opening a connection, in milliseconds, or zero to
+        use the system default. Set with the <code>rmi.connectTimeout</code>
+        system property. */
+    static final int CONNECT_TIMEOUT = Integer.getInteger("rmi.connectTimeout", 10000);
+    /** Time without any data received, while calls are pending, after which
+        the connection is closed, in milliseconds, or zero for no limit. Set
+        with the <code>rmi.readTimeout</code> system property. The default is
+        no limit, because calls such as a naming server <code>lock</code> may
+        legitimately block for a long time. */
+    static final int READ_TIMEOUT = Integer.getInteger("rmi.readTimeout", 0);
+
+    /** Timer failing calls whose deadlines expire. */
+    private static final ScheduledThreadPoolExecutor deadlines = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "rmi-deadlines");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        deadlines.setRemoveOnCancelPolicy(true);
+    }
+
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+    private final Codec codec;
+    /** Buffer for encoding requests, guarded by <code>out</code>. */
+    private final FrameBuffer frame = new FrameBuffer();
+    /** Calls waiting for their replies, by request ID. */
+    private final ConcurrentHashMap<Integer, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private volatile long lastUsed;
+    private volatile boolean closed = false;
+
+    /**
+     * Opens a connection to the skeleton at the given address and starts its
+     * reader thread.
+     *
+     * @param connectTimeout Time allowed for connecting and for the
+     * handshake, in milliseconds, or zero for no limit.
+     * @throws IOException If the socket cannot be connected or the handshake
+     * fails.
+     */
+    Connection(String host, int port, int connectTimeout) throws IOException {
+        socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), connectTimeout);
+            socket.setSoTimeout(connectTimeout);
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            codec = Protocol.offer(out, in);
+            socket.setSoTimeout(READ_TIMEOUT);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        lastUsed = System.currentTimeMillis();
+
+        Thread reader = new Thread(this::readReplies, "rmi-reader-" + host + ":" + port);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Sends a call request without waiting for the reply.
+     *
+     * @param methodId The wire ID of the method, as computed by
+     * <code>MethodTable</code>.
+     * @param args The call arguments.
+     * @param metrics Client-side metrics of the method, updated when the call
+     * completes.
+     * @param expiry Time at which the call's deadline expires, from
+     * <code>System.nanoTime</code>, or zero if it has none.
+     * @return A future completed with the method's result, or an
+     * <code>InvocationTargetException</code> wrapping the exception it raised.
+     * If the connection fails before the reply arrives, the future completes
+     * exceptionally with the <code>IOException</code> and the connection is
+     * closed. The exception is a <code>NotSentException</code> if the
+     * connection failed before the whole request was written, so that the
+     * skeleton cannot have run the call. If the deadline expires first, the
+     * future completes exceptionally with a <code>TimeoutException</code>.
+     * @throws IOException If the arguments cannot be encoded, or the request
+     * would exceed <code>Protocol.MAX_FRAME</code>. Nothing is sent and the
+     * connection remains usable.
+     */
+    CompletableFuture<Object> send(int methodId, Object[] args, MethodMetrics metrics, long expiry)
+            throws IOException {
+        Pending call = new Pending(metrics);
+        int requestId = nextRequestId.getAndIncrement();
+        pending.put(requestId, call);
+        if (closed) {
+            pending.remove(requestId);
+            call.fail(new NotSentException("connection closed", null));
+            return call.reply;
+        }
+        if (expiry != 0) {
+            long remaining = expiry - System.nanoTime();
+            if (remaining <= 0) {
+                pending.remove(requestId);
+                call.fail(new TimeoutException("deadline expired before sending"));
+                return call.reply;
+            }
+            call.timer = deadlines.schedule(() -> {
+                if (pending.remove(requestId, call)) {
+                    call.fail(new TimeoutException("deadline expired"));
+                }
+            }, remaining, TimeUnit.NANOSECONDS);
+        }
+
+        synchronized (out) {
+            try {
+                DataOutputStream payload = frame.begin();
+                payload.writeInt(requestId);
+                payload.writeInt(methodId);
+                codec.writeArguments(payload, args);
+            } catch (IOException e) {
+                pending.remove(requestId);
+                throw e;
+            }
+            int length = frame.length();
+            if (length > Protocol.MAX_FRAME) {
+                pending.remove(requestId);
+                frame.begin();
+                throw new IOException("request of " + length + " bytes exceeds the maximum frame size");
+            }
+            call.bytesOut = Integer.BYTES + frame.size();
+            try {
+                frame.send(out);
+            } catch (IOException e) {
+                // The skeleton reads whole frames only, so it cannot have
+                // received this one.
+                if (pending.remove(requestId, call)) {
+                    call.fail(new NotSentException("request not sent", e));
+                }
+                close(e);
+            }
+        }
+        return call.reply;
+    }
+
+    /** Reads replies and completes the matching calls until the connection
+        fails or is closed. */
+    private void readReplies() {
+        try {
+            while (true) {
+                int length;
+                try {
+                    length = Protocol.checkFrameLength(in.readInt());
+                } catch (EOFException e) {
+                    throw new IOException("connection closed by skeleton", e);
+                } catch (SocketTimeoutException e) {
+                    if (pending.isEmpty()) {
+                        continue;
+                    }
+                    throw new IOException("no reply within read timeout", e);
+                }
+                FrameInputStream payload = new FrameInputStream(in, length);
+                int requestId = payload.readInt();
+                byte status = payload.readByte();
+                Pending call = pending.remove(requestId);
+
+                Object value;
+                try {
+                    value = codec.readValue(payload);
+                } catch (ClassNotFoundException e) {
+                    // Only this call fails: skip the rest of its frame.
+                    payload.skipRest();
+                    if (call != null) {
+                        call.fail(e);
+                    }
+                    continue;
+                }
+                lastUsed = System.currentTimeMillis();
+
+                if (call == null) {
+                    continue;
+                }
+                call.bytesIn = Integer.BYTES + length;
+                if (status == Protocol.EXCEPTION) {
+                    if (value instanceof Throwable) {
+                        call.complete(new InvocationTargetException((Throwable) value), true);
+                    } else {
+                        call.fail(new IOException("malformed exception reply"));
+                    }
+                } else {
+                    call.complete(value, false);
+                }
+            }
+        } catch (IOException e) {
+            close(e);
+        }
+    }
+
+    /** Returns the number of calls sent on this connection and not yet
+        answered. */
+    int inFlight() {
+        return pending.size();
+    }
+
+    /** Returns <code>true</code> if the connection has been closed. */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /** Returns the time at which the last reply was received. */
+    long lastUsed() {
+        return lastUsed;
+    }
+
+    /** Closes the connection, ignoring errors. Pending calls fail with an
+        <code>IOException</code>. */
+    void close() {
+        close(new IOException("connection closed"));
+    }
+
+    private void close(IOException cause) {
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+
+        }
+        for (Integer requestId : pending.keySet()) {
+            Pending call = pending.remove(requestId);
+            if (call != null) {
+                call.fail(cause);
+            }
+        }
+    }
+
+    /** Failure of a call whose request was not sent whole. The skeleton has
+        not run the call, so it can be retried on another connection. */
+    static final class NotSentException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        NotSentException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /** A call waiting for its reply. */
+    private static final class Pending {
+        final CompletableFuture<Object> reply = new CompletableFuture<>();
+        final MethodMetrics metrics;
+        /** Time at which the call was created, from
+            <code>System.nanoTime</code>. */
+        final long start = System.nanoTime();
+        /** Deadline timer, or <code>null</code>. */
+        volatile ScheduledFuture<?> timer = null;
+        /** Sizes of the request and reply frames, including headers. Written
+            before the request is sent and before the reply is completed. */
+        volatile int bytesOut = 0;
+        int bytesIn = 0;
+
+        Pending(MethodMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        /** Completes the call with a reply from the skeleton. */
+        void complete(Object value, boolean error) {
+            cancelTimer();
+            metrics.record(System.nanoTime() - start, bytesIn, bytesOut, error);
+            reply.complete(value);
+        }
+
+        /** Fails the call without a reply. */
+        void fail(Throwable cause) {
+            cancelTimer();
+            metrics.record(System.nanoTime() - start, bytesIn, bytesOut, true);
+            reply.completeExceptionally(cause);
+        }
+
+        private void cancelTimer() {
+            ScheduledFuture<?> t = timer;
+            if (t != null) {
+                t.cancel(false);
+            }
+        }
+    }
+}
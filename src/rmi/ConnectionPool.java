@@ -0,0 +1,188 @@
+package rmi;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of persistent connections to one skeleton endpoint.
+ *
+ * <p>
+ * Stubs for the same host and port share a single pool. Connections carry
+ * several calls at once, so a pool normally needs only one connection. Each
+ * call is sent on the connection with the fewest calls in flight; a new
+ * connection is opened only when every existing one already has
+ * <code>MAX_IN_FLIGHT</code> calls in flight, and at most
+ * <code>MAX_CONNECTIONS</code> are opened this way. Connections still being
+ * opened count towards the limit, and callers finding the pool empty while a
+ * connection is being opened wait for it rather than open their own. Failed
+ * connections are dropped from the pool.
+ *
+ * <p>
+ * Connections without calls in flight are closed by a background reaper once
+ * they have not been used for <code>IDLE_TIMEOUT</code> milliseconds. The
+ * timeout is shorter than the skeleton's own idle timeout, so the client
+ * normally closes first and rarely finds that a pooled connection has been
+ * dropped by the server.
+ */
+class ConnectionPool {
+
+    /** Number of calls in flight on a connection above which another
+        connection is opened. */
+    static final int MAX_IN_FLIGHT = 16;
+    /** Maximum number of connections opened to spread calls. */
+    static final int MAX_CONNECTIONS = 8;
+    /** Time after which an unused connection is closed, in milliseconds. */
+    static final long IDLE_TIMEOUT = 30000;
+    /** Interval between runs of the idle connection reaper, in milliseconds. */
+    private static final long REAP_INTERVAL = 5000;
+
+    private static final ConcurrentHashMap<String, ConnectionPool> pools =
+            new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService reaper =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "rmi-connection-reaper");
+                t.setDaemon(true);
+                return t;
+            });
+
+    static {
+        reaper.scheduleWithFixedDelay(ConnectionPool::reapAll, REAP_INTERVAL,
+                REAP_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private final String host;
+    private final int port;
+    /** Open connections. */
+    private final ArrayList<Connection> connections = new ArrayList<>();
+    /** Number of connections being opened. Guarded by
+        <code>connections</code>. */
+    private int opening = 0;
+
+    private ConnectionPool(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /** Returns the shared pool for the given endpoint, creating it if
+        necessary. */
+    static ConnectionPool forEndpoint(String host, int port) {
+        return pools.computeIfAbsent(host + ":" + port,
+                key -> new ConnectionPool(host, port));
+    }
+
+    /**
+     * Returns the least loaded connection, or opens a new one if every
+     * connection is busy.
+     *
+     * @param expiry Time at which the caller's deadline expires, from
+     * <code>System.nanoTime</code>, or zero if it has none. A new connection
+     * must be opened within both this deadline and
+     * <code>Connection.CONNECT_TIMEOUT</code>.
+     * @throws IOException If a new connection cannot be opened in time, or the
+     * caller is interrupted while waiting for one.
+     */
+    Connection acquire(long expiry) throws IOException {
+        synchronized (connections) {
+            while (true) {
+                Connection best = null;
+                Iterator<Connection> it = connections.iterator();
+                while (it.hasNext()) {
+                    Connection connection = it.next();
+                    if (connection.isClosed()) {
+                        it.remove();
+                    } else if (best == null || connection.inFlight() < best.inFlight()) {
+                        best = connection;
+                    }
+                }
+                if (best != null && (best.inFlight() < MAX_IN_FLIGHT
+                        || connections.size() + opening >= MAX_CONNECTIONS)) {
+                    return best;
+                }
+                if (best != null || opening == 0) {
+                    break;
+                }
+                awaitOpening(expiry);
+            }
+            opening++;
+        }
+
+        try {
+            Connection connection = open(expiry);
+            synchronized (connections) {
+                connections.add(connection);
+            }
+            return connection;
+        } finally {
+            synchronized (connections) {
+                opening--;
+                connections.notifyAll();
+            }
+        }
+    }
+
+    /** Waits, with the monitor of <code>connections</code> held, until a
+        connection being opened is added to the pool or fails. */
+    private void awaitOpening(long expiry) throws IOException {
+        long wait = 0;
+        if (expiry != 0) {
+            long remaining = expiry - System.nanoTime();
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("deadline expired before connecting");
+            }
+            // Never round down to zero, which would wait without limit.
+            wait = Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining));
+        }
+        try {
+            connections.wait(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for a connection");
+        }
+    }
+
+    /** Opens a new connection within both the caller's deadline and
+        <code>Connection.CONNECT_TIMEOUT</code>. */
+    private Connection open(long expiry) throws IOException {
+        int timeout = Connection.CONNECT_TIMEOUT;
+        if (expiry != 0) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(expiry - System.nanoTime());
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("deadline expired before connecting");
+            }
+            timeout = timeout == 0 ? (int) Math.min(remaining, Integer.MAX_VALUE)
+                    : (int) Math.min(remaining, timeout);
+        }
+        return new Connection(host, port, timeout);
+    }
+
+    /** Closes every connection that has timed out. */
+    private void reap(long now) {
+        synchronized (connections) {
+            Iterator<Connection> it = connections.iterator();
+            while (it.hasNext()) {
+                Connection connection = it.next();
+                if (connection.isClosed()) {
+                    it.remove();
+                } else if (connection.inFlight() == 0
+                        && now - connection.lastUsed() >= IDLE_TIMEOUT) {
+                    it.remove();
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    private static void reapAll() {
+        long now = System.currentTimeMillis();
+        for (ConnectionPool pool : pools.values()) {
+            pool.reap(now);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package rmi;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadline applying to remote calls made by the current thread.
+ *
+ * <p>
+ * A deadline is installed with <code>after</code> and removed with
+ * <code>close</code>, normally in a <code>try</code>-with-resources
+ * statement:
+ *
+ * <pre>
+ * try (Deadline deadline = Deadline.after(200, TimeUnit.MILLISECONDS)) {
+ *     data = storage.read(file, offset, length);
+ * }
+ * </pre>
+ *
+ * <p>
+ * Every stub call made by the thread while the deadline is installed must
+ * complete before it expires, or the call fails with an
+ * <code>RMIException</code>. The deadline covers opening a connection,
+ * retries and waiting for the reply; the remote method itself is not
+ * interrupted, and its reply is discarded if it arrives late. Asynchronous
+ * calls started while the deadline is installed are bound by it too.
+ *
+ * <p>
+ * Deadlines nest: a deadline installed inside another never extends it. A
+ * stub may also carry its own timeout, set with <code>Stub.withTimeout</code>;
+ * the earlier of the two applies.
+ */
+public final class Deadline implements AutoCloseable {
+
+    /** Deadline installed for each thread, or <code>null</code>. */
+    private static final ThreadLocal<Deadline> current = new ThreadLocal<>();
+
+    /** Expiry time, from <code>System.nanoTime</code>. */
+    private final long expiry;
+    /** Deadline this one replaced, restored by <code>close</code>. */
+    private final Deadline enclosing;
+
+    private Deadline(long expiry, Deadline enclosing) {
+        this.expiry = expiry;
+        this.enclosing = enclosing;
+    }
+
+    /**
+     * Installs a deadline for the current thread.
+     *
+     * @param timeout Time from now at which the deadline expires.
+     * @param unit Unit of <code>timeout</code>.
+     * @return The deadline, which must be closed by the same thread.
+     * @throws IllegalArgumentException If <code>timeout</code> is negative.
+     */
+    public static Deadline after(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("negative timeout");
+        }
+
+        Deadline enclosing = current.get();
+        long expiry = System.nanoTime() + unit.toNanos(timeout);
+
+        if (enclosing != null && enclosing.expiry - expiry < 0) {
+            expiry = enclosing.expiry;
+        }
+
+        Deadline deadline = new Deadline(expiry, enclosing);
+        current.set(deadline);
+        return deadline;
+    }
+
+    /** Returns the time remaining before the deadline expires, in
+        nanoseconds. The result is zero or negative once it has expired. */
+    public long remainingNanos() {
+        return expiry - System.nanoTime();
+    }
+
+    /** Removes the deadline, restoring any deadline it was installed
+        within. */
+    @Override
+    public void close() {
+        if (enclosing == null) {
+            current.remove();
+        } else {
+            current.set(enclosing);
+        }
+    }
+
+    /**
+     * Returns the expiry time applying to a call made now by the current
+     * thread, from <code>System.nanoTime</code>, or zero if there is none.
+     *
+     * @param timeoutNanos Timeout of the stub making the call, or zero if it
+     * has none.
+     */
+    static long expiry(long timeoutNanos) {
+        Deadline deadline = current.get();
+
+        if (deadline == null && timeoutNanos <= 0) {
+            return 0;
+        }
+
+        long expiry;
+
+        if (timeoutNanos <= 0) {
+            expiry = deadline.expiry;
+        } else {
+            expiry = System.nanoTime() + timeoutNanos;
+            if (deadline != null && deadline.expiry - expiry < 0) {
+                expiry = deadline.expiry;
+            }
+        }
+
+        // Zero means no deadline; move an expiry that happens to be zero.
+        return expiry == 0 ? 1 : expiry;
+    }
+}
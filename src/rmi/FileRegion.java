@@ -0,0 +1,180 @@
+package rmi;
+
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Part of a file sent as the result of a remote call without being copied
+ * into memory.
+ *
+ * <p>
+ * A remote method returning <code>byte[]</code> may be answered from a file
+ * by giving the server class a public method with the same parameters that
+ * returns a <code>FileRegion</code> and is annotated with
+ * <code>@FileRegion.Answers</code> naming the remote method. The skeleton
+ * then calls that method instead, and sends the region's bytes directly from
+ * the file channel to the connection with <code>FileChannel.transferTo</code>.
+ * The stub receives an ordinary <code>byte[]</code>. For example, a server
+ * implementing <code>byte[] read(Path, long, int)</code> may also provide
+ * <code>@FileRegion.Answers("read") FileRegion readRegion(Path, long, int)</code>.
+ *
+ * <p>
+ * The region takes ownership of the channel, which is closed once the bytes
+ * have been sent or the reply is abandoned. The bytes are sent after the
+ * server method has returned, so the server must keep the file from being
+ * shortened until then; a region can be given an action to run when it is
+ * closed, for example to release a lock on the file. If the file is shortened
+ * anyway, the connection carrying the reply is closed, since the frame
+ * announcing the bytes has already been started.
+ */
+public final class FileRegion {
+
+    /**
+     * Marks a server method returning a <code>FileRegion</code> as the
+     * variant of a remote method returning <code>byte[]</code>.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    public @interface Answers {
+        /** Name of the remote method. Its parameters must be the same as
+            those of the annotated method. */
+        String value();
+    }
+
+    /** Channel from which the bytes are read. */
+    private final FileChannel channel;
+    /** Position of the next byte to send. */
+    private long position;
+    /** Position past the last byte to send. */
+    private final long end;
+    /** Number of bytes in the region. */
+    private final int length;
+    /** Action run when the region is closed, or <code>null</code>. */
+    private final Runnable onClose;
+    /** Whether the region has been closed. */
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Creates a region of a file.
+     *
+     * @param channel Open channel to the file. The region closes it when it
+     * is no longer needed.
+     * @param position Offset of the region in the file.
+     * @param length Number of bytes in the region.
+     * @throws NullPointerException If <code>channel</code> is
+     * <code>null</code>.
+     * @throws IndexOutOfBoundsException If <code>position</code> or
+     * <code>length</code> is negative.
+     */
+    public FileRegion(FileChannel channel, long position, int length) {
+        this(channel, position, length, null);
+    }
+
+    /**
+     * Creates a region of a file that runs an action once it is closed.
+     *
+     * @param channel Open channel to the file. The region closes it when it
+     * is no longer needed.
+     * @param position Offset of the region in the file.
+     * @param length Number of bytes in the region.
+     * @param onClose Action run exactly once, on whichever thread closes the
+     * region, after the channel is closed. May be <code>null</code>.
+     * @throws NullPointerException If <code>channel</code> is
+     * <code>null</code>.
+     * @throws IndexOutOfBoundsException If <code>position</code> or
+     * <code>length</code> is negative.
+     */
+    public FileRegion(FileChannel channel, long position, int length, Runnable onClose) {
+        if (channel == null) {
+            throw new NullPointerException();
+        }
+        if (position < 0 || length < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        this.channel = channel;
+        this.position = position;
+        this.end = position + length;
+        this.length = length;
+        this.onClose = onClose;
+    }
+
+    /** Returns the number of bytes in the region. */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Sends as many of the remaining bytes as the target accepts.
+     *
+     * <p>
+     * With a blocking target, this method returns only when every byte has
+     * been sent. The region is closed once the last byte is sent.
+     *
+     * @return <code>true</code> if every byte has been sent.
+     * @throws IOException If the file cannot be read, has become shorter than
+     * the region, or the target fails.
+     */
+    boolean transferTo(WritableByteChannel target) throws IOException {
+        while (position < end) {
+            long sent = channel.transferTo(position, end - position, target);
+            if (sent == 0) {
+                if (position >= channel.size()) {
+                    close();
+                    throw new IOException("file shortened while being sent");
+                }
+                return false;
+            }
+            position += sent;
+        }
+
+        close();
+        return true;
+    }
+
+    /**
+     * Reads the remaining bytes into an array and closes the region. This is
+     * used when the region is needed locally, or when the connection's codec
+     * cannot send raw bytes.
+     *
+     * @throws IOException If the file cannot be read or is shorter than the
+     * region.
+     */
+    public byte[] toByteArray() throws IOException {
+        try {
+            ByteBuffer bytes = ByteBuffer.allocate((int) (end - position));
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes, position + bytes.position()) < 0) {
+                    throw new IOException("file shortened while being sent");
+                }
+            }
+            return bytes.array();
+        } finally {
+            close();
+        }
+    }
+
+    /** Closes the channel, ignoring errors, and runs the close action the
+        first time. */
+    void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing more can be done with the channel.
+        } finally {
+            if (onClose != null) {
+                onClose.run();
+            }
+        }
+    }
+}
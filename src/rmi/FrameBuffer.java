@@ -0,0 +1,121 @@
+package rmi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Reusable buffer in which an outgoing frame is assembled.
+ *
+ * <p>
+ * Every request and reply travels as a frame: its length as an
+ * <code>int</code>, followed by that many bytes of payload. The payload is
+ * encoded into this buffer first so that its length is known, then written to
+ * the connection in one piece. The buffer is kept between frames; if a large
+ * frame makes it grow past <code>RETAINED_CAPACITY</code>, it is released
+ * after sending so that idle connections do not pin large arrays.
+ *
+ * <p>
+ * A frame may end with a <code>FileRegion</code>. Its bytes count towards the
+ * frame length but are not copied into the buffer; they are sent from the
+ * file after the buffered payload.
+ */
+class FrameBuffer extends ByteArrayOutputStream {
+
+    /** Largest buffer kept between frames, in bytes. */
+    private static final int RETAINED_CAPACITY = 64 * 1024;
+    /** Initial buffer size, in bytes. */
+    private static final int INITIAL_CAPACITY = 512;
+
+    private final DataOutputStream data = new DataOutputStream(this);
+    /** Region sent after the buffered payload, or <code>null</code>. */
+    private FileRegion region = null;
+
+    FrameBuffer() {
+        super(INITIAL_CAPACITY);
+    }
+
+    /** Clears the buffer and returns a stream for writing the payload. */
+    DataOutputStream begin() {
+        reset();
+        if (region != null) {
+            region.close();
+            region = null;
+        }
+        return data;
+    }
+
+    /** Ends the frame with the bytes of a file region. Nothing may be written
+        to the payload afterwards. */
+    void attach(FileRegion region) {
+        this.region = region;
+    }
+
+    /** Returns the total length of the frame, excluding the header. */
+    int length() {
+        return count + (region == null ? 0 : region.length());
+    }
+
+    /**
+     * Writes the frame header and payload to the given stream and flushes it.
+     *
+     * @return The total number of bytes written, including the header.
+     */
+    int send(DataOutputStream out) throws IOException {
+        return send(out, null);
+    }
+
+    /**
+     * Writes the frame header and payload to the given stream and flushes it,
+     * then sends any attached region. The region is closed even if sending
+     * fails.
+     *
+     * @param channel Blocking channel underlying <code>out</code>, to which the
+     * region is transferred directly. If <code>null</code>, the region is
+     * copied through <code>out</code>.
+     * @return The total number of bytes written, including the header.
+     */
+    int send(DataOutputStream out, WritableByteChannel channel) throws IOException {
+        int length = length();
+        FileRegion sent = region;
+        region = null;
+        try {
+            out.writeInt(length);
+            writeTo(out);
+            out.flush();
+            if (sent != null) {
+                sent.transferTo(channel != null ? channel : Channels.newChannel(out));
+                out.flush();
+            }
+        } finally {
+            if (sent != null) {
+                sent.close();
+            }
+        }
+        if (buf.length > RETAINED_CAPACITY) {
+            buf = new byte[INITIAL_CAPACITY];
+        }
+        reset();
+        return length + Integer.BYTES;
+    }
+
+    /** Returns the frame header and buffered payload as a buffer ready for
+        writing to a channel. Any attached region must be sent after it; see
+        <code>takeRegion</code>. */
+    ByteBuffer toFrame() {
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + count);
+        frame.putInt(length()).put(buf, 0, count).flip();
+        return frame;
+    }
+
+    /** Detaches and returns the region ending the frame, or returns
+        <code>null</code> if there is none. */
+    FileRegion takeRegion() {
+        FileRegion taken = region;
+        region = null;
+        return taken;
+    }
+}
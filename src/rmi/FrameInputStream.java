@@ -0,0 +1,123 @@
+package rmi;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream over the payload of one incoming frame.
+ *
+ * <p>
+ * Reads never go past the end of the frame. Codecs check every length they
+ * decode against the bytes left in the frame before allocating anything for
+ * it, so a corrupt or hostile length fails the frame instead of exhausting
+ * memory. A frame that cannot be decoded can also be skipped, leaving the
+ * connection positioned at the next frame.
+ */
+final class FrameInputStream extends DataInputStream {
+
+    private final Limit limit;
+
+    /**
+     * Creates a stream over the next <code>length</code> bytes of
+     * <code>in</code>.
+     */
+    FrameInputStream(InputStream in, int length) {
+        this(new Limit(in, length));
+    }
+
+    private FrameInputStream(Limit limit) {
+        super(limit);
+        this.limit = limit;
+    }
+
+    /** Returns the number of bytes left in the frame. */
+    int remaining() {
+        return limit.remaining;
+    }
+
+    /**
+     * Reads a length that prefixes at least as many bytes of the frame.
+     *
+     * @throws IOException If the length is negative or greater than the
+     * number of bytes left in the frame.
+     */
+    int readLength() throws IOException {
+        int length = readInt();
+        if (length < 0) {
+            throw new IOException("negative length");
+        }
+        if (length > remaining()) {
+            throw new IOException("length " + length + " exceeds the " + remaining()
+                    + " bytes left in the frame");
+        }
+        return length;
+    }
+
+    /**
+     * Skips the rest of the frame.
+     *
+     * @throws EOFException If the connection ends before the frame does.
+     */
+    void skipRest() throws IOException {
+        while (remaining() > 0) {
+            if (skipBytes(remaining()) == 0 && read() < 0) {
+                throw new EOFException("connection closed within a frame");
+            }
+        }
+    }
+
+    /** Stream that ends after a fixed number of bytes. */
+    private static final class Limit extends FilterInputStream {
+
+        private int remaining;
+
+        Limit(InputStream in, int length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int n = super.read(b, off, Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= (int) skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package rmi;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Policy for hedging idempotent calls across two skeletons.
+ *
+ * <p>
+ * A hedged stub, created with <code>Stub.createHedged</code>, sends each call
+ * of an idempotent method to its primary skeleton first. If no reply has
+ * arrived once the call has taken longer than the given percentile of the
+ * method's recent client-side latency, the same call is also sent to the
+ * backup skeleton, and whichever reply arrives first is used. This trims the
+ * latency tail when one server is slow, at the cost of a few duplicate calls
+ * - about <code>100 - percentile</code> percent of them.
+ *
+ * <p>
+ * Until <code>MIN_SAMPLES</code> latencies have been recorded for a method,
+ * the minimum delay is used instead of the percentile. Methods that are not
+ * listed as idempotent are only ever sent to the primary.
+ *
+ * <p>
+ * Policies are immutable, apart from the count of hedged calls, and may be
+ * shared between stubs.
+ */
+public final class HedgePolicy {
+
+    /** Number of latencies needed before the percentile is trusted. */
+    public static final long MIN_SAMPLES = 100;
+
+    /** Latency percentile after which a call is hedged. */
+    private final double percentile;
+    /** Smallest delay before hedging, in nanoseconds. */
+    private final long minimumDelay;
+    /** Names of the methods that may be hedged. */
+    private final Set<String> idempotent;
+    /** Number of calls for which a hedge was sent. */
+    private final LongAdder hedges;
+
+    private HedgePolicy(double percentile, long minimumDelay, Set<String> idempotent, LongAdder hedges) {
+        this.percentile = percentile;
+        this.minimumDelay = minimumDelay;
+        this.idempotent = idempotent;
+        this.hedges = hedges;
+    }
+
+    /**
+     * Creates a policy hedging calls slower than the given percentile.
+     *
+     * <p>
+     * The policy has no idempotent methods and a minimum delay of ten
+     * milliseconds.
+     *
+     * @param percentile Latency percentile, strictly between <code>0</code>
+     * and <code>100</code>.
+     * @throws IllegalArgumentException If <code>percentile</code> is out of
+     * range.
+     */
+    public static HedgePolicy percentile(double percentile) {
+        if (!(percentile > 0 && percentile < 100)) {
+            throw new IllegalArgumentException("percentile out of range");
+        }
+
+        return new HedgePolicy(percentile, TimeUnit.MILLISECONDS.toNanos(10),
+                Collections.<String>emptySet(), new LongAdder());
+    }
+
+    /**
+     * Returns a policy that also hedges the given methods.
+     *
+     * @param methodNames Names of idempotent methods of the remote interface.
+     * Every overload of a named method is hedged.
+     */
+    public HedgePolicy idempotent(String... methodNames) {
+        Set<String> names = new HashSet<>(idempotent);
+        names.addAll(Arrays.asList(methodNames));
+        return new HedgePolicy(percentile, minimumDelay, Collections.unmodifiableSet(names),
+                new LongAdder());
+    }
+
+    /**
+     * Returns a policy that never hedges sooner than the given delay.
+     *
+     * @throws IllegalArgumentException If <code>delay</code> is negative.
+     */
+    public HedgePolicy minimumDelay(long delay, TimeUnit unit) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("negative delay");
+        }
+
+        return new HedgePolicy(percentile, unit.toNanos(delay), idempotent, new LongAdder());
+    }
+
+    /** Returns the number of calls for which a hedge has been sent under
+        this policy. */
+    public long hedges() {
+        return hedges.sum();
+    }
+
+    /** Returns <code>true</code> if calls to the method may be hedged. */
+    boolean isIdempotent(Method method) {
+        return idempotent.contains(method.getName());
+    }
+
+    /** Returns how long to wait for the primary before hedging a call, in
+        nanoseconds. */
+    long delayNanos(Method method) {
+        LatencyHistogram latency = RMIMetrics.client().method(method).latency();
+
+        if (latency.count() < MIN_SAMPLES) {
+            return minimumDelay;
+        }
+
+        return Math.max(minimumDelay, TimeUnit.MICROSECONDS.toNanos(latency.percentile(percentile)));
+    }
+
+    /** Counts a hedged call. */
+    void hedged() {
+        hedges.increment();
+    }
+}
@@ -0,0 +1,106 @@
+package rmi;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Invocation handler for the hedged stubs created by
+ * <code>Stub.createHedged</code>.
+ *
+ * <p>
+ * Calls to idempotent methods go to the primary skeleton, and also to the
+ * backup if the primary is slower than the policy allows or fails to answer.
+ * The first reply wins. A reply carrying an exception raised by the remote
+ * method counts as a reply; only an <code>RMIException</code>, meaning the
+ * call could not be completed, makes the handler wait for the other
+ * skeleton. Other calls go to the primary only.
+ */
+class HedgingInvocationHandler implements InvocationHandler {
+
+    private final Object primaryStub;
+    private final MyInvocationHandler primary;
+    private final MyInvocationHandler backup;
+    private final HedgePolicy policy;
+
+    HedgingInvocationHandler(Object primaryStub, MyInvocationHandler primary,
+                             MyInvocationHandler backup, HedgePolicy policy) {
+        this.primaryStub = primaryStub;
+        this.primary = primary;
+        this.backup = backup;
+        this.policy = policy;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            if (method.getName().equals("equals")) {
+                return proxy == args[0];
+            }
+            return method.invoke(primaryStub, args);
+        }
+        if (!policy.isIdempotent(method)) {
+            return primary.invokeRemote(method, args);
+        }
+
+        CompletableFuture<Object> first = primary.invokeRemoteAsync(method, args);
+        try {
+            return first.get(policy.delayNanos(method), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            // Hedge only if the primary could not be reached in time.
+            Throwable cause = e.getCause();
+            if (!(cause instanceof RMIException) || cause.getCause() instanceof TimeoutException) {
+                throw cause;
+            }
+        } catch (TimeoutException e) {
+            // The primary is slow: hedge below.
+        }
+
+        policy.hedged();
+        CompletableFuture<Object> second = backup.invokeRemoteAsync(method, args);
+        try {
+            return firstReply(first, second).join();
+        } catch (CompletionException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Returns a future completed by the first of two calls to reply. If both
+     * fail to complete, it fails with the primary's exception.
+     */
+    private static CompletableFuture<Object> firstReply(CompletableFuture<Object> first,
+                                                        CompletableFuture<Object> second) {
+        CompletableFuture<Object> winner = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        first.whenComplete((value, failure) -> {
+            if (failure == null || !(failure instanceof RMIException)) {
+                complete(winner, value, failure);
+            } else if (failures.incrementAndGet() == 2) {
+                winner.completeExceptionally(failure);
+            }
+        });
+        second.whenComplete((value, failure) -> {
+            if (failure == null || !(failure instanceof RMIException)) {
+                complete(winner, value, failure);
+            } else if (failures.incrementAndGet() == 2) {
+                first.whenComplete((v, primaryFailure) ->
+                        winner.completeExceptionally(primaryFailure != null ? primaryFailure : failure));
+            }
+        });
+        return winner;
+    }
+
+    private static void complete(CompletableFuture<Object> winner, Object value, Throwable failure) {
+        if (failure == null) {
+            winner.complete(value);
+        } else {
+            winner.completeExceptionally(failure);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package rmi;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of latencies, in microseconds.
+ *
+ * <p>
+ * Values are counted in log-linear buckets in the style of HdrHistogram.
+ * Values below <code>2^PRECISION_BITS</code> have a bucket each; above that,
+ * every power-of-two range is split into <code>2^PRECISION_BITS</code> equal
+ * buckets. Every recorded value is therefore known to within about 0.8%,
+ * while the histogram covers up to <code>MAX_VALUE</code> microseconds -
+ * about nineteen hours - in a fixed array of counters. Larger values are
+ * counted as <code>MAX_VALUE</code>.
+ *
+ * <p>
+ * Recording is lock-free and may be done from any number of threads.
+ * Readings taken while values are being recorded are approximate.
+ */
+public final class LatencyHistogram {
+
+    /** Number of bits of precision kept for each value. */
+    private static final int PRECISION_BITS = 7;
+    /** Number of buckets per power-of-two range. */
+    private static final int SUB_BUCKETS = 1 << PRECISION_BITS;
+    /** Number of bits in the largest value counted separately. */
+    private static final int RANGE_BITS = 36;
+    /** Largest value counted separately, in microseconds. */
+    public static final long MAX_VALUE = (1L << RANGE_BITS) - 1;
+
+    /** Counts, by bucket. */
+    private final AtomicLongArray counts =
+            new AtomicLongArray((RANGE_BITS - PRECISION_BITS + 1) * SUB_BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records a value.
+     *
+     * @param micros The latency, in microseconds. Negative values are counted
+     * as zero.
+     */
+    public void record(long micros) {
+        long value = Math.max(0, Math.min(micros, MAX_VALUE));
+        counts.incrementAndGet(bucket(value));
+        total.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /** Returns the number of values recorded. */
+    public long count() {
+        return total.sum();
+    }
+
+    /** Returns the largest value recorded, or zero if there is none. */
+    public long max() {
+        return max.get();
+    }
+
+    /** Returns the mean of the recorded values, or zero if there are none. */
+    public double mean() {
+        long n = total.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded
+     * values fall.
+     *
+     * <p>
+     * The result is the largest value that shares a bucket with the value at
+     * the given percentile, but never more than the largest value recorded.
+     *
+     * @param percentile The percentile, between <code>0</code> and
+     * <code>100</code>.
+     * @return The value at the percentile, in microseconds, or zero if no
+     * values have been recorded.
+     * @throws IllegalArgumentException If <code>percentile</code> is out of
+     * range.
+     */
+    public long percentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile out of range");
+        }
+
+        long n = total.sum();
+        if (n == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int index = 0; index < counts.length(); ++index) {
+            seen += counts.get(index);
+            if (seen >= rank) {
+                return Math.min(highestInBucket(index), max());
+            }
+        }
+
+        return max();
+    }
+
+    /** Returns the bucket counting the given value. */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - PRECISION_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /** Returns the largest value counted in the given bucket. */
+    static long highestInBucket(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -41,7 +41,7 @@ class ListenerThread<T> implements Runnable {
             try {
 
                 clientSocket = this.serverSocket.accept();
-                new Thread(new ServiceThread<T>(clientSocket, server)).start();
+                skel.serveConnection(clientSocket);
             } catch (IOException ignored) {
 
             } catch (Exception ex) {
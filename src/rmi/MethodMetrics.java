@@ -0,0 +1,130 @@
+package rmi;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Call counts, traffic and latencies of one remote method, on one side of
+ * the connection.
+ *
+ * <p>
+ * On the client side, latency runs from sending the request to receiving the
+ * reply, and errors include both exceptions raised by the remote method and
+ * calls that failed in transport. On the server side, latency runs from
+ * receiving the request to sending the reply - or to queuing it for writing,
+ * with the selector transport - including any time spent queued in the
+ * skeleton's executor, and errors are calls answered with an exception,
+ * including calls rejected by the executor.
+ *
+ * <p>
+ * Metrics objects are created and registered by <code>RMIMetrics</code>.
+ */
+public final class MethodMetrics implements MethodMetricsMXBean {
+
+    private final String interfaceName;
+    private final String method;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    MethodMetrics(Method method) {
+        this.interfaceName = method.getDeclaringClass().getName();
+        this.method = MethodTable.signature(method);
+    }
+
+    /**
+     * Records a completed call.
+     *
+     * @param nanos The latency of the call, in nanoseconds.
+     * @param in The number of bytes received for the call.
+     * @param out The number of bytes sent for the call.
+     * @param error <code>true</code> if the call raised an exception or
+     * failed.
+     */
+    void record(long nanos, long in, long out, boolean error) {
+        calls.increment();
+        if (error) {
+            errors.increment();
+        }
+        bytesIn.add(in);
+        bytesOut.add(out);
+        latency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /** Returns the histogram of call latencies, in microseconds. */
+    public LatencyHistogram latency() {
+        return latency;
+    }
+
+    @Override
+    public String getInterfaceName() {
+        return interfaceName;
+    }
+
+    @Override
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public double getMeanLatencyMicros() {
+        return latency.mean();
+    }
+
+    @Override
+    public long getP50LatencyMicros() {
+        return latency.percentile(50);
+    }
+
+    @Override
+    public long getP90LatencyMicros() {
+        return latency.percentile(90);
+    }
+
+    @Override
+    public long getP99LatencyMicros() {
+        return latency.percentile(99);
+    }
+
+    @Override
+    public long getP999LatencyMicros() {
+        return latency.percentile(99.9);
+    }
+
+    @Override
+    public long getMaxLatencyMicros() {
+        return latency.max();
+    }
+
+    @Override
+    public String toString() {
+        return interfaceName + "." + method + ": " + getCalls() + " calls, "
+                + getErrors() + " errors, " + getBytesIn() + " B in, "
+                + getBytesOut() + " B out, p50 " + getP50LatencyMicros()
+                + " us, p99 " + getP99LatencyMicros() + " us, max "
+                + getMaxLatencyMicros() + " us";
+    }
+}
@@ -0,0 +1,51 @@
+package rmi;
+
+/**
+ * Management interface exposing the metrics of one remote method.
+ *
+ * <p>
+ * Each <code>MethodMetrics</code> object is registered with the platform
+ * MBean server under the name
+ * <code>rmi:type=<i>side</i>,interface=<i>name</i>,method=<i>signature</i></code>,
+ * where <i>side</i> is <code>Client</code> for calls made through stubs and
+ * <code>Server</code> for calls served by skeletons. Latencies are in
+ * microseconds.
+ */
+public interface MethodMetricsMXBean {
+
+    /** Returns the name of the remote interface. */
+    String getInterfaceName();
+
+    /** Returns the signature of the method. */
+    String getMethod();
+
+    /** Returns the number of calls completed, successfully or not. */
+    long getCalls();
+
+    /** Returns the number of calls that raised an exception or failed. */
+    long getErrors();
+
+    /** Returns the number of bytes received for the method. */
+    long getBytesIn();
+
+    /** Returns the number of bytes sent for the method. */
+    long getBytesOut();
+
+    /** Returns the mean call latency. */
+    double getMeanLatencyMicros();
+
+    /** Returns the median call latency. */
+    long getP50LatencyMicros();
+
+    /** Returns the 90th percentile call latency. */
+    long getP90LatencyMicros();
+
+    /** Returns the 99th percentile call latency. */
+    long getP99LatencyMicros();
+
+    /** Returns the 99.9th percentile call latency. */
+    long getP999LatencyMicros();
+
+    /** Returns the largest call latency. */
+    long getMaxLatencyMicros();
+}
@@ -0,0 +1,175 @@
+package rmi;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dispatch table for a remote interface.
+ *
+ * <p>
+ * Every method of the interface is identified on the wire by a method ID: the
+ * hash code of its signature string, for example
+ * <code>read(common.Path,long,int)</code>. The ID depends only on the method's
+ * name and parameter types, so stubs and skeletons compute the same IDs
+ * independently, and overloaded methods get distinct IDs. Adding methods to an
+ * interface does not change the IDs of existing methods.
+ *
+ * <p>
+ * Tables are built once per interface and shared. IDs are kept in a sorted
+ * <code>int</code> array so that a skeleton can find the method for an
+ * incoming ID with a binary search. Stubs look up the ID of a method in a
+ * hash map of boxed IDs. Dispatch itself is not free of allocation: each call
+ * still carries its arguments in an <code>Object[]</code> and is handed to
+ * the request executor as a task.
+ */
+final class MethodTable {
+
+    private static final ClassValue<MethodTable> tables = new ClassValue<MethodTable>() {
+        @Override
+        protected MethodTable computeValue(Class<?> c) {
+            return new MethodTable(c);
+        }
+    };
+
+    /** Method IDs, in increasing order. */
+    private final int[] ids;
+    /** Methods, in the same order as <code>ids</code>. */
+    private final Method[] methods;
+    /** Method IDs, by method. */
+    private final Map<Method, Integer> idByMethod = new HashMap<>();
+
+    private MethodTable(Class<?> c) {
+        Method[] all = Arrays.stream(c.getMethods())
+                .filter(m -> !Modifier.isStatic(m.getModifiers()))
+                .toArray(Method[]::new);
+        Arrays.sort(all, (a, b) -> Integer.compare(methodId(a), methodId(b)));
+
+        ids = new int[all.length];
+        methods = all;
+        for (int i = 0; i < all.length; i++) {
+            ids[i] = methodId(all[i]);
+            if (i > 0 && ids[i] == ids[i - 1]) {
+                throw new Error("method ID collision in " + c.getName() + ": "
+                        + signature(all[i - 1]) + " and " + signature(all[i]));
+            }
+            idByMethod.put(all[i], ids[i]);
+        }
+    }
+
+    /** Returns the table for the given interface. */
+    static MethodTable of(Class<?> c) {
+        return tables.get(c);
+    }
+
+    /** Returns the signature string from which a method's ID is computed. */
+    static String signature(Method m) {
+        StringBuilder s = new StringBuilder(m.getName()).append('(');
+        Class<?>[] params = m.getParameterTypes();
+        for (int i = 0; i < params.length; i++) {
+            if (i > 0) {
+                s.append(',');
+            }
+            s.append(params[i].getTypeName());
+        }
+        return s.append(')').toString();
+    }
+
+    /** Computes the wire ID of a method. */
+    static int methodId(Method m) {
+        return signature(m).hashCode();
+    }
+
+    /**
+     * Returns the ID of a method of this interface.
+     *
+     * @throws IllegalArgumentException If the method does not belong to the
+     * interface. Any integer is a valid ID, so use <code>contains</code> to
+     * test for membership.
+     */
+    int idOf(Method m) {
+        Integer id = idByMethod.get(m);
+        if (id == null) {
+            throw new IllegalArgumentException("not a method of the remote interface: " + m);
+        }
+        return id;
+    }
+
+    /** Returns <code>true</code> if the method belongs to this interface. */
+    boolean contains(Method m) {
+        return idByMethod.containsKey(m);
+    }
+
+    /** Returns the index of the method with the given ID, or a negative
+        number if there is no such method. */
+    int indexOf(int id) {
+        return Arrays.binarySearch(ids, id);
+    }
+
+    /** Returns the number of methods in the table. */
+    int size() {
+        return methods.length;
+    }
+
+    /** Returns the method at the given index. */
+    Method method(int index) {
+        return methods[index];
+    }
+
+    /**
+     * Binds every method of the interface to a server object.
+     *
+     * <p>
+     * Each handle in the returned array takes the call arguments as a single
+     * <code>Object[]</code> and returns the result as an <code>Object</code>,
+     * or <code>null</code> for <code>void</code> methods. Handles are indexed
+     * like the methods of this table. A method returning <code>byte[]</code>
+     * is bound to the server method annotated with
+     * <code>FileRegion.Answers</code> for it, if the server class has one.
+     */
+    MethodHandle[] bind(Object server) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle[] handles = new MethodHandle[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            Method m = methods[i];
+            try {
+                m.setAccessible(true);
+                Method region = regionVariant(server.getClass(), m);
+                MethodHandle h = lookup.unreflect(region != null ? region : m).bindTo(server);
+                handles[i] = h.asType(h.type().generic())
+                        .asSpreader(Object[].class, m.getParameterCount());
+            } catch (IllegalAccessException | RuntimeException e) {
+                throw new Error("unable to bind " + signature(m), e);
+            }
+        }
+        return handles;
+    }
+
+    /**
+     * Returns the public method of the server class annotated as answering
+     * <code>m</code> with a <code>FileRegion</code>, or <code>null</code> if
+     * there is none.
+     *
+     * @throws IllegalArgumentException If an annotated method for
+     * <code>m</code> does not return a <code>FileRegion</code>, or
+     * <code>m</code> does not return <code>byte[]</code>.
+     */
+    private static Method regionVariant(Class<?> serverClass, Method m) {
+        for (Method candidate : serverClass.getMethods()) {
+            FileRegion.Answers answers = candidate.getAnnotation(FileRegion.Answers.class);
+            if (answers == null || !answers.value().equals(m.getName())
+                    || !Arrays.equals(candidate.getParameterTypes(), m.getParameterTypes())) {
+                continue;
+            }
+            if (m.getReturnType() != byte[].class || candidate.getReturnType() != FileRegion.class) {
+                throw new IllegalArgumentException(candidate + " cannot answer " + signature(m));
+            }
+            return candidate;
+        }
+        return null;
+    }
+}
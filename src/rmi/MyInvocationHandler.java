@@ -1,27 +1,39 @@
 package rmi;
 
 import java.io.FileNotFoundException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
-import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.util.Arrays;
-import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
 
 public class MyInvocationHandler implements InvocationHandler, Serializable {
 
     String host;
     int port;
+    /** Timeout applied to every call made through the stub, in nanoseconds,
+        or zero for none. */
+    long timeoutNanos = 0;
     public MyInvocationHandler(int port, String host) {
         this.port = port;
         this.host = host;
        
     }
 
+    /** Creates a handler for the same skeleton with a different call
+        timeout. */
+    MyInvocationHandler withTimeout(long timeoutNanos) {
+        MyInvocationHandler handler = new MyInvocationHandler(port, host);
+        handler.timeoutNanos = timeoutNanos;
+        return handler;
+    }
+
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
   
@@ -42,61 +54,125 @@ public class MyInvocationHandler implements InvocationHandler, Serializable {
             return checktoString(proxy);
         }
          
-        if(isValidMethod((Proxy)proxy, method)) {
-          Socket socket = new Socket(host,port);
-     try{
+        return invokeRemote(method, args);
+    }
 
-       
+    /**
+     * Calls a method of the remote interface on the skeleton.
+     *
+     * @return The result of the call.
+     * @throws Exception The exception raised by the remote method, or an
+     * <code>RMIException</code> if the call cannot be completed.
+     */
+    Object invokeRemote(Method method, Object[] args) throws Exception {
+        try {
+            return invokeRemoteAsync(method, args).join();
+        } catch(CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if(cause instanceof Error) {
+                throw (Error) cause;
+            }
+            if(cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw new RMIException("error", cause);
+        }
+    }
 
-        ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
-        oos.flush();
-        oos.writeObject(method.getName()); 
-         oos.writeObject(args);
-         oos.writeObject(method.getParameterTypes());
-         
-         ObjectInputStream ois  = new ObjectInputStream(socket.getInputStream());
-      
-        Object o=ois.readObject(); 
-        
-        if(o instanceof Exception){ 
-            throw (Exception)((Exception) o).getCause();
+    /**
+     * Starts a call to a method of the remote interface on the skeleton.
+     *
+     * <p>
+     * The call is bound by the stub's timeout and by any
+     * <code>Deadline</code> installed by the calling thread. The request is
+     * sent before this method returns; only a new connection,
+     * if one has to be opened, is waited for. The returned future is completed
+     * by the connection's reader thread, so code chained to it must not make
+     * further synchronous calls to the same skeleton.
+     *
+     * @return A future completed with the result of the call, or exceptionally
+     * with the exception raised by the remote method or an
+     * <code>RMIException</code> if the call cannot be completed.
+     */
+    CompletableFuture<Object> invokeRemoteAsync(Method method, Object[] args) {
+        MethodTable table = MethodTable.of(method.getDeclaringClass());
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        if(!table.contains(method)) {
+            result.completeExceptionally(new RMIException("Not a valid method"));
+            return result;
         }
-         socket.close(); 
-         return o; 
-       }catch(Exception ex){
-          if(ex instanceof FileNotFoundException){ //check what type of exception is returned by the server
-              throw ex; 
-          }
-          if(ex instanceof NullPointerException){
-           throw ex;
-          }
-          if(ex instanceof IndexOutOfBoundsException){
-              throw ex;
-          }
-          
-          if(ex instanceof IllegalStateException){
-              throw ex;
-          }
-          
-          if(ex instanceof IllegalArgumentException){
-              throw ex;
-          }
-         //ex.printStackTrace();
-          throw new RMIException("error");
-       }finally{
-           try{
-                
-            if(!socket.isClosed()){
-                 socket.close();
+        call(ConnectionPool.forEndpoint(host, port), table.idOf(method), args,
+                RMIMetrics.client().method(method), Deadline.expiry(timeoutNanos), true, result);
+        return result;
+    }
+
+    /**
+     * Sends the call on a pooled connection and completes <code>result</code>
+     * with its outcome.
+     *
+     * <p>
+     * A pooled connection may have been closed by the skeleton while it sat
+     * idle. If the connection fails before the request has been written
+     * whole, the skeleton cannot have run the call, and it is retried once on
+     * another connection. Any other failure is reported as an
+     * <code>RMIException</code>: the call may or may not have been run, and
+     * running it again could repeat a call that is not idempotent.
+     *
+     * @param retry Whether the call may still be retried.
+     */
+    private void call(ConnectionPool pool, int methodId, Object[] args, MethodMetrics metrics,
+                      long expiry, boolean retry, CompletableFuture<Object> result) {
+        Connection connection;
+        try {
+            connection = pool.acquire(expiry);
+        } catch(SocketTimeoutException ex) {
+            result.completeExceptionally(new RMIException("timed out connecting to " + host + ":" + port, ex));
+            return;
+        } catch(IOException ex) {
+            result.completeExceptionally(new RMIException("unable to connect to " + host + ":" + port, ex));
+            return;
+        }
+
+        CompletableFuture<Object> reply;
+        try {
+            reply = connection.send(methodId, args, metrics, expiry);
+        } catch(IOException ex) {
+            result.completeExceptionally(new RMIException("unable to encode arguments", ex));
+            return;
+        }
+
+        reply.whenComplete((o, failure) -> {
+            if(failure == null) {
+                if(o instanceof InvocationTargetException) {
+                    result.completeExceptionally(unwrap((InvocationTargetException) o));
+                } else {
+                    result.complete(o);
+                }
+            } else if(failure instanceof TimeoutException) {
+                result.completeExceptionally(new RMIException("deadline exceeded", failure));
+            } else if(retry && failure instanceof Connection.NotSentException) {
+                call(pool, methodId, args, metrics, expiry, false, result);
+            } else {
+                result.completeExceptionally(new RMIException("error", failure));
             }
-           }catch(Exception ex){
-               //throw ex;
-               ex.printStackTrace();
-          }
+        });
     }
-        }else{
-            throw new RMIException("Not a valid method");
+
+    /**
+     * Extracts the exception raised by the remote method. Exceptions of the
+     * types that callers rely on are passed through; anything else is reported
+     * as an <code>RMIException</code>.
+     */
+    private Exception unwrap(InvocationTargetException ex) {
+        Throwable cause = ex.getCause();
+        if(cause instanceof FileNotFoundException //check what type of exception is returned by the server
+                || cause instanceof NullPointerException
+                || cause instanceof IndexOutOfBoundsException
+                || cause instanceof IllegalStateException
+                || cause instanceof IllegalArgumentException){
+            return (Exception) cause;
         }
+        return new RMIException("error", cause);
     }
 
     private String checktoString(Object proxy) {
@@ -143,24 +219,4 @@ public class MyInvocationHandler implements InvocationHandler, Serializable {
 
         return false;
     }
-
-    /**
-     * Function to check if interface being used is Remote.
-     */
-    private boolean isValidMethod(Proxy proxy, Method m) {
-        Class[] interfaces = proxy.getClass().getInterfaces();
-        for (Class iface : interfaces) {
-            Method[] methods = iface.getMethods();
-            for (Method method : methods) {
-                for (Class<?> exception : method.getExceptionTypes()) {
-                    if (exception.getName().contains("rmi.RMIException")) {
-                        if (m.getName().toString().equals(method.getName().toString())) {
-                            return true;
-                        }
-                    }
-                }
-            }
-        }
-        return false;
-    }
 }
@@ -0,0 +1,210 @@
+package rmi;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Connection handshake, framing and reply status codes.
+ *
+ * <p>
+ * When a stub opens a connection, it sends the protocol magic number followed
+ * by the IDs of the codecs it is willing to use, in order of preference. The
+ * skeleton answers with the magic number and the ID of the first offered
+ * codec it supports. Both sides then use that codec for every frame on the
+ * connection. A skeleton that supports none of the offered codecs, or
+ * receives the wrong magic number, closes the connection.
+ *
+ * <p>
+ * After the handshake, every message is a frame: its length as an
+ * <code>int</code>, followed by that many bytes of payload. A request payload
+ * is a request ID chosen by the stub, the method ID and the arguments. A
+ * reply payload is the request ID of the call it answers, a status byte and
+ * the result or exception. A stub may send further requests before earlier
+ * ones are answered, and the skeleton may answer them in any order. Frames
+ * longer than <code>MAX_FRAME</code> bytes are never sent: a peer that
+ * announces one is treated as broken and its connection is closed.
+ *
+ * <p>
+ * Stubs prefer the binary codec. Setting the system property
+ * <code>rmi.codec</code> to <code>serial</code> makes them offer only Java
+ * serialization, which is useful when debugging a value the binary codec
+ * cannot handle.
+ */
+final class Protocol {
+
+    /** Magic number beginning every handshake: "DFS" and version 2. */
+    static final int MAGIC = 0x44465302;
+
+    /** Largest frame payload accepted, in bytes. Set with the
+        <code>rmi.maxFrame</code> system property. */
+    static final int MAX_FRAME = Integer.getInteger("rmi.maxFrame", 64 * 1024 * 1024);
+
+    /** Reply status: the payload is the method's result. */
+    static final byte OK = 0;
+    /** Reply status: the payload is the exception raised by the method. */
+    static final byte EXCEPTION = 1;
+
+    private Protocol() {
+    }
+
+    /** Returns the codec IDs offered by stubs, in order of preference. */
+    static byte[] offeredCodecs() {
+        if ("serial".equals(System.getProperty("rmi.codec"))) {
+            return new byte[]{Codec.SERIAL};
+        }
+        return new byte[]{Codec.BINARY, Codec.SERIAL};
+    }
+
+    /**
+     * Performs the client side of the handshake.
+     *
+     * @return The codec chosen by the skeleton.
+     * @throws IOException If the handshake fails or the skeleton chooses a
+     * codec that was not offered.
+     */
+    static Codec offer(DataOutputStream out, DataInputStream in) throws IOException {
+        byte[] codecs = offeredCodecs();
+        out.writeInt(MAGIC);
+        out.writeByte(codecs.length);
+        out.write(codecs);
+        out.flush();
+
+        if (in.readInt() != MAGIC) {
+            throw new IOException("bad handshake from skeleton");
+        }
+        byte chosen = in.readByte();
+        for (byte id : codecs) {
+            if (id == chosen) {
+                return Codec.forId(chosen);
+            }
+        }
+        throw new IOException("skeleton chose unknown codec " + chosen);
+    }
+
+    /**
+     * Performs the server side of the handshake.
+     *
+     * @return The codec to be used on the connection.
+     * @throws IOException If the handshake fails or none of the offered codecs
+     * is supported.
+     */
+    static Codec accept(DataInputStream in, DataOutputStream out) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("bad handshake from stub");
+        }
+        byte[] codecs = new byte[in.readUnsignedByte()];
+        in.readFully(codecs);
+
+        Codec codec = choose(codecs);
+        writeAccept(out, codec);
+        out.flush();
+        return codec;
+    }
+
+    /**
+     * Picks the first offered codec that is supported.
+     *
+     * @throws IOException If none of the offered codecs is supported.
+     */
+    static Codec choose(byte[] offered) throws IOException {
+        for (byte id : offered) {
+            Codec codec = Codec.forId(id);
+            if (codec != null) {
+                return codec;
+            }
+        }
+        throw new IOException("no common codec");
+    }
+
+    /** Writes the skeleton's answer to the handshake. */
+    static void writeAccept(DataOutputStream out, Codec codec) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(codec.id());
+    }
+
+    /**
+     * Checks the length announced for an incoming frame.
+     *
+     * @return The length.
+     * @throws IOException If the length is negative or exceeds
+     * <code>MAX_FRAME</code>.
+     */
+    static int checkFrameLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME) {
+            throw new IOException("bad frame length " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Encodes a reply frame.
+     *
+     * <p>
+     * The reply is encoded into memory before anything is sent, so if the
+     * result cannot be encoded, or is too large for a frame, the stub can
+     * still be told what went wrong. A <code>FileRegion</code> result is the
+     * exception: its bytes are left in the file and attached to the frame.
+     *
+     * @param requestId The request ID of the call being answered.
+     * @param reply The result of the call, or an
+     * <code>InvocationTargetException</code> wrapping the exception it raised.
+     */
+    static void encodeReply(FrameBuffer frame, Codec codec, int requestId, Object reply) throws IOException {
+        try {
+            if (reply instanceof FileRegion) {
+                writeRegionReply(frame, codec, requestId, (FileRegion) reply);
+            } else {
+                writeReply(frame.begin(), codec, requestId, reply);
+            }
+            if (frame.length() > MAX_FRAME) {
+                throw new IOException("reply of " + frame.length() + " bytes exceeds the maximum frame size");
+            }
+        } catch (IOException ex) {
+            writeReply(frame.begin(), codec, requestId, new InvocationTargetException(
+                    new RMIException("unable to encode reply", ex)));
+        }
+    }
+
+    /**
+     * Encodes a reply whose result is a file region. If the codec can send raw
+     * bytes, the region is attached to the frame and sent from the file;
+     * otherwise it is read into an array first.
+     */
+    private static void writeRegionReply(FrameBuffer frame, Codec codec, int requestId, FileRegion region)
+            throws IOException {
+        DataOutputStream payload = frame.begin();
+        payload.writeInt(requestId);
+        payload.writeByte(OK);
+        if (codec.writeBytesHeader(payload, region.length())) {
+            frame.attach(region);
+        } else {
+            codec.writeValue(payload, region.toByteArray());
+        }
+    }
+
+    private static void writeReply(DataOutputStream payload, Codec codec, int requestId, Object reply)
+            throws IOException {
+        payload.writeInt(requestId);
+        if (reply instanceof InvocationTargetException) {
+            payload.writeByte(EXCEPTION);
+            codec.writeValue(payload, ((InvocationTargetException) reply).getCause());
+        } else {
+            payload.writeByte(OK);
+            codec.writeValue(payload, reply);
+        }
+    }
+
+    /** Returns the reply sent for a call rejected by the skeleton's
+        executor. */
+    static InvocationTargetException rejected() {
+        return new InvocationTargetException(new RMIException("server busy: call rejected"));
+    }
+
+    /** Returns the reply sent for a call whose arguments name a class the
+        skeleton does not have. */
+    static InvocationTargetException undecodable(ClassNotFoundException e) {
+        return new InvocationTargetException(new RMIException("unable to decode arguments", e));
+    }
+}
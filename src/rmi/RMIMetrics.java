@@ -0,0 +1,98 @@
+package rmi;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Registry of per-method metrics for one side of the RMI layer.
+ *
+ * <p>
+ * <code>client()</code> holds metrics for calls made through stubs, and
+ * <code>server()</code> for calls served by skeletons. Each keeps one
+ * <code>MethodMetrics</code> object per remote method, shared by every stub
+ * or skeleton for the method's interface in this virtual machine. The objects
+ * are created when a method is first used, and are also registered with the
+ * platform MBean server so that they can be inspected with JMX tools; see
+ * <code>MethodMetricsMXBean</code>.
+ */
+public final class RMIMetrics {
+
+    private static final RMIMetrics client = new RMIMetrics("Client");
+    private static final RMIMetrics server = new RMIMetrics("Server");
+
+    /** Side name used in JMX object names. */
+    private final String side;
+    private final ConcurrentHashMap<Method, MethodMetrics> metrics = new ConcurrentHashMap<>();
+
+    private RMIMetrics(String side) {
+        this.side = side;
+    }
+
+    /** Returns the metrics of calls made through stubs. */
+    public static RMIMetrics client() {
+        return client;
+    }
+
+    /** Returns the metrics of calls served by skeletons. */
+    public static RMIMetrics server() {
+        return server;
+    }
+
+    /**
+     * Returns the metrics of a remote method, creating them if necessary.
+     *
+     * @param method A method of a remote interface.
+     * @return The method's metrics.
+     */
+    public MethodMetrics method(Method method) {
+        MethodMetrics existing = metrics.get(method);
+        if (existing != null) {
+            return existing;
+        }
+
+        return metrics.computeIfAbsent(method, m -> {
+            MethodMetrics created = new MethodMetrics(m);
+            register(created);
+            return created;
+        });
+    }
+
+    /** Returns the metrics of every method used so far, keyed by interface
+        name and method signature, in order. */
+    public Map<String, MethodMetrics> methods() {
+        Map<String, MethodMetrics> all = new TreeMap<>();
+        for (MethodMetrics m : metrics.values()) {
+            all.put(m.getInterfaceName() + "." + m.getMethod(), m);
+        }
+        return all;
+    }
+
+    /** Returns the metrics of every method of a table, indexed like the
+        table's methods. */
+    MethodMetrics[] forTable(MethodTable table) {
+        MethodMetrics[] all = new MethodMetrics[table.size()];
+        for (int index = 0; index < all.length; ++index) {
+            all[index] = method(table.method(index));
+        }
+        return all;
+    }
+
+    /** Registers metrics with the platform MBean server. Failures are
+        ignored: metrics remain available through this class. */
+    private void register(MethodMetrics m) {
+        try {
+            ObjectName name = new ObjectName("rmi:type=" + side
+                    + ",interface=" + m.getInterfaceName()
+                    + ",method=" + ObjectName.quote(m.getMethod()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(m, name);
+        } catch (JMException | SecurityException e) {
+            // Registration is best effort.
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package rmi;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes method calls received by a skeleton.
+ *
+ * <p>
+ * Each call decoded by a skeleton is handed to the skeleton's request
+ * executor, which runs it on one of its worker threads. Three kinds of
+ * executor are available:
+ *
+ * <ul>
+ * <li><code>unbounded()</code> starts a new worker whenever all existing
+ * workers are busy. This is the default, and matches the behavior of a
+ * skeleton that starts one thread per call.</li>
+ * <li><code>bounded(threads, queueCapacity)</code> runs at most
+ * <code>threads</code> calls at once, queues up to
+ * <code>queueCapacity</code> more, and rejects calls beyond that.</li>
+ * <li><code>virtualThreads(maxConcurrent)</code> runs every call on its own
+ * virtual thread, and rejects calls once <code>maxConcurrent</code> are in
+ * progress. On a Java runtime without virtual threads, platform threads are
+ * used instead.</li>
+ * </ul>
+ *
+ * <p>
+ * A rejected call is answered immediately with an <code>RMIException</code>,
+ * which the stub rethrows to its caller. Rejection is the admission control
+ * mechanism: it keeps a burst of clients from exhausting server threads and
+ * memory.
+ *
+ * <p>
+ * With the blocking transport, the executor also serves the connections
+ * accepted by the skeleton, each on a thread of its own that reads requests
+ * and hands them to the workers. These threads are virtual threads when the
+ * runtime provides them. At most <code>MAX_CONNECTIONS</code> connections
+ * are served at once; a connection accepted beyond that is closed at once
+ * and counted as rejected, and the call made on it fails with an
+ * <code>RMIException</code>.
+ *
+ * <p>
+ * Bounded executors must not be used for remote interfaces whose calls block
+ * waiting for other calls to the same skeleton, such as the naming server's
+ * <code>lock</code>: if every worker is blocked, the call that would release
+ * them may never be run.
+ */
+public class RequestExecutor {
+
+    /** Maximum number of connections served at once by each executor. Set
+        with the <code>rmi.maxConnections</code> system property. */
+    public static final int MAX_CONNECTIONS = Integer.getInteger("rmi.maxConnections", 1024);
+
+    /** Time after which an idle worker thread exits, in seconds. */
+    private static final long KEEP_ALIVE = 60;
+
+    /** Executor that runs the calls. */
+    private final ExecutorService executor;
+    /** Underlying thread pool, or <code>null</code> for virtual threads. */
+    private final ThreadPoolExecutor pool;
+    /** Limit on calls in progress, or <code>null</code> if unlimited. */
+    private final Semaphore permits;
+    /** Factory for connection threads. */
+    private final ThreadFactory connectionThreads;
+    /** Limit on connections served at once. */
+    private final Semaphore connections = new Semaphore(MAX_CONNECTIONS);
+
+    /** Number of calls currently running. */
+    private final AtomicInteger active = new AtomicInteger();
+    /** Number of calls that have finished running. */
+    private final AtomicLong completed = new AtomicLong();
+    /** Number of calls and connections that were rejected. */
+    private final AtomicLong rejected = new AtomicLong();
+
+    private RequestExecutor(ExecutorService executor, ThreadPoolExecutor pool, Semaphore permits) {
+        this.executor = executor;
+        this.pool = pool;
+        this.permits = permits;
+
+        ThreadFactory factory = virtualThreadFactory();
+        this.connectionThreads = factory != null ? factory : daemonThreads("rmi-connection");
+    }
+
+    /** Creates an executor that starts new workers as needed and never rejects
+        calls. */
+    public static RequestExecutor unbounded() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE,
+                TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), daemonThreads("rmi-worker"));
+
+        return new RequestExecutor(pool, pool, null);
+    }
+
+    /**
+     * Creates an executor with a fixed number of workers and a bounded queue.
+     *
+     * @param threads Maximum number of calls run at the same time.
+     * @param queueCapacity Maximum number of calls waiting for a worker.
+     * @throws IllegalArgumentException If <code>threads</code> is not positive
+     * or <code>queueCapacity</code> is negative.
+     */
+    public static RequestExecutor bounded(int threads, int queueCapacity) {
+        if (threads <= 0 || queueCapacity < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE,
+                TimeUnit.SECONDS,
+                queueCapacity == 0
+                        ? new SynchronousQueue<Runnable>()
+                        : new ArrayBlockingQueue<Runnable>(queueCapacity),
+                daemonThreads("rmi-worker"));
+        pool.allowCoreThreadTimeOut(true);
+
+        return new RequestExecutor(pool, pool, null);
+    }
+
+    /**
+     * Creates an executor that runs each call on a new virtual thread.
+     *
+     * <p>
+     * If the Java runtime does not support virtual threads, daemon platform
+     * threads are used instead.
+     *
+     * @param maxConcurrent Maximum number of calls in progress at once, or
+     * zero for no limit.
+     * @throws IllegalArgumentException If <code>maxConcurrent</code> is
+     * negative.
+     */
+    public static RequestExecutor virtualThreads(int maxConcurrent) {
+        if (maxConcurrent < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        ThreadFactory factory = virtualThreadFactory();
+        if (factory == null) {
+            factory = daemonThreads("rmi-worker");
+        }
+
+        return new RequestExecutor(Executors.newCachedThreadPool(factory), null,
+                maxConcurrent == 0 ? null : new Semaphore(maxConcurrent));
+    }
+
+    /**
+     * Submits a call for execution.
+     *
+     * @param call The call to run.
+     * @return <code>true</code> if the call was accepted, <code>false</code>
+     * if it was rejected.
+     */
+    boolean execute(Runnable call) {
+        if (permits != null && !permits.tryAcquire()) {
+            rejected.incrementAndGet();
+            return false;
+        }
+
+        try {
+            executor.execute(() -> run(call));
+            return true;
+        } catch (RejectedExecutionException e) {
+            if (permits != null) {
+                permits.release();
+            }
+
+            rejected.incrementAndGet();
+            return false;
+        }
+    }
+
+    /** Runs a call and updates the counters. */
+    private void run(Runnable call) {
+        active.incrementAndGet();
+
+        try {
+            call.run();
+        } finally {
+            active.decrementAndGet();
+            completed.incrementAndGet();
+
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Starts serving a connection accepted by the skeleton on a thread of its
+     * own.
+     *
+     * @param connection Reads the connection's requests until it is closed.
+     * @return <code>true</code> if the connection is being served,
+     * <code>false</code> if it was rejected because
+     * <code>MAX_CONNECTIONS</code> are already being served. The caller must
+     * then close the connection.
+     */
+    boolean serveConnection(Runnable connection) {
+        if (!connections.tryAcquire()) {
+            rejected.incrementAndGet();
+            return false;
+        }
+
+        Thread thread = connectionThreads.newThread(() -> {
+            try {
+                connection.run();
+            } finally {
+                connections.release();
+            }
+        });
+        thread.start();
+        return true;
+    }
+
+    /** Returns the number of accepted calls waiting for a worker. */
+    public int queueDepth() {
+        return pool == null ? 0 : pool.getQueue().size();
+    }
+
+    /** Returns the number of calls currently running. */
+    public int activeCount() {
+        return active.get();
+    }
+
+    /** Returns the number of connections currently served by this executor's
+        connection threads. */
+    public int connectionCount() {
+        return MAX_CONNECTIONS - connections.availablePermits();
+    }
+
+    /** Returns the number of calls that have finished running. */
+    public long completedCount() {
+        return completed.get();
+    }
+
+    /** Returns the number of calls rejected because the executor was full,
+        and of connections rejected because <code>MAX_CONNECTIONS</code> were
+        already being served. */
+    public long rejectedCount() {
+        return rejected.get();
+    }
+
+    /** Returns a factory for named daemon threads. */
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Returns a factory for virtual threads, or <code>null</code> if the
+     * runtime does not provide them.
+     *
+     * <p>
+     * The factory is looked up reflectively so that the library can still be
+     * compiled for and run on runtimes that predate virtual threads.
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Method factory = builder.getMethod("factory");
+
+            return (ThreadFactory) factory.invoke(ofVirtual.invoke(null));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
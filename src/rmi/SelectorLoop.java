@@ -0,0 +1,122 @@
+package rmi;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * I/O thread of a skeleton using the selector transport.
+ *
+ * <p>
+ * Each loop owns a <code>Selector</code> and serves many non-blocking
+ * connections. It reads and decodes request frames, hands the calls to the
+ * skeleton's executor, and writes the replies queued by worker threads. No
+ * thread ever blocks on a single connection, so idle connections cost only
+ * their buffers.
+ *
+ * <p>
+ * Selection keys may only be changed safely from the loop's own thread. Other
+ * threads submit such changes as tasks through <code>execute</code>.
+ */
+class SelectorLoop implements Runnable {
+
+    /** Longest time the loop waits in <code>select</code>, in milliseconds.
+        Idle connections are checked for timeout at least this often. */
+    private static final long SELECT_TIMEOUT = 1000;
+
+    private final Skeleton<?> skel;
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    SelectorLoop(Skeleton<?> skel) throws IOException {
+        this.skel = skel;
+        this.selector = Selector.open();
+    }
+
+    /** Registers a newly accepted connection with this loop. */
+    void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new ChannelConnection(channel, key, this, skel));
+            } catch (IOException e) {
+                skel.closeConnection(channel.socket());
+            }
+        });
+    }
+
+    /** Runs a task on the loop's thread. */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /** Stops the loop and closes its selector. Connections are closed by the
+        skeleton. */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select(SELECT_TIMEOUT);
+
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    ChannelConnection connection = (ChannelConnection) key.attachment();
+                    if (!key.isValid()) {
+                        connection.close();
+                        continue;
+                    }
+                    try {
+                        if (key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        connection.close();
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                for (SelectionKey key : selector.keys()) {
+                    ChannelConnection connection = (ChannelConnection) key.attachment();
+                    if (connection != null && connection.idleSince(now) > ServiceThread.IDLE_TIMEOUT) {
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            skel.service_error(new RMIException("selector loop failed", e));
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                Object connection = key.attachment();
+                if (connection != null) {
+                    ((ChannelConnection) connection).close();
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package rmi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Codec using Java serialization.
+ *
+ * <p>
+ * Each value is serialized into its own length-prefixed block, so values can
+ * be skipped or decoded independently. The binary codec uses the same blocks
+ * for values it has no compact encoding for.
+ */
+final class SerialCodec extends Codec {
+
+    static final SerialCodec INSTANCE = new SerialCodec();
+
+    private SerialCodec() {
+    }
+
+    @Override
+    byte id() {
+        return SERIAL;
+    }
+
+    @Override
+    void writeValue(DataOutputStream out, Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(value);
+        }
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    @Override
+    Object readValue(FrameInputStream in) throws IOException, ClassNotFoundException {
+        byte[] block = new byte[in.readLength()];
+        in.readFully(block);
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(block))) {
+            return ois.readObject();
+        }
+    }
+}
@@ -2,61 +2,140 @@ package rmi;
 
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.net.Socket;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves one connection accepted by a skeleton.
+ *
+ * <p>
+ * Stubs keep their connections open between calls, so the thread reads
+ * requests in a loop until the client closes the connection, the connection
+ * stays idle for longer than <code>IDLE_TIMEOUT</code>, or the skeleton is
+ * stopped. Each request is run on the skeleton's executor as soon as it has
+ * been read, so a stub may have several calls in progress on the connection.
+ * Workers write their replies as they finish, one whole frame at a time under
+ * the output stream's monitor.
+ */
 class ServiceThread<T> implements Runnable {
 
+    /** Time after which an idle connection is closed by the server, in
+        milliseconds. This is longer than the stub-side idle timeout. */
+    static final int IDLE_TIMEOUT = 2 * (int) ConnectionPool.IDLE_TIMEOUT;
+
     private Socket clientSocket;
-    private T server;
+    private Skeleton<T> skel;
+    /** Number of calls read but not yet answered. */
+    private final AtomicInteger inFlight = new AtomicInteger();
 
-    ServiceThread(Socket clientSocket, T server) {
+    ServiceThread(Socket clientSocket, Skeleton<T> skel) {
         this.clientSocket = clientSocket;
-        this.server = server;
+        this.skel = skel;
     }
 
     @Override
     public void run() {
         try {
-
-            ObjectInputStream ois = new ObjectInputStream(this.clientSocket.getInputStream());
-            ObjectOutputStream oos = new ObjectOutputStream(this.clientSocket.getOutputStream());
-            String methodName = (String) ois.readObject();
-            Object[] args = (Object[]) ois.readObject();
-
-            Method m = null;
-            try {
-                Class<?>[] paramTypes = null;
-                for (Method meth : server.getClass().getMethods()) {
-                    if (meth.getName().equals(methodName)) {
-                        paramTypes = meth.getParameterTypes();
+            clientSocket.setTcpNoDelay(true);
+            clientSocket.setSoTimeout(IDLE_TIMEOUT);
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(this.clientSocket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(this.clientSocket.getOutputStream()));
+            Codec codec = Protocol.accept(in, out);
+
+            while (!clientSocket.isClosed()) {
+                int length;
+                try {
+                    length = Protocol.checkFrameLength(in.readInt());
+                } catch (EOFException closed) {
+                    break;
+                } catch (SocketTimeoutException idle) {
+                    if (inFlight.get() > 0) {
+                        continue;
                     }
+                    break;
                 }
-                m = this.server.getClass().getMethod(methodName, paramTypes);
-
-            } catch (NoSuchMethodException | SecurityException ignored) {
-
+                long start = System.nanoTime();
+                FrameInputStream payload = new FrameInputStream(in, length);
+                Call call = new Call(payload.readInt(), payload.readInt(), start, Integer.BYTES + length);
+                Object[] args;
+                try {
+                    args = codec.readArguments(payload);
+                } catch (ClassNotFoundException e) {
+                    // Only this call fails: skip the rest of its frame.
+                    payload.skipRest();
+                    inFlight.incrementAndGet();
+                    reply(out, codec, call, Protocol.undecodable(e));
+                    continue;
+                }
+                dispatch(out, codec, call, args);
             }
 
-            try {
+        } catch (IOException ignored) {
 
-                assert m != null;
-                m.setAccessible(true);
-                Object o = m.invoke(this.server, args);
-                oos.writeObject(o);
+        } finally {
+            skel.closeConnection(clientSocket);
+        }
 
-            } catch (IllegalAccessException | IllegalArgumentException ignored) {
+    }
 
-            } catch (InvocationTargetException ex) {
-                oos.writeObject(ex);
+    /**
+     * Runs the call on the skeleton's executor, which sends the reply when the
+     * call finishes. If the executor rejects the call, an
+     * <code>RMIException</code> is sent at once.
+     */
+    private void dispatch(DataOutputStream out, Codec codec, Call call, Object[] args) {
+        inFlight.incrementAndGet();
+        boolean accepted = skel.getExecutor().execute(
+                () -> reply(out, codec, call, skel.serve(call.methodId, args)));
+        if (!accepted) {
+            reply(out, codec, call, Protocol.rejected());
+        }
+    }
 
+    /** Encodes a reply, writes it and records the call's metrics. A failed
+        write closes the connection. */
+    private void reply(DataOutputStream out, Codec codec, Call call, Object reply) {
+        try {
+            FrameBuffer frame = new FrameBuffer();
+            Protocol.encodeReply(frame, codec, call.requestId, reply);
+            int sent;
+            synchronized (out) {
+                sent = frame.send(out, clientSocket.getChannel());
             }
+            call.finished(skel, sent, reply);
+        } catch (IOException ex) {
+            skel.closeConnection(clientSocket);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
 
-        } catch (ClassNotFoundException | IOException ignored) {
-
+    /** A request being served, and what is needed to account for it. */
+    static final class Call {
+        final int requestId;
+        final int methodId;
+        /** Time at which the request was received, from
+            <code>System.nanoTime</code>. */
+        final long start;
+        /** Size of the request frame, including its header. */
+        final int bytesIn;
+
+        Call(int requestId, int methodId, long start, int bytesIn) {
+            this.requestId = requestId;
+            this.methodId = methodId;
+            this.start = start;
+            this.bytesIn = bytesIn;
         }
 
+        /** Records the call's metrics once its reply has been sent. */
+        void finished(Skeleton<?> skel, int bytesOut, Object reply) {
+            MethodMetrics metrics = skel.metrics(methodId);
+            if (metrics != null) {
+                metrics.record(System.nanoTime() - start, bytesIn, bytesOut,
+                        reply instanceof InvocationTargetException);
+            }
+        }
     }
 }
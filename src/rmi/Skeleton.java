@@ -1,9 +1,14 @@
 package rmi;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,6 +30,11 @@ import java.util.logging.Logger;
  * desires.
  *
  * <p>
+ * Connections are served either by one blocking thread each, or by a few
+ * selector threads multiplexing non-blocking channels. The choice is made with
+ * <code>setTransport</code> and is invisible to stubs.
+ *
+ * <p>
  * Exceptions may occur at the top level in the listening and service threads.
  * The skeleton's response to these exceptions can be customized by deriving a
  * class from <code>Skeleton</code> and overriding <code>listen_error</code> or
@@ -34,10 +44,35 @@ public class Skeleton<T> {
 
     private Class<T> c = null;
     private T server = null;
+    /** Dispatch table for the remote interface. */
+    private MethodTable table = null;
+    /** Handles invoking the table's methods on the server object. */
+    private MethodHandle[] handles = null;
+    /** Server-side metrics of the table's methods. */
+    private MethodMetrics[] metrics = null;
     InetSocketAddress address = null;
     ListenerThread listenerThreadObj = null;
-    public Thread listenerThread = null;
+    public volatile Thread listenerThread = null;
     public ServerSocket serverSocket = null;
+    /** Connections accepted and still being served. */
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    /** Executor running the calls received by this skeleton. */
+    private volatile RequestExecutor executor = RequestExecutor.unbounded();
+    /** Transport used for connections accepted after the next start. */
+    private Transport transport = "selector".equals(System.getProperty("rmi.transport"))
+            ? Transport.SELECTOR : Transport.BLOCKING;
+    /** Selector threads, when the selector transport is running. */
+    private volatile SelectorLoop[] loops = null;
+    /** Index used to spread connections over the selector threads. */
+    private int nextLoop = 0;
+
+    /** Longest time <code>stop</code> waits for the listening thread to exit,
+        in milliseconds. */
+    private static final long LISTENER_JOIN_TIMEOUT = 1000;
+
+    /** Number of selector threads used by the selector transport. */
+    private static final int SELECTOR_THREADS =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
 
     /**
      * Creates a <code>Skeleton</code> with no initial server address. The
@@ -69,6 +104,9 @@ public class Skeleton<T> {
                 this.c = c;
                  
                 this.server = server;
+                this.table = MethodTable.of(c);
+                this.handles = table.bind(server);
+                this.metrics = RMIMetrics.server().forTable(table);
                 try {
 
                     Random rand = new Random(); //since the address here is going to be null, in such case assign a random port
@@ -115,6 +153,9 @@ public class Skeleton<T> {
                 this.c = c;
                
                 this.server = server;
+                this.table = MethodTable.of(c);
+                this.handles = table.bind(server);
+                this.metrics = RMIMetrics.server().forTable(table);
                 if (address != null) {
                     this.address = address;
                 } else {
@@ -214,14 +255,100 @@ public class Skeleton<T> {
     protected void service_error(RMIException exception) {
     }
 
+    /**
+     * Sets the executor that runs calls received by this skeleton.
+     *
+     * <p>
+     * The executor determines how many calls may run at the same time and how
+     * many more may wait, and therefore when calls are rejected. It may be
+     * changed at any time; calls already accepted finish on the executor that
+     * accepted them. By default, a skeleton uses
+     * <code>RequestExecutor.unbounded()</code>.
+     *
+     * @param executor The new executor.
+     * @throws NullPointerException If <code>executor</code> is
+     * <code>null</code>.
+     */
+    public void setExecutor(RequestExecutor executor) {
+        if (executor == null) {
+            throw new NullPointerException();
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the executor that runs calls received by this skeleton. The
+     * executor's counters report the queue depth and the number of rejected
+     * calls.
+     */
+    public RequestExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the transport used to serve connections.
+     *
+     * <p>
+     * By default, a skeleton uses <code>Transport.BLOCKING</code>, or
+     * <code>Transport.SELECTOR</code> if the system property
+     * <code>rmi.transport</code> is set to <code>selector</code>. The transport
+     * takes effect the next time the skeleton is started.
+     *
+     * @param transport The new transport.
+     * @throws NullPointerException If <code>transport</code> is
+     * <code>null</code>.
+     * @throws IllegalStateException If the skeleton is running.
+     */
+    public synchronized void setTransport(Transport transport) {
+        if (transport == null) {
+            throw new NullPointerException();
+        }
+        if (listenerThread != null) {
+            throw new IllegalStateException("skeleton is running");
+        }
+        this.transport = transport;
+    }
+
+    /** Returns the transport used to serve connections. */
+    public synchronized Transport getTransport() {
+        return transport;
+    }
+
+    /** Starts the selector threads for the selector transport. */
+    private void startLoops() throws IOException {
+        loops = new SelectorLoop[SELECTOR_THREADS];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new SelectorLoop(this);
+            Thread thread = new Thread(loops[i], "rmi-selector-" + address.getPort() + "-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Hands a newly accepted connection to the transport.
+     */
+    void serveConnection(Socket connection) {
+        openConnection(connection);
+        SelectorLoop[] loops = this.loops;
+        if (loops != null) {
+            int next = Math.floorMod(nextLoop++, loops.length);
+            loops[next].register(connection.getChannel());
+        } else if (!executor.serveConnection(new ServiceThread<T>(connection, this))) {
+            // Too many connections are being served: refuse this one.
+            closeConnection(connection);
+        }
+    }
+
     /**
      * Starts the skeleton server.
      *
      * <p>
      * A thread is created to listen for connection requests, and the method
-     * returns immediately. Additional threads are created when connections are
-     * accepted. The network address used for the server is determined by which
-     * constructor was used to create the <code>Skeleton</code> object.
+     * returns immediately. Connections accepted are served according to the
+     * skeleton's transport, and calls are run by the skeleton's executor. The
+     * network address used for the server is determined by which constructor
+     * was used to create the <code>Skeleton</code> object.
      *
      * @throws RMIException When the listening socket cannot be created or
      * bound, when the listening thread cannot be created, or when the server
@@ -232,9 +359,14 @@ public class Skeleton<T> {
             listenerThreadObj.isStopped = false;
             listenerThreadObj.askedToClose = false;
             try {
-                serverSocket = new ServerSocket(this.address.getPort());
+                ServerSocketChannel channel = ServerSocketChannel.open();
+                channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                channel.bind(new InetSocketAddress(this.address.getPort()));
+                serverSocket = channel.socket();
                 listenerThreadObj.setSoc(serverSocket);
-             //listenerThreadObj.serverSocket = this.serverSocket;
+                if (transport == Transport.SELECTOR) {
+                    startLoops();
+                }
             listenerThread = new Thread(this.listenerThreadObj);
             listenerThread.start();
             } catch (IOException e) {
@@ -249,9 +381,10 @@ public class Skeleton<T> {
      * Stops the skeleton server, if it is already running.
      *
      * <p>
-     * The listening thread terminates. Threads created to service connections
-     * may continue running until their invocations of the <code>service</code>
-     * method return. The server stops at some later time; the method
+     * The listening thread terminates and open client connections are closed.
+     * Threads created to service connections may continue running until their
+     * invocations of the <code>service</code> method return, but their replies
+     * are not delivered. The server stops at some later time; the method
      * <code>stopped</code> is called at that point. The server may then be
      * restarted.
      */
@@ -261,11 +394,90 @@ public class Skeleton<T> {
             if (this.listenerThread!=null) {
                 this.listenerThreadObj.askedToClose = true;
                 this.serverSocket.close();
+                if (loops != null) {
+                    for (SelectorLoop loop : loops) {
+                        loop.shutdown();
+                    }
+                    loops = null;
+                }
+                for (Socket connection : connections) {
+                    closeConnection(connection);
+                }
+                // A channel closed while another thread is blocked accepting on
+                // it is only fully released once that thread wakes up.
+                Thread listener = listenerThread;
                 listenerThread = null;
+                listener.join(LISTENER_JOIN_TIMEOUT);
                 stopped(null);
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
+
+    /** Records a connection accepted by the listening thread. */
+    void openConnection(Socket connection) {
+        connections.add(connection);
+    }
+
+    /** Closes a connection and forgets it, ignoring errors. */
+    void closeConnection(Socket connection) {
+        connections.remove(connection);
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+
+        }
+    }
+
+    /**
+     * Invokes a method of the remote interface and captures its outcome.
+     *
+     * @return The method's result, or an <code>InvocationTargetException</code>
+     * carrying the exception to be rethrown by the stub.
+     */
+    Object serve(int methodId, Object[] args) {
+        try {
+            return invoke(methodId, args);
+        } catch (Throwable t) {
+            return new InvocationTargetException(t);
+        }
+    }
+
+    /**
+     * Returns the server-side metrics of the method with the given ID, or
+     * <code>null</code> if there is no such method.
+     */
+    MethodMetrics metrics(int methodId) {
+        int index = table.indexOf(methodId);
+        return index < 0 ? null : metrics[index];
+    }
+
+    /**
+     * Invokes a method of the remote interface on the server object.
+     *
+     * @param methodId The wire ID of the method, as computed by
+     * <code>MethodTable</code>.
+     * @param args The call arguments, or <code>null</code> if there are none.
+     * @return The result of the call.
+     * @throws RMIException If there is no method with the given ID, or the
+     * number of arguments does not match.
+     * @throws Throwable Any exception raised by the method itself.
+     */
+    Object invoke(int methodId, Object[] args) throws Throwable {
+        int index = table.indexOf(methodId);
+        if (index < 0) {
+            throw new RMIException("no such method: " + methodId);
+        }
+        if (args == null) {
+            args = NO_ARGUMENTS;
+        }
+        if (args.length != table.method(index).getParameterCount()) {
+            throw new RMIException("wrong number of arguments for "
+                    + MethodTable.signature(table.method(index)));
+        }
+        return (Object) handles[index].invokeExact(args);
+    }
+
+    private static final Object[] NO_ARGUMENTS = new Object[0];
 }
@@ -4,6 +4,10 @@ import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /** RMI stub factory.
 
@@ -176,6 +180,164 @@ public abstract class Stub
     }
 
 
+    /** Creates a copy of a stub whose calls are subject to a timeout.
+
+        <p>
+        Every call made through the returned stub fails with an
+        <code>RMIException</code> if it does not complete within the timeout,
+        counted from the start of the call. If the calling thread has
+        installed a <code>Deadline</code>, the earlier of the two applies. The
+        timeout is not transmitted when the stub is sent to another host.
+
+        @param stub The stub to copy.
+        @param timeout The timeout, or zero for none.
+        @param unit Unit of <code>timeout</code>.
+        @return A stub for the same skeleton and interface, equal to
+                <code>stub</code>.
+        @throws NullPointerException If <code>stub</code> or
+                                     <code>unit</code> is <code>null</code>.
+        @throws IllegalArgumentException If <code>stub</code> is not a stub
+                                         created by this class, or
+                                         <code>timeout</code> is negative.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T withTimeout(T stub, long timeout, TimeUnit unit)
+    {
+        if(timeout < 0)
+        {
+            throw new IllegalArgumentException("negative timeout");
+        }
+        MyInvocationHandler handler = handlerOf(stub);
+        return (T) Proxy.newProxyInstance(stub.getClass().getClassLoader(),
+                stub.getClass().getInterfaces(), handler.withTimeout(unit.toNanos(timeout)));
+    }
+
+    /** Creates a stub that hedges idempotent calls across two skeletons.
+
+        <p>
+        Calls to the methods that <code>policy</code> lists as idempotent go
+        to <code>primary</code>, and are repeated on <code>backup</code> if
+        the primary is slow to answer or cannot be reached; the first reply
+        is returned. Other calls go to <code>primary</code> only. See
+        <code>HedgePolicy</code>.
+
+        <p>
+        The returned stub is not serializable, and is equal only to itself.
+
+        @param c A <code>Class</code> object representing the remote
+                 interface.
+        @param primary Stub for the skeleton normally called.
+        @param backup Stub for a skeleton serving the same data.
+        @param policy When and which calls to hedge.
+        @return The hedged stub.
+        @throws NullPointerException If any argument is <code>null</code>.
+        @throws IllegalArgumentException If <code>primary</code> or
+                                         <code>backup</code> is not a stub
+                                         created by this class.
+        @throws Error If <code>c</code> does not represent a remote
+                      interface.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T createHedged(Class<T> c, T primary, T backup,
+                                     HedgePolicy policy)
+    {
+        if(c == null || policy == null)
+        {
+            throw new NullPointerException();
+        }
+        if(!checkInterface(c)) {
+            throw new Error("Error creating client");
+        }
+        HedgingInvocationHandler handler = new HedgingInvocationHandler(
+                primary, handlerOf(primary), handlerOf(backup), policy);
+        return (T) Proxy.newProxyInstance(c.getClassLoader(), new Class<?>[]{c}, handler);
+    }
+
+    /** Returns the invocation handler of a stub created by this class. */
+    private static MyInvocationHandler handlerOf(Object stub)
+    {
+        if(stub == null)
+        {
+            throw new NullPointerException();
+        }
+        if(!Proxy.isProxyClass(stub.getClass())
+                || !(Proxy.getInvocationHandler(stub) instanceof MyInvocationHandler)) {
+            throw new IllegalArgumentException("not a stub");
+        }
+        return (MyInvocationHandler) Proxy.getInvocationHandler(stub);
+    }
+
+    /** Creates an asynchronous view of a stub.
+
+        <p>
+        <code>a</code> must be an interface whose methods each have the same
+        name and parameter types as a method of the remote interface
+        implemented by <code>stub</code>, and return
+        <code>CompletableFuture</code>. Calling a method of the view starts the
+        corresponding call and returns at once. The future is completed with
+        the result of the call, or exceptionally with the exception the
+        synchronous stub would have thrown - an <code>RMIException</code> if
+        the call could not be completed.
+
+        <p>
+        <code>stub</code> may also be a local object implementing the remote
+        interface, in which case the method is run in the background.
+
+        @param a A <code>Class</code> object representing the asynchronous
+                 interface.
+        @param stub The stub or local object to which calls are made.
+        @return The asynchronous view.
+        @throws NullPointerException If any argument is <code>null</code>.
+        @throws Error If <code>a</code> is not an interface, or one of its
+                      methods has no counterpart in a remote interface of
+                      <code>stub</code> or does not return
+                      <code>CompletableFuture</code>.
+     */
+    @SuppressWarnings("unchecked")
+    public static <A> A createAsync(Class<A> a, Object stub)
+    {
+        if(a == null || stub == null)
+        {
+            throw new NullPointerException();
+        }
+        if(!a.isInterface()) {
+            throw new Error(a.getName() + " is not an interface");
+        }
+
+        Map<Method, Method> remoteMethods = new HashMap<>();
+        for (Method method : a.getMethods()) {
+            if(!method.getReturnType().isAssignableFrom(CompletableFuture.class)) {
+                throw new Error(method + " does not return CompletableFuture");
+            }
+            Method remote = remoteMethod(stub, method);
+            if(remote == null) {
+                throw new Error(method + " has no remote counterpart");
+            }
+            remoteMethods.put(method, remote);
+        }
+
+        return (A) Proxy.newProxyInstance(a.getClassLoader(), new Class<?>[]{a},
+                new AsyncInvocationHandler(stub, remoteMethods));
+    }
+
+    /** Finds the method of a remote interface implemented by
+        <code>stub</code> that matches an asynchronous method, or returns
+        <code>null</code>. */
+    private static Method remoteMethod(Object stub, Method async)
+    {
+        for (Class<?> c : stub.getClass().getInterfaces()) {
+            if(c == Serializable.class || !checkInterface(c)) {
+                continue;
+            }
+            try {
+                return c.getMethod(async.getName(), async.getParameterTypes());
+            } catch (NoSuchMethodException e) {
+                // Try the next interface.
+            }
+        }
+        return null;
+    }
+
     /**
      * Function to check if interface being used is Remote.
      */
@@ -0,0 +1,21 @@
+package rmi;
+
+/**
+ * Network transports a skeleton can use to serve its connections.
+ *
+ * <p>
+ * The transport is chosen with <code>Skeleton.setTransport</code> before the
+ * skeleton is started. Both transports speak the same protocol, so stubs do
+ * not need to know which one a skeleton uses.
+ */
+public enum Transport {
+
+    /** Blocking sockets with one thread per open connection. This is the
+        default. It has the lowest latency when there are few connections. */
+    BLOCKING,
+
+    /** Non-blocking channels multiplexed over a small number of selector
+        threads. Open connections cost no threads while they are idle, so this
+        transport suits servers with many mostly idle clients. */
+    SELECTOR
+}
@@ -62,4 +62,12 @@ public interface Command
      */
     public boolean copy(Path file, Storage server)
         throws RMIException, FileNotFoundException, IOException;
+
+    /** Reports the capacity and load of the storage server.
+
+        @return The storage server's current status.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public ServerStatus status() throws RMIException;
 }
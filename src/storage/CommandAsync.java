@@ -0,0 +1,30 @@
+package storage;
+
+import java.util.concurrent.CompletableFuture;
+
+import common.*;
+
+/** Asynchronous view of the storage server command interface.
+
+    <p>
+    Views are created with <code>Stub.createAsync</code> over a
+    <code>Command</code> stub. Each method starts the corresponding
+    <code>Command</code> call and returns at once, letting the naming server
+    issue the same command to several storage servers in parallel. The future
+    is completed with the result of the call, or exceptionally with the
+    exception the <code>Command</code> method would have thrown.
+ */
+public interface CommandAsync
+{
+    /** Starts a call to {@link Command#create(Path)}. */
+    CompletableFuture<Boolean> create(Path file);
+
+    /** Starts a call to {@link Command#delete(Path)}. */
+    CompletableFuture<Boolean> delete(Path path);
+
+    /** Starts a call to {@link Command#copy(Path, Storage)}. */
+    CompletableFuture<Boolean> copy(Path file, Storage server);
+
+    /** Starts a call to {@link Command#status()}. */
+    CompletableFuture<ServerStatus> status();
+}
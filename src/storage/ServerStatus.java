@@ -0,0 +1,58 @@
+package storage;
+
+import java.io.*;
+
+/** Capacity and load of a storage server, as reported to the naming server.
+
+    <p>
+    The naming server polls each storage server for its status, and uses the
+    reports to decide where new files are placed.
+ */
+public final class ServerStatus implements Serializable
+{
+    private static final long   serialVersionUID = 1L;
+
+    private final long          freeSpace;
+    private final long          totalSpace;
+    private final long          requests;
+
+    /** Creates a status report.
+
+        @param freeSpace Bytes available for new data.
+        @param totalSpace Bytes of storage in total.
+        @param requests Client requests served since the server started.
+     */
+    public ServerStatus(long freeSpace, long totalSpace, long requests)
+    {
+        this.freeSpace = freeSpace;
+        this.totalSpace = totalSpace;
+        this.requests = requests;
+    }
+
+    /** Returns the number of bytes available for new data. */
+    public long freeSpace()
+    {
+        return freeSpace;
+    }
+
+    /** Returns the total number of bytes of storage. */
+    public long totalSpace()
+    {
+        return totalSpace;
+    }
+
+    /** Returns the number of client requests served since the server
+        started. The rate at which this count grows measures the server's
+        load. */
+    public long requests()
+    {
+        return requests;
+    }
+
+    @Override
+    public String toString()
+    {
+        return freeSpace + " of " + totalSpace + " bytes free, " + requests +
+            " requests served";
+    }
+}
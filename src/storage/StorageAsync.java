@@ -0,0 +1,27 @@
+package storage;
+
+import java.util.concurrent.CompletableFuture;
+
+import common.*;
+
+/** Asynchronous view of the storage server client interface.
+
+    <p>
+    Views are created with <code>Stub.createAsync</code> over a
+    <code>Storage</code> stub. Each method sends the corresponding
+    <code>Storage</code> request and returns at once, so a client can keep
+    several reads or writes in flight on one connection. The future is
+    completed with the result of the call, or exceptionally with the exception
+    the <code>Storage</code> method would have thrown.
+ */
+public interface StorageAsync
+{
+    /** Starts a call to {@link Storage#size(Path)}. */
+    CompletableFuture<Long> size(Path file);
+
+    /** Starts a call to {@link Storage#read(Path, long, int)}. */
+    CompletableFuture<byte[]> read(Path file, long offset, int length);
+
+    /** Starts a call to {@link Storage#write(Path, long, byte[])}. */
+    CompletableFuture<Void> write(Path file, long offset, byte[] data);
+}
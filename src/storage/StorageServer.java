@@ -2,8 +2,17 @@ package storage;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import common.*;
 import rmi.*;
@@ -25,9 +34,28 @@ public class StorageServer implements Storage, Command
     Storage storageStub;
     Command commandStub;
 
-    Path[] filePaths;
     public File root;
 
+    /** Number of client requests served. */
+    private final AtomicLong requests = new AtomicLong();
+
+    /** Number of regions of each file that are still being sent. Writes and
+        deletions wait until none are left, so a file cannot change while
+        its bytes are on the wire. Guarded by <code>sendingLock</code>, not
+        by this server's monitor: regions are released by the thread sending
+        the reply, which may be a selector thread that must never wait for a
+        slow call such as <code>copy</code>. */
+    private final HashMap<Path, Integer> sending = new HashMap<>();
+    private final ReentrantLock sendingLock = new ReentrantLock();
+    /** Signalled whenever a region is released. */
+    private final Condition regionReleased = sendingLock.newCondition();
+
+    /** Number of files sent to the naming server in each registration
+        batch. Set with the <code>storage.registrationBatch</code> system
+        property. */
+    static final int REGISTRATION_BATCH =
+        Integer.getInteger("storage.registrationBatch", 4096);
+
     /** Creates a storage server, given a directory on the local file//System, and
      ports to use for the client and command interfaces.
 
@@ -77,8 +105,6 @@ public class StorageServer implements Storage, Command
             storageSkeleton = new Skeleton(Storage.class,this);
             commandSkeleton = new Skeleton(Command.class,this);
 
-            this.filePaths = Path.list(root);
-
             ////System.out.println("Skeleton started$$$$$$$$$$$$$$$$$$$$$$$$$$$$$$$$$$");
 
         } catch (Exception e) {
@@ -119,16 +145,75 @@ public class StorageServer implements Storage, Command
 
         ////System.out.println("naming servre " + naming_server.getClass().getName());
         //System.out.println(this.getClass().getName() + ": Start called : Registering the storage server");
-        Path[] delete_files = naming_server.register(storageStub, commandStub, filePaths);
+        registerFiles(naming_server);
+
+        //throw new UnsupportedOperationException("not implemented");
+    }
+
+    /** Sends the files in the local directory tree to the naming server, in
+        batches, and deletes the duplicates it returns.
+
+        <p>
+        The tree is walked with each directory listed in name order, so the
+        files are sent in the order of <code>Path.compareTo</code>, and only
+        one batch is held in memory at a time.
+     */
+    private void registerFiles(Registration naming_server)
+            throws RMIException, FileNotFoundException
+    {
+        if(!this.root.isDirectory()) {
+            throw new FileNotFoundException(this.root + " is not a directory");
+        }
 
-        if(delete_files.length > 0) {
-            for(Path path : delete_files)
-            {
-                delete(path);
+        naming_server.beginRegistration(storageStub, commandStub);
+
+        ArrayList<Path> batch = new ArrayList<>(REGISTRATION_BATCH);
+        walk(this.root, new Path(), batch, naming_server);
+        sendBatch(batch, naming_server);
+
+        naming_server.endRegistration(commandStub);
+    }
+
+    private void walk(File directory, Path path, ArrayList<Path> batch,
+                      Registration naming_server) throws RMIException
+    {
+        String[] names = directory.list();
+        if(names == null) {
+            return;
+        }
+        Arrays.sort(names);
+
+        for(String name : names) {
+            File file = new File(directory, name);
+            Path child = new Path(path, name);
+
+            if(file.isDirectory()) {
+                walk(file, child, batch, naming_server);
+            } else {
+                batch.add(child);
+                if(batch.size() >= REGISTRATION_BATCH) {
+                    sendBatch(batch, naming_server);
+                }
             }
         }
+    }
 
-        //throw new UnsupportedOperationException("not implemented");
+    private void sendBatch(ArrayList<Path> batch, Registration naming_server)
+            throws RMIException
+    {
+        if(batch.isEmpty()) {
+            return;
+        }
+
+        Path[] delete_files = naming_server.registerBatch(commandStub,
+                                                          batch.toArray(new Path[0]));
+        batch.clear();
+
+        // Deleting a file also prunes the directories it leaves empty. The
+        // walk has already listed them, and finds nothing left in them.
+        for(Path path : delete_files) {
+            delete(path);
+        }
     }
 
     private void startSkeleton(String hostname)
@@ -182,6 +267,7 @@ public class StorageServer implements Storage, Command
      */
     public synchronized long size(Path file) throws FileNotFoundException
     {
+        this.requests.incrementAndGet();
         File f = new File(this.root.getAbsolutePath() + "/" +file.toString());
         // throw new UnsupportedOperationException("not implemented");
 
@@ -214,9 +300,35 @@ public class StorageServer implements Storage, Command
     public synchronized byte[] read(Path file, long offset, int length)
             throws FileNotFoundException, IOException
     {
-        byte[] datum = null;
+        // Counted as a request by readRegion.
+        return readRegion(file, offset, length).toByteArray();
+    }
+
+    /** Reads a sequence of bytes from a file without copying it into memory.
+
+     <p>
+     The skeleton calls this method instead of <code>read</code>, and sends the
+     bytes straight from the file to the connection. See
+     <code>rmi.FileRegion</code>. Until the region has been sent, writes to the
+     file and deletions of it wait.
+
+     @param file Path to the file.
+     @param offset Offset into the file to the beginning of the sequence.
+     @param length The number of bytes to be read.
+     @return The region of the file holding the bytes.
+     @throws IndexOutOfBoundsException If the sequence specified by
+     <code>offset</code> and <code>length</code> is outside the bounds of the
+     file, or if <code>length</code> is negative.
+     @throws FileNotFoundException If the file cannot be found or the path
+     refers to a directory.
+     @throws IOException If the file cannot be opened.
+     */
+    @FileRegion.Answers("read")
+    public synchronized FileRegion readRegion(Path file, long offset, int length)
+            throws FileNotFoundException, IOException
+    {
+        this.requests.incrementAndGet();
         File f = new File(this.root.getAbsolutePath() + "/" +file.toString());
-        // throw new UnsupportedOperationException("not implemented");
 
         if( !f.exists() ||  f.isDirectory()) {
             throw new FileNotFoundException();
@@ -226,12 +338,69 @@ public class StorageServer implements Storage, Command
             throw new IndexOutOfBoundsException();
         }
 
-        RandomAccessFile data = new RandomAccessFile(f, "r");
-        datum = new byte[length];
-        data.seek(offset);
-        data.readFully(datum,0, length);
-        data.close();
-        return datum;
+        FileChannel data = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+        sendingLock.lock();
+        try {
+            sending.merge(file, 1, Integer::sum);
+        }
+        finally {
+            sendingLock.unlock();
+        }
+        return new FileRegion(data, offset, length, () -> sent(file));
+    }
+
+    /** Records that a region of a file has been sent or abandoned, and wakes
+        writes waiting for the file. Does not take this server's monitor. */
+    private void sent(Path file)
+    {
+        sendingLock.lock();
+        try {
+            if(sending.merge(file, -1, Integer::sum) == 0) {
+                sending.remove(file);
+            }
+            regionReleased.signalAll();
+        }
+        finally {
+            sendingLock.unlock();
+        }
+    }
+
+    /** Waits until no region of the given file, or of any file under the
+        given directory, is being sent. Called with this server's monitor
+        held, so no new region of the file can be created meanwhile; regions
+        already out are released without the monitor.
+
+     @throws InterruptedIOException If the thread is interrupted while
+     waiting.
+     */
+    private void awaitSent(Path path) throws InterruptedIOException
+    {
+        sendingLock.lock();
+        try {
+            while(isSending(path)) {
+                regionReleased.await();
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for " + path);
+        }
+        finally {
+            sendingLock.unlock();
+        }
+    }
+
+    /** Returns <code>true</code> if a region of the given file, or of any
+        file under the given directory, is being sent. Must be called with
+        <code>sendingLock</code> held. */
+    private boolean isSending(Path path)
+    {
+        for(Path file : sending.keySet()) {
+            if(file.isSubpath(path)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /** Writes bytes to a file.
@@ -248,6 +417,7 @@ public class StorageServer implements Storage, Command
     @Override
     public synchronized void write(Path file, long offset, byte[] data)
             throws FileNotFoundException, IOException {
+        this.requests.incrementAndGet();
 
         if(data == null) {
             ////System.out.println(" Data  = null");
@@ -268,11 +438,13 @@ public class StorageServer implements Storage, Command
             throw new IndexOutOfBoundsException();
         }
 
-        RandomAccessFile dataFile = new RandomAccessFile(f, "rw");
-        ////System.out.println("Writing to offset");
-        dataFile.seek(offset);
-        dataFile.write(data);
-        dataFile.close();
+        awaitSent(file);
+        try (FileChannel dataFile = FileChannel.open(f.toPath(), StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                dataFile.write(buffer, offset + buffer.position());
+            }
+        }
         ////System.out.println("Write completed");
     }
 
@@ -394,6 +566,8 @@ public class StorageServer implements Storage, Command
                 return false;
             }
 
+            awaitSent(path);
+
             if(file.delete()) {
                 ans = true;
                 ////System.out.println(file.getName() + " - deleted" + "\n");
@@ -428,6 +602,17 @@ public class StorageServer implements Storage, Command
     }
 
 
+    /** Reports the space left in the local directory and the number of
+        client requests served. Not synchronized, so the naming server can
+        poll a storage server that is busy, or still registering. */
+    @Override
+    public ServerStatus status()
+    {
+        return new ServerStatus(this.root.getUsableSpace(),
+                                this.root.getTotalSpace(),
+                                this.requests.get());
+    }
+
     @Override
     public synchronized boolean copy(Path file, Storage server)
             throws RMIException, FileNotFoundException, IOException
@@ -440,6 +625,7 @@ public class StorageServer implements Storage, Command
         int len  = 0;
         byte[] byteArray;
         File f = new File(this.root.toString() + file.toString());
+        awaitSent(file);
         if(f.exists()) {
             //System.out.println("New file creation started");
             f.delete();
@@ -5,7 +5,20 @@ import test.*;
 /** Runs all unit tests on distributed filesystem components.
 
     <p>
-    There are currently no unit tests.
+    Tests performed are:
+    <ul>
+    <li>{@link rmi.RequestExecutorTest}</li>
+    <li>{@link rmi.CodecTest}</li>
+    <li>{@link rmi.PipeliningTest}</li>
+    <li>{@link rmi.LatencyHistogramTest}</li>
+    <li>{@link rmi.DeadlineTest}</li>
+    <li>{@link naming.LockManagerTest}</li>
+    <li>{@link naming.LeaseTest}</li>
+    <li>{@link naming.JournalTest}</li>
+    <li>{@link naming.ReplicatorTest}</li>
+    <li>{@link naming.AccessSketchTest}</li>
+    <li>{@link naming.PlacementTest}</li>
+    </ul>
  */
 public class UnitTests
 {
@@ -18,7 +31,17 @@ public class UnitTests
         // Create the test list, the series object, and run the test series.
         @SuppressWarnings("unchecked")
         Class<? extends Test>[]     tests =
-            new Class[] {};
+            new Class[] {rmi.RequestExecutorTest.class,
+                         rmi.CodecTest.class,
+                         rmi.PipeliningTest.class,
+                         rmi.LatencyHistogramTest.class,
+                         rmi.DeadlineTest.class,
+                         naming.LockManagerTest.class,
+                         naming.LeaseTest.class,
+                         naming.JournalTest.class,
+                         naming.ReplicatorTest.class,
+                         naming.AccessSketchTest.class,
+                         naming.PlacementTest.class};
         Series                      series = new Series(tests);
         SeriesReport                report = series.run(3, System.out);
 
@@ -0,0 +1,137 @@
+package naming;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import test.*;
+import common.*;
+
+/** Checks the decaying read counts used to decide replication.
+
+    <p>
+    The estimated count of a path must never fall short of its true count,
+    even when it is updated by many threads at once, and must stay close to
+    it for frequently read paths among many rarely read ones. Counts must
+    halve with each half-life.
+ */
+public class AccessSketchTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking decaying read counts";
+
+    /** Half-life used in the decay check, in milliseconds of the test's
+        clock. */
+    private static final long   HALF_LIFE = 200;
+
+    /** Threads updating the sketch concurrently. */
+    private final ExecutorService   threads = Executors.newFixedThreadPool(4);
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            checkAccuracy();
+            checkConcurrency();
+            checkDecay();
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Checks estimates of hot paths among many cold ones. */
+    private void checkAccuracy() throws TestFailed
+    {
+        AccessSketch    sketch = new AccessSketch(1 << 12, 60000);
+
+        for(int index = 0; index < 10000; ++index)
+            sketch.record(new Path("/cold/file" + index));
+        for(int index = 0; index < 1000; ++index)
+        {
+            for(int hot = 0; hot < 10; ++hot)
+                sketch.record(new Path("/hot/file" + hot));
+        }
+
+        for(int hot = 0; hot < 10; ++hot)
+        {
+            int estimate = sketch.estimate(new Path("/hot/file" + hot));
+            if(estimate < 1000)
+                throw new TestFailed("count underestimated: " + estimate);
+            if(estimate > 1050)
+                throw new TestFailed("count overestimated: " + estimate);
+        }
+
+        if(sketch.estimate(new Path("/never/read")) > 50)
+            throw new TestFailed("unread path has a large count");
+    }
+
+    /** Checks that concurrent updates are not lost. */
+    private void checkConcurrency() throws Exception
+    {
+        AccessSketch    sketch = new AccessSketch(1 << 12, 60000);
+        Path            path = new Path("/shared");
+
+        Future<?>[]     updates = new Future<?>[4];
+        for(int thread = 0; thread < updates.length; ++thread)
+        {
+            updates[thread] = threads.submit(() ->
+            {
+                for(int index = 0; index < 10000; ++index)
+                    sketch.record(path);
+            });
+        }
+        for(Future<?> update : updates)
+            update.get();
+
+        if(sketch.estimate(path) < 40000)
+            throw new TestFailed("concurrent updates lost");
+    }
+
+    /** Checks that counts halve with each half-life, by a clock the test
+        advances itself. */
+    private void checkDecay() throws TestFailed
+    {
+        AtomicLong      now = new AtomicLong();
+        AccessSketch    sketch = new AccessSketch(1 << 8, HALF_LIFE, now::get);
+        Path            path = new Path("/decaying");
+
+        for(int index = 0; index < 1024; ++index)
+            sketch.record(path);
+
+        now.set(HALF_LIFE - 1);
+        expect(sketch.estimate(path), 1024, "count decayed early");
+
+        now.set(HALF_LIFE);
+        expect(sketch.estimate(path), 512,
+               "count not halved after one half-life");
+
+        // Several half-lives passing between updates are all applied.
+        now.set(3 * HALF_LIFE + HALF_LIFE / 2);
+        expect(sketch.estimate(path), 128,
+               "count not halved for each half-life");
+
+        now.set(4 * HALF_LIFE - 1);
+        expect(sketch.record(path), 129, "read not counted after decay");
+    }
+
+    private static void expect(int estimate, int expected, String message)
+        throws TestFailed
+    {
+        if(estimate != expected)
+            throw new TestFailed(message + ": " + estimate);
+    }
+
+    /** Stops the updating threads. */
+    @Override
+    protected void clean()
+    {
+        threads.shutdownNow();
+    }
+}
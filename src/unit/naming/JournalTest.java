@@ -0,0 +1,154 @@
+package naming;
+
+import java.io.*;
+import java.util.*;
+
+import test.*;
+import common.*;
+
+/** Checks the naming server's write-ahead journal.
+
+    <p>
+    Records synced before the journal is closed must be replayed, in order,
+    when it is opened again. A snapshot must stand in for the records it
+    includes, and records appended after it must follow it on replay. A torn
+    record at the end of the journal, as left by a crash, must end the replay
+    without failing it.
+ */
+public class JournalTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking naming server journal";
+
+    private final Path          directory = new Path("/directory");
+    private final Path          file = new Path("/directory/file");
+    private final Path          other = new Path("/other");
+
+    /** Directory holding the journal. */
+    private TemporaryDirectory  temporary = null;
+    /** Journal currently open. */
+    private Journal             journal = null;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            temporary = new TemporaryDirectory();
+
+            // Synced records are replayed in order.
+            List<String>    replayed = reopen();
+            expect(replayed, "nothing replayed from an empty journal");
+            journal.append(Journal.CREATE_DIRECTORY, directory);
+            journal.append(Journal.CREATE_FILE, file);
+            journal.sync(journal.append(Journal.CREATE_FILE, other));
+
+            replayed = reopen();
+            expect(replayed, "records not replayed in order",
+                   "1 /directory", "2 /directory/file", "2 /other");
+
+            // A snapshot replaces the records it includes.
+            journal.append(Journal.DELETE, other);
+            long            sequence = journal.rotate();
+            journal.sync(journal.append(Journal.CREATE_FILE, other));
+            journal.writeSnapshot(sequence, Arrays.asList(
+                entry(directory, Journal.CREATE_DIRECTORY),
+                entry(file, Journal.CREATE_FILE)));
+
+            replayed = reopen();
+            expect(replayed, "snapshot and later records not replayed",
+                   "1 /directory", "2 /directory/file", "2 /other");
+
+            // A torn record ends the replay.
+            journal.sync(journal.append(Journal.DELETE, file));
+            journal.close();
+            journal = null;
+            tear();
+
+            replayed = reopen();
+            expect(replayed, "torn record replayed",
+                   "1 /directory", "2 /directory/file", "2 /other");
+
+            // The journal continues after the torn record.
+            journal.sync(journal.append(Journal.DELETE, directory));
+            replayed = reopen();
+            expect(replayed, "record after torn record not replayed",
+                   "1 /directory", "2 /directory/file", "2 /other",
+                   "3 /directory");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Closes the current journal, if any, opens it again and returns the
+        replayed changes. */
+    private List<String> reopen() throws IOException
+    {
+        List<String>    replayed = new ArrayList<>();
+
+        if(journal != null)
+            journal.close();
+        journal = new Journal(temporary.root(), (kind, path) ->
+            replayed.add(kind + " " + path));
+
+        return replayed;
+    }
+
+    /** Cuts the last byte off the newest journal segment. */
+    private void tear() throws IOException
+    {
+        File    newest = null;
+        long    first = -1;
+
+        for(File segment : temporary.root().listFiles())
+        {
+            String  name = segment.getName();
+            if(!name.startsWith("journal-") || segment.length() == 0)
+                continue;
+
+            long    sequence = Long.parseLong(name.substring(8));
+            if(sequence > first)
+            {
+                newest = segment;
+                first = sequence;
+            }
+        }
+
+        if(newest == null)
+            throw new IOException("no journal segment written");
+
+        try(RandomAccessFile segment = new RandomAccessFile(newest, "rw"))
+        {
+            segment.setLength(segment.length() - 1);
+        }
+    }
+
+    private static Map.Entry<Path, Byte> entry(Path path, byte kind)
+    {
+        return new AbstractMap.SimpleImmutableEntry<>(path, kind);
+    }
+
+    private static void expect(List<String> replayed, String message,
+                               String... expected) throws TestFailed
+    {
+        if(!replayed.equals(Arrays.asList(expected)))
+            throw new TestFailed(message + ": " + replayed);
+    }
+
+    /** Closes the journal and removes its directory. */
+    @Override
+    protected void clean()
+    {
+        if(journal != null)
+            journal.close();
+        if(temporary != null)
+            temporary.remove();
+    }
+}
@@ -0,0 +1,119 @@
+package naming;
+
+import java.util.concurrent.*;
+
+import test.*;
+import common.*;
+
+/** Checks leases granted by the naming server.
+
+    <p>
+    A renewed lease must outlive its term. A lease must be recalled, and
+    refuse renewal, when a conflicting request waits for it, and a lease that
+    is neither renewed nor released must expire and let the waiting request
+    through.
+ */
+public class LeaseTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking naming server leases";
+
+    /** Lease term used in the test, in milliseconds. */
+    private static final long   TERM = 200;
+
+    private final Path          directory = new Path("/directory");
+    private final Path          file = new Path("/directory/file");
+
+    private final LockManager   locks = new LockManager();
+    private final LeaseTable    leases = new LeaseTable(locks, TERM);
+    /** Threads running blocked requests. */
+    private final ExecutorService   threads = Executors.newCachedThreadPool();
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            // Renewal keeps a lease past its term.
+            Lease   shared = leases.grant(file, false);
+            for(int renewal = 0; renewal < 4; ++renewal)
+            {
+                Thread.sleep(TERM / 2);
+                if(!leases.renew(shared.id()))
+                    throw new TestFailed("renewal of lease in force refused");
+            }
+
+            // A conflicting request recalls the lease.
+            Future<?>   writer = threads.submit(() -> lock(directory, true));
+            waitFor(() -> !leases.renew(shared.id()),
+                    "lease not recalled by conflicting request");
+            if(writer.isDone())
+                throw new TestFailed("conflicting request granted with " +
+                                     "lease in force");
+            leases.release(shared.id());
+            writer.get(TERM, TimeUnit.MILLISECONDS);
+
+            // An abandoned lease expires.
+            leases.grant(directory, true);
+            long        started = System.currentTimeMillis();
+            Future<?>   reader = threads.submit(() -> lock(file, false));
+            reader.get(10 * TERM, TimeUnit.MILLISECONDS);
+            if(System.currentTimeMillis() - started < TERM / 2)
+                throw new TestFailed("request granted before lease expired");
+
+            waitFor(() -> leases.size() == 0 && locks.size() == 0,
+                    "leases or locks left behind");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Locks and unlocks a path as the naming server does for a lock
+        request. */
+    private Void lock(Path path, boolean exclusive) throws InterruptedException
+    {
+        Path[]      paths = new Path[] {path};
+        boolean[]   modes = new boolean[] {exclusive};
+
+        LeaseTable.Request  request = leases.begin(paths, modes);
+        try
+        {
+            locks.lock(paths, modes);
+        }
+        finally
+        {
+            leases.end(request);
+        }
+        locks.unlock(paths, modes);
+        return null;
+    }
+
+    /** Waits up to one lease term for a condition to hold. */
+    private void waitFor(Callable<Boolean> condition, String message)
+        throws Exception
+    {
+        long    limit = System.currentTimeMillis() + TERM;
+
+        while(!condition.call())
+        {
+            if(System.currentTimeMillis() > limit)
+                throw new TestFailed(message);
+            Thread.sleep(10);
+        }
+    }
+
+    /** Stops the test threads and the lease timer. */
+    @Override
+    protected void clean()
+    {
+        threads.shutdownNow();
+        leases.shutdown();
+    }
+}
@@ -0,0 +1,221 @@
+package naming;
+
+import java.util.concurrent.*;
+
+import test.*;
+import common.*;
+
+/** Checks the hierarchical lock manager.
+
+    <p>
+    An exclusive lock on a directory must exclude lockers of its subtree,
+    while a shared lock on a directory must not exclude writers of the files
+    below it. A shared request arriving behind a waiting exclusive request
+    must wait for it. Entries must be dropped once their paths are no longer
+    locked, and an interrupted or timed out request must leave no lock
+    behind. Contended acquisitions and timeouts must be counted. A batch
+    request must lock each path, and the entries it shares, once.
+ */
+public class LockManagerTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking hierarchical lock manager";
+
+    /** Time after which a blocked request is presumed to stay blocked, in
+        milliseconds. */
+    private static final long   BLOCKED = 200;
+
+    private final Path          directory = new Path("/directory");
+    private final Path          file = new Path("/directory/file");
+
+    /** Threads running blocked requests. */
+    private final ExecutorService   threads = Executors.newCachedThreadPool();
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        LockManager     locks = new LockManager();
+
+        try
+        {
+            // A shared directory does not exclude writers below it.
+            locks.lock(directory, false);
+            locks.lock(file, true);
+            locks.unlock(file, true);
+
+            // A shared request queued behind an exclusive one must wait.
+            Future<?>   writer = threads.submit(() -> lockAndUnlock(locks, directory, true));
+            expectBlocked(writer, "exclusive request granted with shared lock held");
+            Future<?>   reader = threads.submit(() -> lockAndUnlock(locks, directory, false));
+            expectBlocked(reader, "shared request overtook waiting exclusive request");
+            locks.unlock(directory, false);
+            writer.get();
+            reader.get();
+
+            // An exclusive directory excludes its subtree.
+            locks.lock(directory, true);
+            Future<?>   child = threads.submit(() -> lockAndUnlock(locks, file, false));
+            expectBlocked(child, "file locked under exclusively locked directory");
+            locks.unlock(directory, true);
+            child.get();
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+
+        if(locks.size() != 0)
+            throw new TestFailed(locks.size() + " entries left after unlocking");
+
+        try
+        {
+            locks.unlock(file, false);
+            throw new TestFailed("unlock of unlocked path accepted");
+        }
+        catch(IllegalArgumentException e) { }
+
+        testInterruption(locks);
+        testTimeout(locks);
+        testBatch(locks);
+
+        LockStatistics  statistics = locks.statistics();
+        if(statistics.getContended() == 0 || statistics.waits().count() == 0)
+            throw new TestFailed("contended acquisitions not recorded");
+        if(statistics.getTimeouts() != 1)
+            throw new TestFailed("expected one timeout, counted " +
+                                 statistics.getTimeouts());
+    }
+
+    /** Checks that a batch request locks and releases its whole set. */
+    private void testBatch(LockManager locks) throws TestFailed
+    {
+        Path[]      paths = new Path[] {file, directory, file};
+        boolean[]   exclusive = new boolean[] {false, false, true};
+
+        try
+        {
+            locks.lock(paths, exclusive);
+            if(locks.size() != 3)
+                throw new TestFailed("batch request holds " + locks.size() +
+                                     " entries instead of 3");
+
+            Future<?>   writer = threads.submit(() -> lockAndUnlock(locks, directory, true));
+            expectBlocked(writer, "directory locked exclusively while " +
+                          "locked by a batch request");
+            Future<?>   reader = threads.submit(() -> lockAndUnlock(locks, file, false));
+            locks.unlock(paths, exclusive);
+            writer.get();
+            reader.get();
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+
+        if(locks.size() != 0)
+            throw new TestFailed("batch request left entries behind");
+
+        try
+        {
+            locks.lock(paths, new boolean[1]);
+            throw new TestFailed("batch request with mismatched arrays " +
+                                 "accepted");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(IllegalArgumentException e) { }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Checks that a timed request gives up and releases its ancestors. */
+    private void testTimeout(LockManager locks) throws TestFailed
+    {
+        try
+        {
+            locks.lock(file, true);
+            if(locks.tryLock(file, false, BLOCKED, TimeUnit.MILLISECONDS))
+                throw new TestFailed("timed request granted with exclusive " +
+                                     "lock held");
+            locks.unlock(file, true);
+
+            if(!locks.tryLock(directory, true, BLOCKED, TimeUnit.MILLISECONDS))
+                throw new TestFailed("timed request not granted on free path");
+            locks.unlock(directory, true);
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+
+        if(locks.size() != 0)
+            throw new TestFailed("timed out request left entries behind");
+    }
+
+    /** Checks that an interrupted request releases what it acquired. */
+    private void testInterruption(LockManager locks) throws TestFailed
+    {
+        try
+        {
+            locks.lock(file, true);
+            Future<?>   waiter = threads.submit(() -> lockAndUnlock(locks, file, false));
+            expectBlocked(waiter, "shared request granted with exclusive lock held");
+            waiter.cancel(true);
+            locks.unlock(file, true);
+
+            // The interrupted request must not hold the directory.
+            locks.lock(directory, true);
+            locks.unlock(directory, true);
+
+            // The interrupted thread may still be dropping its references.
+            long    limit = System.currentTimeMillis() + BLOCKED;
+            while(locks.size() != 0 && System.currentTimeMillis() < limit)
+                Thread.sleep(10);
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+
+        if(locks.size() != 0)
+            throw new TestFailed("interrupted request left entries behind");
+    }
+
+    /** Fails the test if the request completes within <code>BLOCKED</code>
+        milliseconds. */
+    private void expectBlocked(Future<?> request, String message)
+        throws Exception
+    {
+        try
+        {
+            request.get(BLOCKED, TimeUnit.MILLISECONDS);
+            throw new TestFailed(message);
+        }
+        catch(TimeoutException e) { }
+    }
+
+    private static Void lockAndUnlock(LockManager locks, Path path,
+                                      boolean exclusive)
+        throws InterruptedException
+    {
+        locks.lock(path, exclusive);
+        locks.unlock(path, exclusive);
+        return null;
+    }
+
+    /** Stops the test threads. */
+    @Override
+    protected void clean()
+    {
+        threads.shutdownNow();
+    }
+}
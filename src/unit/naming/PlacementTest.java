@@ -0,0 +1,186 @@
+package naming;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import test.*;
+import common.*;
+import storage.*;
+
+/** Checks the placement policies.
+
+    <p>
+    The least-used policy must pick the server with the most free space. The
+    two-choices policy must never pick the more loaded of two servers, and
+    must spread files over servers of equal load. Consistent hashing must
+    place a path on the same server every time, spread paths over all
+    servers, and move only the paths claimed by a new server when one is
+    added.
+ */
+public class PlacementTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking file placement policies";
+
+    /** Number of paths placed in the distribution checks. */
+    private static final int    FILES = 10000;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        checkLeastUsed();
+        checkTwoChoices();
+        checkConsistentHash();
+    }
+
+    private void checkLeastUsed() throws TestFailed
+    {
+        List<PlacementPolicy.Candidate> candidates = Arrays.asList(
+            candidate("a", 100, 0), candidate("b", 300, 5),
+            candidate("c", 300, 1), candidate("d", -1, 0));
+
+        PlacementPolicy policy = PlacementPolicy.named("least-used");
+        if(!policy.place(file(0), candidates).command().toString().equals("c"))
+            throw new TestFailed("least-used policy ignored free space or load");
+    }
+
+    private void checkTwoChoices() throws TestFailed
+    {
+        PlacementPolicy policy = PlacementPolicy.named("two-choices");
+
+        // Of two servers, the less loaded one always wins.
+        List<PlacementPolicy.Candidate> pair = Arrays.asList(
+            candidate("busy", 100, 10), candidate("idle", 100, 1));
+        for(int index = 0; index < 100; ++index)
+        {
+            if(!policy.place(file(index), pair).command().toString()
+                   .equals("idle"))
+            {
+                throw new TestFailed("two-choices policy picked the more " +
+                                     "loaded server");
+            }
+        }
+
+        // The most loaded of several servers never wins, and servers of equal
+        // load share the files.
+        List<PlacementPolicy.Candidate> several = new ArrayList<>();
+        for(int server = 0; server < 4; ++server)
+            several.add(candidate("s" + server, 100, 1));
+        several.add(candidate("busiest", 100, 100));
+
+        Map<String, Integer> counts = place(policy, several);
+        if(counts.containsKey("busiest"))
+            throw new TestFailed("two-choices policy picked the most loaded " +
+                                 "server");
+        checkSpread(counts, 4, "two-choices");
+    }
+
+    private void checkConsistentHash() throws TestFailed
+    {
+        PlacementPolicy policy = PlacementPolicy.named("consistent-hash");
+
+        List<PlacementPolicy.Candidate> four = new ArrayList<>();
+        for(int server = 0; server < 4; ++server)
+            four.add(candidate("s" + server, 100, 0));
+
+        String[]    before = new String[FILES];
+        for(int index = 0; index < FILES; ++index)
+            before[index] = policy.place(file(index), four).command().toString();
+        checkSpread(place(policy, four), 4, "consistent-hash");
+
+        for(int index = 0; index < FILES; ++index)
+        {
+            if(!policy.place(file(index), four).command().toString()
+                   .equals(before[index]))
+            {
+                throw new TestFailed("consistent-hash policy moved a path " +
+                                     "without a change of servers");
+            }
+        }
+
+        // A new server takes paths only for itself.
+        List<PlacementPolicy.Candidate> five = new ArrayList<>(four);
+        five.add(candidate("s4", 100, 0));
+        int         moved = 0;
+        for(int index = 0; index < FILES; ++index)
+        {
+            String  server = policy.place(file(index), five).command().toString();
+            if(server.equals(before[index]))
+                continue;
+            if(!server.equals("s4"))
+                throw new TestFailed("consistent-hash policy moved a path " +
+                                     "between existing servers");
+            ++moved;
+        }
+
+        if(moved < FILES / 10 || moved > FILES * 3 / 10)
+            throw new TestFailed("new server took " + moved + " of " + FILES +
+                                 " paths");
+    }
+
+    /** Places many paths and counts them by server. */
+    private Map<String, Integer> place(PlacementPolicy policy,
+                                       List<PlacementPolicy.Candidate> candidates)
+    {
+        Map<String, Integer>    counts = new HashMap<>();
+
+        for(int index = 0; index < FILES; ++index)
+        {
+            String  server = policy.place(file(index), candidates).command()
+                                   .toString();
+            counts.merge(server, 1, Integer::sum);
+        }
+
+        return counts;
+    }
+
+    /** Checks that paths are spread over the given number of servers, none
+        taking less than half or more than twice its share. */
+    private void checkSpread(Map<String, Integer> counts, int servers,
+                             String policy) throws TestFailed
+    {
+        if(counts.size() != servers)
+            throw new TestFailed(policy + " policy used " + counts.size() +
+                                 " of " + servers + " servers");
+
+        int     share = FILES / servers;
+        for(int count : counts.values())
+        {
+            if(count < share / 2 || count > share * 2)
+                throw new TestFailed(policy + " policy spread paths " +
+                                     "unevenly: " + counts);
+        }
+    }
+
+    private static Path file(int index)
+    {
+        return new Path("/directory" + index % 97 + "/file" + index);
+    }
+
+    /** Creates a candidate whose command stub is named by its string
+        form. */
+    private static PlacementPolicy.Candidate candidate(String name,
+                                                       long freeSpace,
+                                                       double load)
+    {
+        Command command = (Command)Proxy.newProxyInstance(
+            Command.class.getClassLoader(), new Class<?>[] {Command.class},
+            (proxy, method, arguments) ->
+            {
+                switch(method.getName())
+                {
+                case "equals":      return proxy == arguments[0];
+                case "hashCode":    return System.identityHashCode(proxy);
+                case "toString":    return name;
+                default:
+                    throw new UnsupportedOperationException();
+                }
+            });
+
+        return new PlacementPolicy.Candidate(command, freeSpace, load);
+    }
+}
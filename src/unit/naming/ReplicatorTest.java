@@ -0,0 +1,200 @@
+package naming;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import test.*;
+import common.*;
+import storage.*;
+
+/** Checks the background replicator.
+
+    <p>
+    A copy already pending must not be submitted again. No target server
+    may make more copies at a time than its limit, while copies to different
+    servers proceed independently. Copies to a server with a bandwidth must
+    be spread out according to their sizes, and every copy must be reported
+    on completion, whether it succeeds or fails.
+ */
+public class ReplicatorTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking background replication";
+
+    /** Size reported for every file, in bytes. */
+    private static final long   SIZE = 100;
+
+    private final Storage       source = storage();
+    /** Completed copies, by file. */
+    private final Map<Path, Boolean>    reports = new ConcurrentHashMap<>();
+    private Replicator          replicator = null;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            checkLimits();
+            checkBandwidth();
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Checks deduplication, per-server concurrency and reporting. */
+    private void checkLimits() throws Exception
+    {
+        replicator = new Replicator(2, 0, this::report);
+
+        CountDownLatch  release = new CountDownLatch(1);
+        FakeCommand     first = new FakeCommand(release, false);
+        FakeCommand     second = new FakeCommand(release, true);
+
+        for(int index = 0; index < 5; ++index)
+        {
+            if(!replicator.submit(file(index), first.stub, source, index))
+                throw new TestFailed("copy refused");
+        }
+        if(replicator.submit(file(0), first.stub, source, 0))
+            throw new TestFailed("pending copy submitted twice");
+        if(!replicator.submit(file(0), second.stub, source, 0))
+            throw new TestFailed("copy to another server refused");
+
+        // Both servers start copying, each up to its limit.
+        long    limit = System.currentTimeMillis() + 1000;
+        while(first.running.get() < 2 || second.running.get() < 1)
+        {
+            if(System.currentTimeMillis() > limit)
+                throw new TestFailed("copies not started");
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        if(first.running.get() != 2)
+            throw new TestFailed("server copying more than its limit");
+        if(replicator.pending() != 6)
+            throw new TestFailed("wrong number of pending copies");
+
+        release.countDown();
+        if(!replicator.awaitIdle(1, TimeUnit.SECONDS))
+            throw new TestFailed("copies not completed");
+
+        if(first.peak.get() != 2)
+            throw new TestFailed("server limit not used: " + first.peak.get());
+        if(replicator.completed() != 5 || replicator.failed() != 1)
+            throw new TestFailed("copies counted wrongly");
+        if(reports.size() != 5 || !reports.containsValue(false))
+            throw new TestFailed("copies not reported");
+
+        // A completed copy may be submitted again.
+        if(!replicator.submit(file(1), first.stub, source, 1))
+            throw new TestFailed("completed copy refused");
+        replicator.awaitIdle(1, TimeUnit.SECONDS);
+        replicator.shutdown();
+    }
+
+    /** Checks that copies to a server are paced by its bandwidth. */
+    private void checkBandwidth() throws Exception
+    {
+        // Five copies of SIZE bytes at 10 * SIZE bytes per second take at
+        // least 400 milliseconds to start.
+        replicator = new Replicator(5, 10 * SIZE, this::report);
+        FakeCommand     target = new FakeCommand(new CountDownLatch(0), false);
+
+        long    started = System.currentTimeMillis();
+        for(int index = 0; index < 5; ++index)
+            replicator.submit(file(index), target.stub, source, index);
+        if(!replicator.awaitIdle(5, TimeUnit.SECONDS))
+            throw new TestFailed("paced copies not completed");
+
+        long    elapsed = System.currentTimeMillis() - started;
+        if(elapsed < 350)
+            throw new TestFailed("copies not paced: " + elapsed + " ms");
+    }
+
+    private void report(Path file, Command target, long version,
+                        boolean copied)
+    {
+        reports.merge(file, copied, Boolean::logicalAnd);
+    }
+
+    private static Path file(int index)
+    {
+        return new Path("/file" + index);
+    }
+
+    /** Creates a storage server stub reporting the same size for every
+        file. */
+    private static Storage storage()
+    {
+        return (Storage)Proxy.newProxyInstance(
+            Storage.class.getClassLoader(), new Class<?>[] {Storage.class},
+            (proxy, method, arguments) ->
+            {
+                if(method.getName().equals("size"))
+                    return SIZE;
+                return identity(proxy, method, arguments);
+            });
+    }
+
+    /** Implements the <code>Object</code> methods of a fake stub. */
+    private static Object identity(Object proxy, Method method,
+                                   Object[] arguments)
+    {
+        switch(method.getName())
+        {
+        case "equals":      return proxy == arguments[0];
+        case "hashCode":    return System.identityHashCode(proxy);
+        case "toString":    return "fake stub";
+        default:
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    /** Storage server command stub whose copies wait for a latch. */
+    private static class FakeCommand
+    {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        final Command       stub;
+
+        FakeCommand(CountDownLatch release, boolean fail)
+        {
+            stub = (Command)Proxy.newProxyInstance(
+                Command.class.getClassLoader(), new Class<?>[] {Command.class},
+                (proxy, method, arguments) ->
+                {
+                    if(!method.getName().equals("copy"))
+                        return identity(proxy, method, arguments);
+
+                    peak.accumulateAndGet(running.incrementAndGet(),
+                                          Math::max);
+                    try
+                    {
+                        release.await();
+                    }
+                    finally
+                    {
+                        running.decrementAndGet();
+                    }
+                    return !fail;
+                });
+        }
+    }
+
+    /** Stops the replicator. */
+    @Override
+    protected void clean()
+    {
+        if(replicator != null)
+            replicator.shutdown();
+    }
+}
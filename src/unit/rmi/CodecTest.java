@@ -0,0 +1,116 @@
+package rmi;
+
+import java.io.*;
+import java.util.*;
+
+import common.Path;
+import test.*;
+
+/** Checks that values survive a round trip through the binary codec.
+
+    <p>
+    Values with a compact encoding, values that fall back to serialization, and
+    exceptions are each written and read back, and compared with the original.
+    A length prefix claiming more bytes than the frame holds must be rejected.
+ */
+public class CodecTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking binary codec round trips";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        Object[]        values = new Object[]
+            {null, true, (byte)7, (short)-3, 'x', 42, -1L, 1.5f, 2.5,
+             "caf\u00e9", new byte[] {1, 2, 3}, new String[] {"a", null},
+             new Path("/etc/dfs"), new Path[] {new Path("/"), null},
+             new ArrayList<String>(Arrays.asList("fallback"))};
+
+        Object[]        decoded = roundTrip(values);
+
+        for(int index = 0; index < values.length; ++index)
+        {
+            if(!Objects.deepEquals(values[index], decoded[index]))
+            {
+                throw new TestFailed("value " + values[index] + " decoded " +
+                                     "as " + decoded[index]);
+            }
+        }
+
+        Object          exception =
+            roundTrip(new Object[] {new FileNotFoundException("gone")})[0];
+
+        if(!(exception instanceof FileNotFoundException) ||
+           !"gone".equals(((Throwable)exception).getMessage()))
+        {
+            throw new TestFailed("exception decoded as " + exception);
+        }
+
+        checkOversizedLength();
+    }
+
+    /** Checks that a length exceeding the rest of the frame is rejected
+        before anything is allocated for it. */
+    private void checkOversizedLength() throws TestFailed
+    {
+        ByteArrayOutputStream   bytes = new ByteArrayOutputStream();
+
+        try
+        {
+            DataOutputStream    out = new DataOutputStream(bytes);
+            out.writeInt(1);
+            BinaryCodec.INSTANCE.writeValue(out, new byte[] {1, 2, 3});
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to encode value", e);
+        }
+
+        // Claim far more bytes than the frame holds.
+        byte[]          frame = bytes.toByteArray();
+        frame[5] = 0x7f;
+
+        try
+        {
+            BinaryCodec.INSTANCE.readArguments(
+                new FrameInputStream(new ByteArrayInputStream(frame),
+                                     frame.length));
+        }
+        catch(IOException e)
+        {
+            return;
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("oversized length raised the wrong " +
+                                 "exception", e);
+        }
+
+        throw new TestFailed("oversized length was accepted");
+    }
+
+    /** Encodes the values as call arguments and decodes them again. */
+    private Object[] roundTrip(Object[] values) throws TestFailed
+    {
+        try
+        {
+            ByteArrayOutputStream   bytes = new ByteArrayOutputStream();
+            BinaryCodec.INSTANCE.writeArguments(new DataOutputStream(bytes),
+                                                values);
+
+            return BinaryCodec.INSTANCE.readArguments(
+                new FrameInputStream(
+                    new ByteArrayInputStream(bytes.toByteArray()),
+                    bytes.size()));
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unable to encode or decode values", e);
+        }
+    }
+}
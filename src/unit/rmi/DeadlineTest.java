@@ -0,0 +1,196 @@
+package rmi;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import test.*;
+
+/** Checks call deadlines and hedged calls.
+
+    <p>
+    A call to a blocked server must fail with <code>RMIException</code> when
+    the deadline installed by the caller expires, or when the stub's own
+    timeout expires, and the connection must remain usable afterwards. A
+    hedged call whose primary is blocked must be answered by the backup.
+ */
+public class DeadlineTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking call deadlines and hedged calls";
+
+    /** Deadline given to calls expected to time out, in milliseconds. */
+    private static final long   DEADLINE = 200;
+    /** Time allowed for a timed out call to return, in milliseconds. */
+    private static final long   ALLOWANCE = 5000;
+
+    /** Latch holding blocked calls. */
+    private final CountDownLatch        release = new CountDownLatch(1);
+    /** Skeleton whose <code>echo</code> method blocks. */
+    private Skeleton<Echo>              slow = null;
+    /** Skeleton whose <code>echo</code> method answers at once. */
+    private Skeleton<Echo>              fast = null;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        Echo        slowStub = start(new EchoServer("slow", release), true);
+        Echo        fastStub = start(new EchoServer("fast", null), false);
+
+        // Deadline installed by the caller.
+        long        started = System.currentTimeMillis();
+        try(Deadline deadline = Deadline.after(DEADLINE, TimeUnit.MILLISECONDS))
+        {
+            try
+            {
+                slowStub.echo();
+                throw new TestFailed("blocked call returned");
+            }
+            catch(RMIException e) { }
+
+            if(deadline.remainingNanos() > 0)
+                throw new TestFailed("call failed before its deadline expired");
+        }
+        checkElapsed(started);
+
+        // Timeout carried by the stub.
+        started = System.currentTimeMillis();
+        try
+        {
+            Stub.withTimeout(slowStub, DEADLINE, TimeUnit.MILLISECONDS).echo();
+            throw new TestFailed("blocked call returned");
+        }
+        catch(RMIException e) { }
+        checkElapsed(started);
+
+        // The connection must still carry calls.
+        try
+        {
+            if(!"slow".equals(slowStub.name()))
+                throw new TestFailed("wrong reply after timeout");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("connection unusable after timeout", e);
+        }
+
+        // Hedged call with a blocked primary.
+        HedgePolicy policy = HedgePolicy.percentile(95).idempotent("echo")
+            .minimumDelay(50, TimeUnit.MILLISECONDS);
+        Echo        hedged = Stub.createHedged(Echo.class, slowStub, fastStub,
+                                               policy);
+        try(Deadline deadline = Deadline.after(ALLOWANCE, TimeUnit.MILLISECONDS))
+        {
+            if(!"fast".equals(hedged.echo()))
+                throw new TestFailed("hedged call not answered by backup");
+            if(deadline.remainingNanos() <= 0)
+                throw new TestFailed("hedged call answered after its deadline");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("hedged call failed", e);
+        }
+
+        if(policy.hedges() != 1)
+            throw new TestFailed("hedge not counted");
+    }
+
+    /** Starts a skeleton and returns a stub for it. */
+    private Echo start(EchoServer server, boolean isSlow) throws TestFailed
+    {
+        Skeleton<Echo>  skeleton = new Skeleton<>(Echo.class, server,
+            new InetSocketAddress("127.0.0.1", 0));
+
+        if(isSlow)
+            slow = skeleton;
+        else
+            fast = skeleton;
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        return Stub.create(Echo.class, new InetSocketAddress("127.0.0.1",
+            skeleton.serverSocket.getLocalPort()));
+    }
+
+    /** Checks that a timed out call returned in reasonable time. */
+    private void checkElapsed(long started) throws TestFailed
+    {
+        long    elapsed = System.currentTimeMillis() - started;
+
+        if(elapsed < DEADLINE)
+            throw new TestFailed("call failed before its deadline");
+
+        if(elapsed > ALLOWANCE)
+            throw new TestFailed("call outlived its deadline");
+    }
+
+    /** Releases blocked calls and stops the skeletons. */
+    @Override
+    protected void clean()
+    {
+        release.countDown();
+
+        if(slow != null)
+            slow.stop();
+
+        if(fast != null)
+            fast.stop();
+    }
+
+    /** Remote interface of the test servers. */
+    public interface Echo
+    {
+        /** Returns the server's name, possibly after blocking. */
+        String echo() throws RMIException;
+
+        /** Returns the server's name at once. */
+        String name() throws RMIException;
+    }
+
+    /** Server returning its name. */
+    private static class EchoServer implements Echo
+    {
+        private final String            name;
+        /** Latch on which <code>echo</code> blocks, or <code>null</code>. */
+        private final CountDownLatch    latch;
+
+        EchoServer(String name, CountDownLatch latch)
+        {
+            this.name = name;
+            this.latch = latch;
+        }
+
+        @Override
+        public String echo()
+        {
+            if(latch != null)
+            {
+                try
+                {
+                    latch.await();
+                }
+                catch(InterruptedException e) { }
+            }
+
+            return name;
+        }
+
+        @Override
+        public String name()
+        {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package rmi;
+
+import test.*;
+
+/** Checks latency histogram percentiles.
+
+    <p>
+    Values from 1 to 10000 are recorded once each. Percentiles must be within
+    the histogram's precision of the exact values, and the count, mean and
+    maximum must be exact.
+ */
+public class LatencyHistogramTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking latency histogram percentiles";
+
+    /** Number of values recorded. */
+    private static final int    VALUES = 10000;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        LatencyHistogram    histogram = new LatencyHistogram();
+
+        if(histogram.percentile(99) != 0)
+            throw new TestFailed("empty histogram has non-zero percentile");
+
+        for(int value = 1; value <= VALUES; ++value)
+            histogram.record(value);
+
+        if(histogram.count() != VALUES)
+            throw new TestFailed("wrong count");
+
+        if(histogram.max() != VALUES)
+            throw new TestFailed("wrong maximum");
+
+        if(histogram.mean() != (VALUES + 1) / 2.0)
+            throw new TestFailed("wrong mean");
+
+        checkPercentile(histogram, 50, VALUES / 2);
+        checkPercentile(histogram, 90, VALUES * 9 / 10);
+        checkPercentile(histogram, 99, VALUES * 99 / 100);
+        checkPercentile(histogram, 100, VALUES);
+
+        histogram.record(LatencyHistogram.MAX_VALUE + 1);
+        if(histogram.max() != LatencyHistogram.MAX_VALUE)
+            throw new TestFailed("value beyond range not clamped");
+    }
+
+    /** Checks that a percentile lies within one percent above the exact
+        value. */
+    private void checkPercentile(LatencyHistogram histogram, double percentile,
+                                 long exact)
+        throws TestFailed
+    {
+        long    reported = histogram.percentile(percentile);
+
+        if(reported < exact || reported > exact + exact / 100)
+        {
+            throw new TestFailed("percentile " + percentile + " reported as " +
+                                 reported + ", expected " + exact);
+        }
+    }
+}
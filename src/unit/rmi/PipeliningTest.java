@@ -0,0 +1,137 @@
+package rmi;
+
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import test.*;
+
+/** Checks that calls are pipelined on a single connection.
+
+    <p>
+    A first call is sent that blocks on the server until a second call, sent
+    afterwards on the same connection, releases it. The second call can only
+    complete if the skeleton runs requests concurrently, and the first call's
+    reply then arrives after the second's. The test is run with each
+    transport.
+ */
+public class PipeliningTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking pipelining of calls on one connection";
+
+    /** Time allowed for each call to complete, in milliseconds. */
+    private static final long   TIMEOUT = 5000;
+
+    /** Skeleton currently running, if any. */
+    private Skeleton<Rendezvous>    skeleton = null;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        for(Transport transport : Transport.values())
+            perform(transport);
+    }
+
+    /** Performs the test with one transport. */
+    private void perform(Transport transport) throws TestFailed
+    {
+        RendezvousServer    server = new RendezvousServer();
+        skeleton = new Skeleton<>(Rendezvous.class, server,
+                                  new InetSocketAddress("127.0.0.1", 0));
+        skeleton.setTransport(transport);
+
+        Connection          connection = null;
+
+        try
+        {
+            skeleton.start();
+
+            Method          await = Rendezvous.class.getMethod("await");
+            Method          release = Rendezvous.class.getMethod("release");
+            MethodTable     table = MethodTable.of(Rendezvous.class);
+
+            connection = new Connection("127.0.0.1",
+                                        skeleton.serverSocket.getLocalPort(), 0);
+
+            CompletableFuture<Object>   first =
+                connection.send(table.idOf(await), null,
+                                RMIMetrics.client().method(await), 0);
+            CompletableFuture<Object>   second =
+                connection.send(table.idOf(release), null,
+                                RMIMetrics.client().method(release), 0);
+
+            if(!"released".equals(second.get(TIMEOUT, TimeUnit.MILLISECONDS)))
+                throw new TestFailed("second call returned wrong value");
+
+            if(!"awaited".equals(first.get(TIMEOUT, TimeUnit.MILLISECONDS)))
+                throw new TestFailed("first call returned wrong value");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("pipelined calls did not complete with " +
+                                 transport + " transport", t);
+        }
+        finally
+        {
+            if(connection != null)
+                connection.close();
+
+            server.latch.countDown();
+            skeleton.stop();
+            skeleton = null;
+        }
+    }
+
+    /** Stops the skeleton if it is still running. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Remote interface whose first method waits for the second. */
+    public interface Rendezvous
+    {
+        /** Waits until <code>release</code> is called. */
+        String await() throws RMIException;
+
+        /** Releases callers of <code>await</code>. */
+        String release() throws RMIException;
+    }
+
+    /** Server implementing <code>Rendezvous</code> with a latch. */
+    private static class RendezvousServer implements Rendezvous
+    {
+        /** Latch released by <code>release</code>. */
+        private final CountDownLatch    latch = new CountDownLatch(1);
+
+        @Override
+        public String await() throws RMIException
+        {
+            try
+            {
+                latch.await();
+            }
+            catch(InterruptedException e) { }
+
+            return "awaited";
+        }
+
+        @Override
+        public String release()
+        {
+            latch.countDown();
+            return "released";
+        }
+    }
+}
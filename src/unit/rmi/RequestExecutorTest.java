@@ -0,0 +1,127 @@
+package rmi;
+
+import java.util.concurrent.CountDownLatch;
+
+import test.*;
+
+/** Checks admission control in bounded request executors.
+
+    <p>
+    A bounded executor with one worker and a queue of one is given three calls
+    while the first is blocked. The second call must be queued and the third
+    rejected. Once the first call is released, both accepted calls must run to
+    completion.
+
+    <p>
+    The executor is then given connections to serve, each blocked until
+    released. Once <code>MAX_CONNECTIONS</code> are being served, the next
+    connection must be rejected and counted. Released connections must free
+    their places.
+ */
+public class RequestExecutorTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking request executor admission control";
+
+    /** Latch holding the first call in its worker. */
+    private final CountDownLatch    release = new CountDownLatch(1);
+    /** Latch counting down as accepted calls finish. */
+    private final CountDownLatch    finished = new CountDownLatch(2);
+    /** Latch holding connections open. */
+    private final CountDownLatch    disconnect = new CountDownLatch(1);
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        RequestExecutor     executor = RequestExecutor.bounded(1, 1);
+        Runnable            call = () ->
+        {
+            try
+            {
+                release.await();
+            }
+            catch(InterruptedException e) { }
+
+            finished.countDown();
+        };
+
+        if(!executor.execute(call))
+            throw new TestFailed("first call rejected");
+
+        if(!executor.execute(call))
+            throw new TestFailed("second call rejected with queue space free");
+
+        if(executor.execute(call))
+            throw new TestFailed("third call accepted with queue full");
+
+        if(executor.rejectedCount() != 1)
+            throw new TestFailed("rejected call not counted");
+
+        if(executor.queueDepth() != 1)
+            throw new TestFailed("queued call not counted");
+
+        release.countDown();
+
+        try
+        {
+            finished.await();
+            checkConnections(executor);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted waiting for calls", e);
+        }
+    }
+
+    /** Checks the limit on connections served at once. */
+    private void checkConnections(RequestExecutor executor)
+        throws TestFailed, InterruptedException
+    {
+        Runnable    connection = () ->
+        {
+            try
+            {
+                disconnect.await();
+            }
+            catch(InterruptedException e) { }
+        };
+
+        for(int index = 0; index < RequestExecutor.MAX_CONNECTIONS; ++index)
+        {
+            if(!executor.serveConnection(connection))
+                throw new TestFailed("connection " + index + " rejected");
+        }
+
+        if(executor.serveConnection(connection))
+            throw new TestFailed("connection accepted beyond the limit");
+
+        if(executor.rejectedCount() != 2)
+            throw new TestFailed("rejected connection not counted");
+
+        disconnect.countDown();
+
+        long    limit = System.currentTimeMillis() + 5000;
+        while(executor.connectionCount() > 0)
+        {
+            if(System.currentTimeMillis() > limit)
+                throw new TestFailed("released connections still counted");
+            Thread.sleep(10);
+        }
+
+        if(!executor.serveConnection(connection))
+            throw new TestFailed("connection rejected after others closed");
+    }
+
+    /** Releases any calls still blocked. */
+    @Override
+    protected void clean()
+    {
+        release.countDown();
+        disconnect.countDown();
+    }
+}